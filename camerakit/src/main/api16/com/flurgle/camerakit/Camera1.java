@@ -3,6 +3,7 @@ package com.flurgle.camerakit;
 import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
 import android.graphics.Rect;
 import android.graphics.YuvImage;
 import android.hardware.Camera;
@@ -20,26 +21,39 @@ import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
-import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static com.flurgle.camerakit.CameraKit.Constants.FLASH_OFF;
 import static com.flurgle.camerakit.CameraKit.Constants.FOCUS_CONTINUOUS;
 import static com.flurgle.camerakit.CameraKit.Constants.FOCUS_OFF;
 import static com.flurgle.camerakit.CameraKit.Constants.FOCUS_TAP;
+import static com.flurgle.camerakit.CameraKit.Constants.FRAME_SELECTION_MERGE;
+import static com.flurgle.camerakit.CameraKit.Constants.FRAME_SELECTION_NEAREST;
+import static com.flurgle.camerakit.CameraKit.Constants.METHOD_SPEED;
 import static com.flurgle.camerakit.CameraKit.Constants.METHOD_STANDARD;
 import static com.flurgle.camerakit.CameraKit.Constants.METHOD_STILL;
+import static com.flurgle.camerakit.CameraKit.Constants.ORIENTATION_EXIF;
 
 @SuppressWarnings("deprecation")
 public class Camera1 extends CameraImpl {
 
     private static final String TAG = "Camera1";
 
+    // An HDR bracket is one frame as metered and one this many EV below and above it, each
+    // taken once auto exposure had HDR_SETTLE_FRAMES frames to apply the step.
+    private static final float HDR_BRACKET_EV = 2f;
+    private static final int HDR_SETTLE_FRAMES = 3;
+
+    // Largest share of the heap one frame may take: a capture is held in several copies on
+    // its way to JPEG, a preview frame in every ring buffer and history slot.
+    private static final int CAPTURE_HEAP_SHARE = 4;
+    private static final int PREVIEW_HEAP_SHARE = 8;
+
     private static final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss", Locale.GERMAN);
 
     private static final int FOCUS_AREA_SIZE_DEFAULT = 300;
@@ -48,7 +62,8 @@ public class Camera1 extends CameraImpl {
 
     private int mCameraId;
     private Camera mCamera;
-    private Camera.Parameters mCameraParameters;
+    private ParameterShadow mParameters;
+    private CameraCapabilities mCapabilities;
     private Camera.CameraInfo mCameraInfo;
     private Size mPreviewSize;
     private Size mCaptureSize;
@@ -76,9 +91,39 @@ public class Camera1 extends CameraImpl {
     @VideoQuality
     private int mVideoQuality;
 
+    @PreviewFormat
+    private int mPreviewFormat;
+
+    @OrientationMode
+    private int mOrientationMode;
+
+    @FrameSelection
+    private int mFrameSelection;
+
     private int mJpegQuality;
+    private boolean mCropOutput;
+    private int mMaxOutputLongEdge;
+    private int mMaxOutputPixels;
+    private int mSpeedFrames;
+    private int mSpeedMaxBytes;
+    private boolean mHdr;
 
     private Handler mHandler;
+    // Posted on mHandler after a tap to focus, and cancelled alone, so it never drops the
+    // taps and flash changes queued behind it.
+    private final Runnable mResetFocus = new Runnable() {
+        @Override
+        public void run() {
+            resetFocus();
+        }
+    };
+    private Camera mFocusCamera;
+    private boolean mFocusSuccess;
+    private StillQueue mStillQueue;
+    private PreviewBufferRing mPreviewBuffers;
+    private FrameHistory mFrameHistory = new FrameHistory(0);
+    private List<BurstConsumer> mBursts = new ArrayList<>();
+    private HdrBracket mHdrBracket;
 
     private boolean mIsAudioEnabled;
 
@@ -86,6 +131,8 @@ public class Camera1 extends CameraImpl {
         super(callback, preview);
         // same looper but another task queue
         mHandler = new Handler(handler.getLooper());
+        mPreviewBuffers = new PreviewBufferRing(new Handler(handler.getLooper()));
+        mParameters = new ParameterShadow(new Handler(handler.getLooper()));
         preview.setCallback(new PreviewImpl.Callback() {
             @Override
             public void onSurfaceChanged() {
@@ -152,29 +199,29 @@ public class Camera1 extends CameraImpl {
     @Override
     void setFlash(@Flash final int flash) {
         Log.i(TAG, "setFlash: " + flash);
-        if (mCameraParameters != null) {
+        if (mParameters.isAttached()) {
             // reset parameters
-            mCameraParameters.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
-            mCamera.setParameters(mCameraParameters);
+            mParameters.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
+            mParameters.commit();
 
             // set flash. Delay needs to change FLASH_MODE_TORCH to FLASH_MODE_ON.
             mHandler.postDelayed(new Runnable() {
                 @Override
                 public void run() {
-                    if (mCameraParameters != null) {
-                        List<String> flashes = mCameraParameters.getSupportedFlashModes();
+                    if (mParameters.isAttached()) {
+                        List<String> flashes = mCapabilities.getFlashModes();
                         String internalFlash = new ConstantMapper.Flash(flash).map();
-                        if (flashes != null && flashes.contains(internalFlash)) {
-                            mCameraParameters.setFlashMode(internalFlash);
+                        if (flashes.contains(internalFlash)) {
+                            mParameters.setFlashMode(internalFlash);
                             mFlash = flash;
                         } else {
                             String currentFlash = new ConstantMapper.Flash(mFlash).map();
-                            if (flashes == null || !flashes.contains(currentFlash)) {
-                                mCameraParameters.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
+                            if (!flashes.contains(currentFlash)) {
+                                mParameters.setFlashMode(Camera.Parameters.FLASH_MODE_OFF);
                                 mFlash = FLASH_OFF;
                             }
                         }
-                        mCamera.setParameters(mCameraParameters);
+                        mParameters.commit();
                     } else {
                         mFlash = flash;
                     }
@@ -190,11 +237,11 @@ public class Camera1 extends CameraImpl {
         this.mFocus = focus;
         switch (focus) {
             case FOCUS_CONTINUOUS:
-                if (mCameraParameters != null) {
+                if (mParameters.isAttached()) {
                     detachFocusTapListener();
-                    final List<String> modes = mCameraParameters.getSupportedFocusModes();
+                    final List<String> modes = mCapabilities.getFocusModes();
                     if (modes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
-                        mCameraParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+                        mParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
                     } else {
                         setFocus(FOCUS_OFF);
                     }
@@ -202,34 +249,42 @@ public class Camera1 extends CameraImpl {
                 break;
 
             case FOCUS_TAP:
-                if (mCameraParameters != null) {
+                if (mParameters.isAttached()) {
                     attachFocusTapListener();
-                    final List<String> modes = mCameraParameters.getSupportedFocusModes();
+                    final List<String> modes = mCapabilities.getFocusModes();
                     if (modes.contains(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE)) {
-                        mCameraParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+                        mParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
                     }
                 }
                 break;
 
             case FOCUS_OFF:
-                if (mCameraParameters != null) {
+                if (mParameters.isAttached()) {
                     detachFocusTapListener();
-                    final List<String> modes = mCameraParameters.getSupportedFocusModes();
+                    final List<String> modes = mCapabilities.getFocusModes();
                     if (modes.contains(Camera.Parameters.FOCUS_MODE_FIXED)) {
-                        mCameraParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_FIXED);
+                        mParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_FIXED);
                     } else if (modes.contains(Camera.Parameters.FOCUS_MODE_INFINITY)) {
-                        mCameraParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_INFINITY);
+                        mParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_INFINITY);
                     } else {
-                        mCameraParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+                        mParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
                     }
                 }
                 break;
         }
+        if (mParameters.isAttached()) {
+            mParameters.commit();
+        }
     }
 
     @Override
     void setMethod(@Method int method) {
+        boolean changed = method != mMethod;
         this.mMethod = method;
+        updateFrameHistory();
+        if (changed) {
+            resetResolutions();
+        }
     }
 
     @Override
@@ -242,17 +297,82 @@ public class Camera1 extends CameraImpl {
         this.mVideoQuality = videoQuality;
     }
 
+    @Override
+    void setCropOutput(boolean cropOutput) {
+        this.mCropOutput = cropOutput;
+    }
+
+    @Override
+    void setMaxOutputSize(int maxLongEdge, int maxPixels) {
+        boolean changed = maxPixels != mMaxOutputPixels;
+        this.mMaxOutputLongEdge = maxLongEdge;
+        this.mMaxOutputPixels = maxPixels;
+        if (changed) {
+            resetResolutions();
+        }
+    }
+
+    @Override
+    void setPreviewFormat(@PreviewFormat int previewFormat) {
+        this.mPreviewFormat = previewFormat;
+        reconfigurePreview();
+    }
+
+    @Override
+    void setOrientationMode(@OrientationMode int orientationMode) {
+        this.mOrientationMode = orientationMode;
+    }
+
+    @Override
+    void setFrameSelection(@FrameSelection int frameSelection) {
+        this.mFrameSelection = frameSelection;
+    }
+
+    @Override
+    void setHdr(boolean hdr) {
+        boolean changed = hdr != mHdr;
+        this.mHdr = hdr;
+        if (changed) {
+            resetResolutions();
+        }
+    }
+
+    @Override
+    void setStillQueue(StillQueue stillQueue) {
+        this.mStillQueue = stillQueue;
+    }
+
+    @Override
+    void setSpeedHistory(int maxFrames, int maxBytes) {
+        this.mSpeedFrames = maxFrames;
+        this.mSpeedMaxBytes = maxBytes;
+        updateFrameHistory();
+    }
+
+    @Override
+    void addFrameConsumer(FrameConsumer consumer) {
+        mPreviewBuffers.addConsumer(consumer);
+    }
+
+    @Override
+    void removeFrameConsumer(FrameConsumer consumer) {
+        mPreviewBuffers.removeConsumer(consumer);
+    }
+
     @Override
     void setJpegQuality(int jpegQuality) {
         mJpegQuality = jpegQuality;
-        if (mCameraParameters != null) {
-            mCameraParameters.setJpegQuality(jpegQuality);
-            mCamera.setParameters(mCameraParameters);
+        if (mParameters.isAttached()) {
+            mParameters.setJpegQuality(jpegQuality);
+            mParameters.commit();
         }
     }
 
     @Override
-    void captureImage() {
+    void captureImage(final long shutterTimestamp) {
+        if (mHdr && captureHdr(shutterTimestamp)) {
+            return;
+        }
         switch (mMethod) {
             case METHOD_STANDARD:
                 mCamera.takePicture(null, null, null, new Camera.PictureCallback() {
@@ -262,28 +382,43 @@ public class Camera1 extends CameraImpl {
                                 + (mFacing == CameraKit.Constants.FACING_FRONT ? 180 : 0)) % 360;
                         Log.d(TAG, "onPictureTaken: jpeg: before: " + data.length + ", after: " + data.length
                                 + ", rotation: " + cameraRotation);
-                        mCameraListener.onPictureTaken(data, cameraRotation);
+                        mCameraListener.onPictureTaken(data, cameraRotation,
+                                new CaptureMetadata(METHOD_STANDARD, shutterTimestamp, System.nanoTime()));
                         camera.startPreview();
                     }
                 });
                 break;
 
             case METHOD_STILL:
-                mCamera.setOneShotPreviewCallback(new Camera.PreviewCallback() {
-                    @Override
-                    public void onPreviewFrame(byte[] data, Camera camera) {
-                        new Thread(new ProcessStillTask(data, camera, calculateCaptureRotation(), new ProcessStillTask.OnStillProcessedListener() {
-                            @Override
-                            public void onStillProcessed(final YuvImage yuv) {
-                                mCameraListener.onPictureTaken(yuv);
-                            }
-                        })).start();
-                    }
-                });
+                requestStill(METHOD_STILL, shutterTimestamp);
+                break;
+
+            case METHOD_SPEED:
+                List<Frame> candidates;
+                if (mFrameSelection != FRAME_SELECTION_NEAREST) {
+                    // Only the sharpest of them is encoded, the others at most merged into it.
+                    candidates = mFrameHistory.takeAll();
+                } else {
+                    Frame frame = mFrameHistory.takeNearest(shutterTimestamp);
+                    candidates = frame != null ? Collections.singletonList(frame) : Collections.<Frame>emptyList();
+                }
+                if (!candidates.isEmpty()) {
+                    submitStill(candidates, mFrameSelection == FRAME_SELECTION_MERGE, METHOD_SPEED, shutterTimestamp);
+                } else {
+                    // Nothing kept yet, e.g. right after the preview started.
+                    requestStill(METHOD_SPEED, shutterTimestamp);
+                }
                 break;
         }
     }
 
+    @Override
+    void captureBurst(BurstCapture burst) {
+        BurstConsumer consumer = new BurstConsumer(burst);
+        mBursts.add(consumer);
+        mPreviewBuffers.addConsumer(consumer);
+    }
+
     @Override
     void startVideo() {
         initMediaRecorder();
@@ -306,27 +441,12 @@ public class Camera1 extends CameraImpl {
 
     @Override
     Size getCaptureResolution() {
-        if (mCaptureSize == null && mCameraParameters != null) {
-            TreeSet<Size> sizes = new TreeSet<>();
-            for (Camera.Size size : mCameraParameters.getSupportedPictureSizes()) {
-                sizes.add(new Size(size.width, size.height));
-            }
-
-            TreeSet<AspectRatio> aspectRatios = findCommonAspectRatios(
-                    mCameraParameters.getSupportedPreviewSizes(),
-                    mCameraParameters.getSupportedPictureSizes()
-            );
-            AspectRatio targetRatio = aspectRatios.size() > 0 ? aspectRatios.last() : null;
-
-            Iterator<Size> descendingSizes = sizes.descendingIterator();
-            Size size;
-            while (descendingSizes.hasNext() && mCaptureSize == null) {
-                size = descendingSizes.next();
-                if (targetRatio == null || targetRatio.matches(size)) {
-                    mCaptureSize = size;
-                    break;
-                }
-            }
+        if (mCaptureSize == null && mCapabilities != null) {
+            mCaptureSize = new ResolutionSelector()
+                    .setAspectRatio(getTargetRatio(), ResolutionSelector.ASPECT_TOLERANCE)
+                    .setMaxPixels(mMaxOutputPixels)
+                    .setMaxBytesPerFrame(Runtime.getRuntime().maxMemory() / CAPTURE_HEAP_SHARE, 12)
+                    .select(mCapabilities.getPictureSizes());
         }
 
         return mCaptureSize;
@@ -334,30 +454,23 @@ public class Camera1 extends CameraImpl {
 
     @Override
     Size getPreviewResolution() {
-        if (mPreviewSize == null && mCameraParameters != null) {
-            TreeSet<Size> sizes = new TreeSet<>();
-            for (Camera.Size size : mCameraParameters.getSupportedPreviewSizes()) {
-                sizes.add(new Size(size.width, size.height));
-            }
-
-            TreeSet<AspectRatio> aspectRatios = findCommonAspectRatios(
-                    mCameraParameters.getSupportedPreviewSizes(),
-                    mCameraParameters.getSupportedPictureSizes()
-            );
-            AspectRatio targetRatio = aspectRatios.size() > 0 ? aspectRatios.last() : null;
-
-            Iterator<Size> descendingSizes = sizes.descendingIterator();
-            Size size;
-            while (descendingSizes.hasNext() && mPreviewSize == null) {
-                size = descendingSizes.next();
-                if (targetRatio == null || targetRatio.matches(size)) {
-                    mPreviewSize = size;
-                    break;
-                }
+        if (mPreviewSize == null && mCapabilities != null) {
+            ResolutionSelector selector = new ResolutionSelector()
+                    .setAspectRatio(getTargetRatio(), ResolutionSelector.ASPECT_TOLERANCE)
+                    .setMaxBytesPerFrame(Runtime.getRuntime().maxMemory() / PREVIEW_HEAP_SHARE, 12);
+            if (mMethod == METHOD_STANDARD && !mHdr) {
+                // Frames are only shown, so a size just covering the screen is enough.
+                selector.setTargetSize(
+                        Math.max(CameraKit.Internal.screenWidth, CameraKit.Internal.screenHeight),
+                        Math.min(CameraKit.Internal.screenWidth, CameraKit.Internal.screenHeight));
+            } else {
+                // Stills are made from preview frames.
+                selector.setMaxPixels(mMaxOutputPixels);
             }
+            mPreviewSize = selector.select(mCapabilities.getPreviewSizes());
         } else {
-            if (mCameraParameters == null) {
-                Log.w(TAG, "getPreviewResolution: mCameraParameters is null");
+            if (mCapabilities == null) {
+                Log.w(TAG, "getPreviewResolution: mCapabilities is null");
             }
         }
 
@@ -369,6 +482,11 @@ public class Camera1 extends CameraImpl {
         return mCamera != null;
     }
 
+    @Override
+    long getSavedParameterRoundTrips() {
+        return mParameters.getSavedRoundTrips();
+    }
+
     // Internal:
 
     private void openCamera() {
@@ -376,10 +494,35 @@ public class Camera1 extends CameraImpl {
             releaseCamera();
         }
 
+        CapabilityCache cache = CapabilityCache.get(mPreview.getView().getContext());
+        mCapabilities = cache.get(mCameraId);
+        boolean cached = mCapabilities != null;
+        if (cached) {
+            // The sizes are known before the camera is open, so the view lays out meanwhile.
+            updatePreviewLayout();
+        }
+
         mCamera = Camera.open(mCameraId);
-        mCameraParameters = mCamera.getParameters();
+        mParameters.attach(mCamera);
+        if (!cached) {
+            mCapabilities = CameraCapabilities.read(mCameraId, mParameters.get());
+            cache.put(mCameraId, mCapabilities);
+        }
 
-        adjustCameraParameters();
+        try {
+            adjustCameraParameters();
+        } catch (RuntimeException e) {
+            if (!cached) {
+                throw e;
+            }
+            // Rejected settings picked from a stale entry; read the camera again.
+            Log.w(TAG, "openCamera: cached capabilities rejected, reading them again", e);
+            mCapabilities = CameraCapabilities.read(mCameraId, mParameters.get());
+            cache.put(mCameraId, mCapabilities);
+            mPreviewSize = null;
+            mCaptureSize = null;
+            adjustCameraParameters();
+        }
         int rotation = calculateCameraRotation(mDisplayOrientation);
         mCamera.setDisplayOrientation(
                 rotation
@@ -404,13 +547,22 @@ public class Camera1 extends CameraImpl {
     private void releaseCamera() {
         if (mCamera != null) {
             Log.d(TAG, "releaseCamera: ");
+            mPreviewBuffers.detach();
+            mFrameHistory.clear();
+            for (BurstConsumer burst : new ArrayList<>(mBursts)) {
+                burst.end();
+            }
+            if (mHdrBracket != null) {
+                mHdrBracket.cancel();
+            }
+            mParameters.detach();
             mCamera.release();
             mCamera = null;
-            mCameraParameters = null;
             mPreviewSize = null;
             mCaptureSize = null;
             mCameraListener.onCameraClosed();
             mHandler.removeCallbacksAndMessages(null);
+            mFocusCamera = null;
         }
     }
 
@@ -431,28 +583,149 @@ public class Camera1 extends CameraImpl {
     }
 
     private int calculateCaptureRotation() {
-        int previewRotation = calculatePreviewRotation();
         if (mCameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT) {
-            //Front is flipped
-            return (previewRotation + 180 + 2*mDisplayOrientation + 720) %360;
+            // Upright but not mirrored; the mirror is applied by the still transform.
+            return (mCameraInfo.orientation + mDisplayOrientation) % 360;
         } else {
-            return previewRotation;
+            return calculatePreviewRotation();
         }
     }
 
-    private void adjustCameraParameters() {
+    private boolean isFrontFacing() {
+        return mCameraInfo.facing == Camera.CameraInfo.CAMERA_FACING_FRONT;
+    }
+
+    // Returns false when the camera cannot step its exposure compensation.
+    private boolean captureHdr(long shutterTimestamp) {
+        if (mHdrBracket != null) {
+            Log.w(TAG, "captureHdr: bracket already in progress");
+            return true;
+        }
+        if (!mParameters.isAttached()) {
+            return false;
+        }
+        Camera.Parameters parameters = mParameters.get();
+        int min = parameters.getMinExposureCompensation();
+        int max = parameters.getMaxExposureCompensation();
+        float step = parameters.getExposureCompensationStep();
+        if (min == max || step <= 0) {
+            return false;
+        }
+
+        int metered = parameters.getExposureCompensation();
+        int offset = Math.round(HDR_BRACKET_EV / step);
+        int[] compensations = {
+                metered,
+                Math.max(min, metered - offset),
+                Math.min(max, metered + offset)
+        };
+        mHdrBracket = new HdrBracket(compensations, shutterTimestamp);
+        mPreviewBuffers.addConsumer(mHdrBracket);
+        return true;
+    }
+
+    private void requestStill(@Method final int method, final long shutterTimestamp) {
+        mPreviewBuffers.requestFrame(new FrameConsumer() {
+            @Override
+            public void onFrame(Frame frame) {
+                submitStill(Collections.singletonList(frame.retain()), false, method, shutterTimestamp);
+            }
+        });
+    }
+
+    // Takes over the references to the candidates.
+    private void submitStill(List<Frame> candidates, boolean merge, @Method final int method, final long shutterTimestamp) {
+        final int exifOrientation = mOrientationMode == ORIENTATION_EXIF
+                ? ExifOrientation.forRotation(calculateCaptureRotation(), isFrontFacing())
+                : ExifOrientation.ORIENTATION_UNDEFINED;
+        mStillQueue.submit(new ProcessStillTask(candidates, merge, createStillTransform(), new ProcessStillTask.OnStillProcessedListener() {
+            @Override
+            public void onStillProcessed(YuvImage yuv, long frameTimestamp) {
+                mCameraListener.onPictureTaken(yuv, exifOrientation,
+                        new CaptureMetadata(method, shutterTimestamp, frameTimestamp));
+            }
+        }));
+    }
+
+    // METHOD_SPEED keeps recent frames in their preview buffers, so the ring grows by the
+    // size of the history, capped by mSpeedMaxBytes once the frame size is known.
+    private void updateFrameHistory() {
+        int frames = mMethod == METHOD_SPEED ? Math.max(0, mSpeedFrames) : 0;
+        int frameLength = mPreviewBuffers.getFrameLength();
+        if (mSpeedMaxBytes > 0 && frameLength > 0) {
+            frames = Math.min(frames, mSpeedMaxBytes / frameLength);
+        }
+        mFrameHistory.setCapacity(frames);
+        mPreviewBuffers.setBufferCount(PreviewBufferRing.BUFFER_COUNT + frames);
+        if (frames > 0) {
+            mPreviewBuffers.addConsumer(mFrameHistory);
+        } else {
+            mPreviewBuffers.removeConsumer(mFrameHistory);
+        }
+    }
+
+    private YuvTransform createStillTransform() {
+        // In EXIF mode rotation and mirroring are left to the Orientation tag, so the crop
+        // ratio has to be expressed in sensor orientation.
+        boolean exif = mOrientationMode == ORIENTATION_EXIF;
+        int rotation = calculateCaptureRotation();
+        YuvTransform transform = new YuvTransform()
+                .setRotation(exif ? 0 : rotation)
+                .setMirror(!exif && isFrontFacing())
+                .setMaxLongEdge(mMaxOutputLongEdge)
+                .setMaxPixels(mMaxOutputPixels);
+        if (mCropOutput && mPreview.getWidth() > 0 && mPreview.getHeight() > 0) {
+            AspectRatio viewRatio = AspectRatio.of(mPreview.getWidth(), mPreview.getHeight());
+            transform.setCropRatio(exif && rotation % 180 != 0 ? viewRatio.inverse() : viewRatio);
+        }
+        return transform;
+    }
+
+    // Many devices reject a new preview size or format while the preview runs, and the buffer
+    // ring is reallocated for it, so the preview is stopped around the change. While video is
+    // recording the change waits for the camera to be opened again.
+    private void reconfigurePreview() {
+        if (!mParameters.isAttached() || isVideoRecording()) {
+            return;
+        }
+        mCamera.stopPreview();
+        if (mHdrBracket != null) {
+            mHdrBracket.cancel();
+        }
+        mFrameHistory.clear();
+        adjustCameraParameters();
+        mCamera.startPreview();
+    }
+
+    // The preview and picture sizes depend on the method, HDR and the pixel cap, so they are
+    // picked again when one of those changes. While video is recording the sizes in effect
+    // stay; the camera picks new ones when it is opened again.
+    private void resetResolutions() {
+        if (isVideoRecording()) {
+            return;
+        }
+        mPreviewSize = null;
+        mCaptureSize = null;
+        reconfigurePreview();
+    }
+
+    private void updatePreviewLayout() {
         boolean invertPreviewSizes = mDisplayOrientation%180 != 0;
         mPreview.setTruePreviewSize(
                 invertPreviewSizes? getPreviewResolution().getHeight() : getPreviewResolution().getWidth(),
                 invertPreviewSizes? getPreviewResolution().getWidth() : getPreviewResolution().getHeight()
         );
+    }
+
+    private void adjustCameraParameters() {
+        updatePreviewLayout();
 
-        mCameraParameters.setPreviewSize(
+        mParameters.setPreviewSize(
                 getPreviewResolution().getWidth(),
                 getPreviewResolution().getHeight()
         );
 
-        mCameraParameters.setPictureSize(
+        mParameters.setPictureSize(
                 getCaptureResolution().getWidth(),
                 getCaptureResolution().getHeight()
         );
@@ -460,7 +733,14 @@ public class Camera1 extends CameraImpl {
 //        int rotation = calculateCaptureRotation();
 //        mCameraParameters.setRotation(rotation);
 
-        mCameraParameters.setJpegQuality(mJpegQuality);
+        mParameters.setJpegQuality(mJpegQuality);
+
+        int previewFormat = new ConstantMapper.PreviewFormat(mPreviewFormat).map();
+        if (mCapabilities.getPreviewFormats().contains(previewFormat)) {
+            mParameters.setPreviewFormat(previewFormat);
+        } else {
+            mParameters.setPreviewFormat(ImageFormat.NV21);
+        }
 
         int cameraRotation = (calculateCameraRotation(mDisplayOrientation)
                         + (mFacing == CameraKit.Constants.FACING_FRONT ? 180 : 0)) % 360;
@@ -476,30 +756,20 @@ public class Camera1 extends CameraImpl {
         setFocus(mFocus);
         setFlash(mFlash);
 
-        mCamera.setParameters(mCameraParameters);
+        // The preview buffers below are sized from these, so they must be in effect first.
+        mParameters.apply();
+        mPreviewBuffers.attach(mCamera, mParameters.get().getPreviewFormat(),
+                getPreviewResolution().getWidth(), getPreviewResolution().getHeight());
+        updateFrameHistory();
     }
 
-    private TreeSet<AspectRatio> findCommonAspectRatios(List<Camera.Size> previewSizes, List<Camera.Size> captureSizes) {
-        Set<AspectRatio> previewAspectRatios = new HashSet<>();
-        for (Camera.Size size : previewSizes) {
-            if (size.width >= CameraKit.Internal.screenHeight && size.height >= CameraKit.Internal.screenWidth) {
-                previewAspectRatios.add(AspectRatio.of(size.width, size.height));
-            }
-        }
-
-        Set<AspectRatio> captureAspectRatios = new HashSet<>();
-        for (Camera.Size size : captureSizes) {
-            captureAspectRatios.add(AspectRatio.of(size.width, size.height));
-        }
-
-        TreeSet<AspectRatio> output = new TreeSet<>();
-        for (AspectRatio aspectRatio : previewAspectRatios) {
-            if (captureAspectRatios.contains(aspectRatio)) {
-                output.add(aspectRatio);
-            }
-        }
-
-        return output;
+    private AspectRatio getTargetRatio() {
+        return ResolutionSelector.findWidestCommonRatio(
+                mCapabilities.getPreviewSizes(),
+                mCapabilities.getPictureSizes(),
+                Math.max(CameraKit.Internal.screenWidth, CameraKit.Internal.screenHeight),
+                Math.min(CameraKit.Internal.screenWidth, CameraKit.Internal.screenHeight),
+                ResolutionSelector.ASPECT_TOLERANCE);
     }
 
     private void initMediaRecorder() {
@@ -562,11 +832,17 @@ public class Camera1 extends CameraImpl {
         }
     }
 
+    private boolean hasCamcorderProfile(int quality) {
+        return mCapabilities != null
+                ? mCapabilities.hasCamcorderProfile(quality)
+                : CamcorderProfile.hasProfile(mCameraId, quality);
+    }
+
     private CamcorderProfile getCamcorderProfile(@VideoQuality int videoQuality) {
         CamcorderProfile camcorderProfile = null;
         switch (videoQuality) {
             case CameraKit.Constants.VIDEO_QUALITY_480P:
-                if (CamcorderProfile.hasProfile(mCameraId, CamcorderProfile.QUALITY_480P)) {
+                if (hasCamcorderProfile(CamcorderProfile.QUALITY_480P)) {
                     camcorderProfile = CamcorderProfile.get(mCameraId, CamcorderProfile.QUALITY_480P);
                 } else {
                     return getCamcorderProfile(CameraKit.Constants.VIDEO_QUALITY_LOWEST);
@@ -574,7 +850,7 @@ public class Camera1 extends CameraImpl {
                 break;
 
             case CameraKit.Constants.VIDEO_QUALITY_720P:
-                if (CamcorderProfile.hasProfile(mCameraId, CamcorderProfile.QUALITY_720P)) {
+                if (hasCamcorderProfile(CamcorderProfile.QUALITY_720P)) {
                     camcorderProfile = CamcorderProfile.get(mCameraId, CamcorderProfile.QUALITY_720P);
                 } else {
                     return getCamcorderProfile(CameraKit.Constants.VIDEO_QUALITY_480P);
@@ -582,7 +858,7 @@ public class Camera1 extends CameraImpl {
                 break;
 
             case CameraKit.Constants.VIDEO_QUALITY_1080P:
-                if (CamcorderProfile.hasProfile(mCameraId, CamcorderProfile.QUALITY_1080P)) {
+                if (hasCamcorderProfile(CamcorderProfile.QUALITY_1080P)) {
                     camcorderProfile = CamcorderProfile.get(mCameraId, CamcorderProfile.QUALITY_1080P);
                 } else {
                     return getCamcorderProfile(CameraKit.Constants.VIDEO_QUALITY_720P);
@@ -635,57 +911,15 @@ public class Camera1 extends CameraImpl {
             public boolean onTouch(View v, MotionEvent event) {
                 if (event.getAction() == MotionEvent.ACTION_UP) {
                     if (mCamera != null) {
-                        Camera.Parameters parameters = mCamera.getParameters();
-                        String focusMode = parameters.getFocusMode();
-                        Rect rect = calculateFocusArea(event.getX(), event.getY());
-                        List<Camera.Area> meteringAreas = new ArrayList<>();
-                        meteringAreas.add(new Camera.Area(rect, getFocusMeteringAreaWeight()));
-                        if (parameters.getMaxNumFocusAreas() != 0 && focusMode != null &&
-                            (focusMode.equals(Camera.Parameters.FOCUS_MODE_AUTO) ||
-                            focusMode.equals(Camera.Parameters.FOCUS_MODE_MACRO) ||
-                            focusMode.equals(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE) ||
-                            focusMode.equals(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO))
-                        ) {
-                            parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
-                            parameters.setFocusAreas(meteringAreas);
-                            if (parameters.getMaxNumMeteringAreas() > 0) {
-                                parameters.setMeteringAreas(meteringAreas);
-                            }
-                            if(!parameters.getSupportedFocusModes().contains(Camera.Parameters.FOCUS_MODE_AUTO)) {
-                                return false; //cannot autoFocus
-                            }
-                            mCamera.setParameters(parameters);
-                            mCamera.autoFocus(new Camera.AutoFocusCallback() {
-                                @Override
-                                public void onAutoFocus(boolean success, Camera camera) {
-                                    resetFocus(success, camera);
-                                }
-                            });
-                        } else if (parameters.getMaxNumMeteringAreas() > 0) {
-                            if(!parameters.getSupportedFocusModes().contains(Camera.Parameters.FOCUS_MODE_AUTO)) {
-                                return false; //cannot autoFocus
+                        final float x = event.getX();
+                        final float y = event.getY();
+                        // The parameter shadow belongs to the camera thread.
+                        mHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                focusAt(x, y);
                             }
-                            parameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
-                            parameters.setFocusAreas(meteringAreas);
-                            parameters.setMeteringAreas(meteringAreas);
-
-                            mCamera.setParameters(parameters);
-                            mCamera.autoFocus(new Camera.AutoFocusCallback() {
-                                @Override
-                                public void onAutoFocus(boolean success, Camera camera) {
-                                    resetFocus(success, camera);
-                                }
-                            });
-                        } else {
-                            mCamera.autoFocus(new Camera.AutoFocusCallback() {
-                                @Override
-                                public void onAutoFocus(boolean success, Camera camera) {
-                                    if (mAutofocusCallback != null) {
-                                        mAutofocusCallback.onAutoFocus(success, camera);
-                                    }
-                                }
-                            });
-                        }
+                        });
                     }
                 }
                 return true;
@@ -693,27 +927,86 @@ public class Camera1 extends CameraImpl {
         });
     }
 
-    private void resetFocus(final boolean success, final Camera camera) {
-        mHandler.removeCallbacksAndMessages(null);
-        mHandler.postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                if (camera != null) {
-                    camera.cancelAutoFocus();
-                    Camera.Parameters params = camera.getParameters();
-                    if (params.getFocusMode() != Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE) {
-                        params.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
-                        params.setFocusAreas(null);
-                        params.setMeteringAreas(null);
-                        camera.setParameters(params);
-                    }
+    private void focusAt(float x, float y) {
+        if (mCamera == null || !mParameters.isAttached()) {
+            return;
+        }
+        Camera.Parameters parameters = mParameters.get();
+        String focusMode = parameters.getFocusMode();
+        Rect rect = calculateFocusArea(x, y);
+        List<Camera.Area> meteringAreas = new ArrayList<>();
+        meteringAreas.add(new Camera.Area(rect, getFocusMeteringAreaWeight()));
+        if (parameters.getMaxNumFocusAreas() != 0 && focusMode != null &&
+            (focusMode.equals(Camera.Parameters.FOCUS_MODE_AUTO) ||
+            focusMode.equals(Camera.Parameters.FOCUS_MODE_MACRO) ||
+            focusMode.equals(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE) ||
+            focusMode.equals(Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO))
+        ) {
+            if(!mCapabilities.getFocusModes().contains(Camera.Parameters.FOCUS_MODE_AUTO)) {
+                return; //cannot autoFocus
+            }
+            mParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+            mParameters.setFocusAreas(meteringAreas);
+            if (parameters.getMaxNumMeteringAreas() > 0) {
+                mParameters.setMeteringAreas(meteringAreas);
+            }
+            mParameters.apply();
+            mCamera.autoFocus(new Camera.AutoFocusCallback() {
+                @Override
+                public void onAutoFocus(boolean success, Camera camera) {
+                    resetFocus(success, camera);
+                }
+            });
+        } else if (parameters.getMaxNumMeteringAreas() > 0) {
+            if(!mCapabilities.getFocusModes().contains(Camera.Parameters.FOCUS_MODE_AUTO)) {
+                return; //cannot autoFocus
+            }
+            mParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_AUTO);
+            mParameters.setFocusAreas(meteringAreas);
+            mParameters.setMeteringAreas(meteringAreas);
 
+            mParameters.apply();
+            mCamera.autoFocus(new Camera.AutoFocusCallback() {
+                @Override
+                public void onAutoFocus(boolean success, Camera camera) {
+                    resetFocus(success, camera);
+                }
+            });
+        } else {
+            mCamera.autoFocus(new Camera.AutoFocusCallback() {
+                @Override
+                public void onAutoFocus(boolean success, Camera camera) {
                     if (mAutofocusCallback != null) {
                         mAutofocusCallback.onAutoFocus(success, camera);
                     }
                 }
+            });
+        }
+    }
+
+    private void resetFocus(boolean success, Camera camera) {
+        mFocusSuccess = success;
+        mFocusCamera = camera;
+        mHandler.removeCallbacks(mResetFocus);
+        mHandler.postDelayed(mResetFocus, DELAY_MILLIS_BEFORE_RESETTING_FOCUS);
+    }
+
+    private void resetFocus() {
+        Camera camera = mFocusCamera;
+        mFocusCamera = null;
+        if (camera != null) {
+            camera.cancelAutoFocus();
+            if (camera == mCamera && mParameters.isAttached()) {
+                mParameters.setFocusMode(Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE);
+                mParameters.setFocusAreas(null);
+                mParameters.setMeteringAreas(null);
+                mParameters.commit();
+            }
+
+            if (mAutofocusCallback != null) {
+                mAutofocusCallback.onAutoFocus(mFocusSuccess, camera);
             }
-        }, DELAY_MILLIS_BEFORE_RESETTING_FOCUS);
+        }
     }
 
     private Rect calculateFocusArea(float x, float y) {
@@ -741,4 +1034,147 @@ public class Camera1 extends CameraImpl {
         return result;
     }
 
+    // Picks the frames of a burst as they arrive and hands each one to the processing
+    // executor directly; the listener encodes them on a stage of its own and restores the
+    // order, so consecutive frames are processed in a pipeline.
+    private class BurstConsumer implements FrameConsumer {
+
+        private final BurstCapture mBurst;
+        private final long mIntervalNanos;
+        private final int mExifOrientation;
+        private int mCaptured;
+        private long mFirstTimestamp;
+        private long mNextTimestamp;
+
+        BurstConsumer(BurstCapture burst) {
+            mBurst = burst;
+            mIntervalNanos = TimeUnit.MILLISECONDS.toNanos(burst.getIntervalMillis());
+            mExifOrientation = mOrientationMode == ORIENTATION_EXIF
+                    ? ExifOrientation.forRotation(calculateCaptureRotation(), isFrontFacing())
+                    : ExifOrientation.ORIENTATION_UNDEFINED;
+            mNextTimestamp = burst.getShutterTimestamp();
+        }
+
+        @Override
+        public void onFrame(Frame frame) {
+            if (mCaptured >= mBurst.getCount() || frame.getTimestamp() < mNextTimestamp) {
+                return;
+            }
+
+            final int index = mCaptured;
+            final CaptureMetadata metadata = new CaptureMetadata(METHOD_STILL, mBurst.getShutterTimestamp(), frame.getTimestamp());
+            frame.retain();
+            try {
+                mStillQueue.getExecutor().execute(new ProcessStillTask(frame, createStillTransform(), new ProcessStillTask.OnStillProcessedListener() {
+                    @Override
+                    public void onStillProcessed(YuvImage yuv, long frameTimestamp) {
+                        mCameraListener.onBurstPictureTaken(mBurst, index, yuv, mExifOrientation, metadata);
+                    }
+                }));
+            } catch (RejectedExecutionException e) {
+                // Processing is saturated; try again with the next frame.
+                frame.release();
+                return;
+            }
+
+            if (mCaptured == 0) {
+                mFirstTimestamp = frame.getTimestamp();
+            }
+            mCaptured++;
+            // Frames are due on a fixed grid, so the average spacing matches the interval even
+            // when it is not a multiple of the preview frame period.
+            mNextTimestamp = mFirstTimestamp + mCaptured * mIntervalNanos;
+            if (mCaptured == mBurst.getCount()) {
+                end();
+            }
+        }
+
+        void end() {
+            mPreviewBuffers.removeConsumer(this);
+            mBursts.remove(this);
+            mCameraListener.onBurstCaptureEnded(mBurst, mCaptured);
+        }
+
+    }
+
+    // Steps the exposure compensation through the bracket and copies one frame per step, so
+    // the ring keeps streaming while the auto exposure settles. The copies are fused on the
+    // still queue and the metered compensation is restored.
+    private class HdrBracket implements FrameConsumer {
+
+        private final int[] mCompensations;
+        private final long mShutterTimestamp;
+        private final int mExifOrientation;
+        private final byte[][] mFrames;
+        private int mCaptured;
+        private int mSettling;
+        private long mFirstTimestamp;
+
+        HdrBracket(int[] compensations, long shutterTimestamp) {
+            mCompensations = compensations;
+            mShutterTimestamp = shutterTimestamp;
+            mExifOrientation = mOrientationMode == ORIENTATION_EXIF
+                    ? ExifOrientation.forRotation(calculateCaptureRotation(), isFrontFacing())
+                    : ExifOrientation.ORIENTATION_UNDEFINED;
+            mFrames = new byte[compensations.length][];
+        }
+
+        @Override
+        public void onFrame(Frame frame) {
+            if (mSettling > 0) {
+                mSettling--;
+                return;
+            }
+
+            byte[] data = frame.getData();
+            if (mCaptured > 0 && data.length != mFrames[0].length) {
+                // The preview was reconfigured halfway; the frames no longer line up.
+                cancel();
+                return;
+            }
+            byte[] copy = BufferPool.getDefault().acquire(data.length);
+            System.arraycopy(data, 0, copy, 0, data.length);
+            if (mCaptured == 0) {
+                mFirstTimestamp = frame.getTimestamp();
+            }
+            mFrames[mCaptured++] = copy;
+            if (mCaptured < mCompensations.length) {
+                setExposureCompensation(mCompensations[mCaptured]);
+                mSettling = HDR_SETTLE_FRAMES;
+                return;
+            }
+
+            finish();
+            final CaptureMetadata metadata = new CaptureMetadata(mMethod, mShutterTimestamp, mFirstTimestamp);
+            mStillQueue.submit(new ProcessHdrTask(mFrames, frame.getLayout(), metadata, createStillTransform(),
+                    new ProcessStillTask.OnStillProcessedListener() {
+                        @Override
+                        public void onStillProcessed(YuvImage yuv, long frameTimestamp) {
+                            mCameraListener.onPictureTaken(yuv, mExifOrientation, metadata);
+                        }
+                    }));
+        }
+
+        void cancel() {
+            finish();
+            for (int i = 0; i < mCaptured; i++) {
+                BufferPool.getDefault().release(mFrames[i]);
+            }
+        }
+
+        private void finish() {
+            mPreviewBuffers.removeConsumer(this);
+            mHdrBracket = null;
+            setExposureCompensation(mCompensations[0]);
+        }
+
+        private void setExposureCompensation(int compensation) {
+            if (mParameters.isAttached()) {
+                mParameters.setExposureCompensation(compensation);
+                mParameters.commit();
+            }
+        }
+
+    }
+
 }
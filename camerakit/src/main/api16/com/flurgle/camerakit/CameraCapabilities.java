@@ -0,0 +1,197 @@
+package com.flurgle.camerakit;
+
+import android.hardware.Camera;
+import android.media.CamcorderProfile;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * What one camera supports, read once from its {@link Camera.Parameters} and
+ * {@link CamcorderProfile} and kept in a form that is cheap to query and to persist. Sizes are
+ * sorted by area, smallest first.
+ */
+class CameraCapabilities {
+
+    // Bumped whenever the persisted form changes, so older entries are read again.
+    private static final int VERSION = 1;
+
+    private static final int[] CAMCORDER_QUALITIES = {
+            CamcorderProfile.QUALITY_LOW,
+            CamcorderProfile.QUALITY_HIGH,
+            CamcorderProfile.QUALITY_480P,
+            CamcorderProfile.QUALITY_720P,
+            CamcorderProfile.QUALITY_1080P,
+            CamcorderProfile.QUALITY_2160P
+    };
+
+    private final List<Size> mPreviewSizes;
+    private final List<Size> mPictureSizes;
+    private final List<Integer> mPreviewFormats;
+    private final List<String> mFocusModes;
+    private final List<String> mFlashModes;
+    private final List<int[]> mFpsRanges;
+    private final Set<Integer> mCamcorderQualities;
+
+    private CameraCapabilities(List<Size> previewSizes, List<Size> pictureSizes, List<Integer> previewFormats,
+                               List<String> focusModes, List<String> flashModes, List<int[]> fpsRanges,
+                               Set<Integer> camcorderQualities) {
+        Collections.sort(previewSizes);
+        Collections.sort(pictureSizes);
+        mPreviewSizes = Collections.unmodifiableList(previewSizes);
+        mPictureSizes = Collections.unmodifiableList(pictureSizes);
+        mPreviewFormats = Collections.unmodifiableList(previewFormats);
+        mFocusModes = Collections.unmodifiableList(focusModes);
+        mFlashModes = Collections.unmodifiableList(flashModes);
+        mFpsRanges = Collections.unmodifiableList(fpsRanges);
+        mCamcorderQualities = Collections.unmodifiableSet(camcorderQualities);
+    }
+
+    static CameraCapabilities read(int cameraId, Camera.Parameters parameters) {
+        List<Size> previewSizes = new ArrayList<>();
+        for (Camera.Size size : parameters.getSupportedPreviewSizes()) {
+            previewSizes.add(new Size(size.width, size.height));
+        }
+        List<Size> pictureSizes = new ArrayList<>();
+        for (Camera.Size size : parameters.getSupportedPictureSizes()) {
+            pictureSizes.add(new Size(size.width, size.height));
+        }
+        Set<Integer> camcorderQualities = new HashSet<>();
+        for (int quality : CAMCORDER_QUALITIES) {
+            if (CamcorderProfile.hasProfile(cameraId, quality)) {
+                camcorderQualities.add(quality);
+            }
+        }
+        return new CameraCapabilities(previewSizes, pictureSizes,
+                copy(parameters.getSupportedPreviewFormats()),
+                copy(parameters.getSupportedFocusModes()),
+                copy(parameters.getSupportedFlashModes()),
+                copy(parameters.getSupportedPreviewFpsRange()),
+                camcorderQualities);
+    }
+
+    List<Size> getPreviewSizes() {
+        return mPreviewSizes;
+    }
+
+    List<Size> getPictureSizes() {
+        return mPictureSizes;
+    }
+
+    List<Integer> getPreviewFormats() {
+        return mPreviewFormats;
+    }
+
+    List<String> getFocusModes() {
+        return mFocusModes;
+    }
+
+    /**
+     * Empty when the camera has no flash.
+     */
+    List<String> getFlashModes() {
+        return mFlashModes;
+    }
+
+    /**
+     * Preview frame rate ranges, {min, max} in frames per second times 1000.
+     */
+    List<int[]> getFpsRanges() {
+        return mFpsRanges;
+    }
+
+    boolean hasCamcorderProfile(int quality) {
+        return mCamcorderQualities.contains(quality);
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        json.put("version", VERSION);
+        json.put("previewSizes", sizesToJson(mPreviewSizes));
+        json.put("pictureSizes", sizesToJson(mPictureSizes));
+        json.put("previewFormats", new JSONArray(mPreviewFormats));
+        json.put("focusModes", new JSONArray(mFocusModes));
+        json.put("flashModes", new JSONArray(mFlashModes));
+        JSONArray fpsRanges = new JSONArray();
+        for (int[] range : mFpsRanges) {
+            fpsRanges.put(range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX]);
+            fpsRanges.put(range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        }
+        json.put("fpsRanges", fpsRanges);
+        json.put("camcorderQualities", new JSONArray(mCamcorderQualities));
+        return json;
+    }
+
+    /**
+     * Returns {@code null} for an entry written in another version of the format.
+     */
+    static CameraCapabilities fromJson(JSONObject json) throws JSONException {
+        if (json.optInt("version") != VERSION) {
+            return null;
+        }
+
+        List<Integer> previewFormats = new ArrayList<>();
+        JSONArray formats = json.getJSONArray("previewFormats");
+        for (int i = 0; i < formats.length(); i++) {
+            previewFormats.add(formats.getInt(i));
+        }
+        List<int[]> fpsRanges = new ArrayList<>();
+        JSONArray ranges = json.getJSONArray("fpsRanges");
+        for (int i = 0; i + 1 < ranges.length(); i += 2) {
+            int[] range = new int[2];
+            range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX] = ranges.getInt(i);
+            range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX] = ranges.getInt(i + 1);
+            fpsRanges.add(range);
+        }
+        Set<Integer> camcorderQualities = new HashSet<>();
+        JSONArray qualities = json.getJSONArray("camcorderQualities");
+        for (int i = 0; i < qualities.length(); i++) {
+            camcorderQualities.add(qualities.getInt(i));
+        }
+        return new CameraCapabilities(
+                sizesFromJson(json.getJSONArray("previewSizes")),
+                sizesFromJson(json.getJSONArray("pictureSizes")),
+                previewFormats,
+                stringsFromJson(json.getJSONArray("focusModes")),
+                stringsFromJson(json.getJSONArray("flashModes")),
+                fpsRanges,
+                camcorderQualities);
+    }
+
+    private static <T> List<T> copy(List<T> list) {
+        return list != null ? new ArrayList<>(list) : new ArrayList<T>();
+    }
+
+    private static JSONArray sizesToJson(List<Size> sizes) {
+        JSONArray json = new JSONArray();
+        for (Size size : sizes) {
+            json.put(size.getWidth());
+            json.put(size.getHeight());
+        }
+        return json;
+    }
+
+    private static List<Size> sizesFromJson(JSONArray json) throws JSONException {
+        List<Size> sizes = new ArrayList<>();
+        for (int i = 0; i + 1 < json.length(); i += 2) {
+            sizes.add(new Size(json.getInt(i), json.getInt(i + 1)));
+        }
+        return sizes;
+    }
+
+    private static List<String> stringsFromJson(JSONArray json) throws JSONException {
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < json.length(); i++) {
+            strings.add(json.getString(i));
+        }
+        return strings;
+    }
+
+}
@@ -0,0 +1,93 @@
+package com.flurgle.camerakit;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+import android.util.SparseArray;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Keeps {@link CameraCapabilities} across launches in the app's shared preferences, keyed by
+ * camera id. All entries are dropped when {@link Build#FINGERPRINT} changes, as a system update
+ * may change what the cameras report. Entries are also kept in memory once read.
+ *
+ * Reads the preferences from disk the first time; call it off the main thread.
+ */
+final class CapabilityCache {
+
+    private static final String TAG = "CapabilityCache";
+    private static final String PREFERENCES = "com.flurgle.camerakit.capabilities";
+    private static final String KEY_FINGERPRINT = "fingerprint";
+    private static final String KEY_CAMERA_PREFIX = "camera-";
+
+    private static CapabilityCache sInstance;
+
+    private final SharedPreferences mPreferences;
+    private final SparseArray<CameraCapabilities> mCapabilities = new SparseArray<>();
+
+    private CapabilityCache(Context context) {
+        mPreferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        if (!Build.FINGERPRINT.equals(mPreferences.getString(KEY_FINGERPRINT, null))) {
+            mPreferences.edit()
+                    .clear()
+                    .putString(KEY_FINGERPRINT, Build.FINGERPRINT)
+                    .apply();
+        }
+    }
+
+    static synchronized CapabilityCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new CapabilityCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the capabilities of camera {@code cameraId}, or {@code null} when they have not
+     * been stored on this build yet.
+     */
+    synchronized CameraCapabilities get(int cameraId) {
+        CameraCapabilities capabilities = mCapabilities.get(cameraId);
+        if (capabilities != null) {
+            return capabilities;
+        }
+
+        String json = mPreferences.getString(KEY_CAMERA_PREFIX + cameraId, null);
+        if (json == null) {
+            return null;
+        }
+        try {
+            capabilities = CameraCapabilities.fromJson(new JSONObject(json));
+        } catch (JSONException e) {
+            Log.w(TAG, "get: dropping unreadable entry for camera " + cameraId, e);
+        }
+        if (capabilities != null) {
+            mCapabilities.put(cameraId, capabilities);
+        } else {
+            remove(cameraId);
+        }
+        return capabilities;
+    }
+
+    synchronized void put(int cameraId, CameraCapabilities capabilities) {
+        mCapabilities.put(cameraId, capabilities);
+        try {
+            mPreferences.edit()
+                    .putString(KEY_CAMERA_PREFIX + cameraId, capabilities.toJson().toString())
+                    .apply();
+        } catch (JSONException e) {
+            Log.w(TAG, "put: cannot store camera " + cameraId, e);
+        }
+    }
+
+    synchronized void remove(int cameraId) {
+        mCapabilities.remove(cameraId);
+        mPreferences.edit()
+                .remove(KEY_CAMERA_PREFIX + cameraId)
+                .apply();
+    }
+
+}
@@ -1,6 +1,7 @@
 package com.flurgle.camerakit;
 
 import android.annotation.TargetApi;
+import android.graphics.ImageFormat;
 import android.hardware.Camera;
 import android.hardware.camera2.CameraCharacteristics;
 import android.support.v4.util.SparseArrayCompat;
@@ -56,6 +57,28 @@ public class ConstantMapper {
 
     }
 
+    static class PreviewFormat extends BaseMapper<Integer> {
+
+        private static final SparseArrayCompat<Integer> PREVIEW_FORMATS = new SparseArrayCompat<>();
+
+        static {
+            // NV21 chroma is copied to the output as VU pairs, so it is the cheapest input.
+            PREVIEW_FORMATS.put(CameraKit.Constants.PREVIEW_FORMAT_AUTO, ImageFormat.NV21);
+            PREVIEW_FORMATS.put(CameraKit.Constants.PREVIEW_FORMAT_NV21, ImageFormat.NV21);
+            PREVIEW_FORMATS.put(CameraKit.Constants.PREVIEW_FORMAT_YV12, ImageFormat.YV12);
+        }
+
+        protected PreviewFormat(int cameraKitConstant) {
+            super(cameraKitConstant);
+        }
+
+        @Override
+        Integer map() {
+            return PREVIEW_FORMATS.get(mCameraKitConstant, ImageFormat.NV21);
+        }
+
+    }
+
     static class Facing extends BaseMapper<Integer> {
 
         private static final SparseArrayCompat<Integer> FACING_MODES = new SparseArrayCompat<>();
@@ -0,0 +1,206 @@
+package com.flurgle.camerakit;
+
+import android.hardware.Camera;
+import android.os.Handler;
+import android.util.Log;
+
+import java.util.List;
+
+/**
+ * In-memory copy of the open camera's {@link Camera.Parameters}, read from the driver once per
+ * open. Setters only touch the copy and drop changes that leave a value as it was;
+ * {@link #commit()} sends everything changed within the current tick of the camera thread in a
+ * single {@link Camera#setParameters} call at the end of the tick.
+ *
+ * Every flatten and unflatten of the parameters is a round trip through the camera HAL, so the
+ * number of calls that were merged or skipped is kept for {@link #getSavedRoundTrips()}.
+ *
+ * Use it from the camera thread only.
+ */
+@SuppressWarnings("deprecation")
+final class ParameterShadow {
+
+    private static final String TAG = "ParameterShadow";
+
+    private final Handler mHandler;
+    private final Runnable mApply = new Runnable() {
+        @Override
+        public void run() {
+            mPending = false;
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                // Nobody to report to at the end of a tick; the copy was resynced already.
+            }
+        }
+    };
+
+    private Camera mCamera;
+    private Camera.Parameters mParameters;
+    private boolean mDirty;
+    private boolean mPending;
+    private long mSavedRoundTrips;
+
+    /**
+     * @param handler a handler on the camera thread, not shared with other work, on which
+     *                batched changes are applied.
+     */
+    ParameterShadow(Handler handler) {
+        mHandler = handler;
+    }
+
+    void attach(Camera camera) {
+        detach();
+        mCamera = camera;
+        mParameters = camera.getParameters();
+    }
+
+    /**
+     * Drops changes not applied yet. Call before the camera is released.
+     */
+    void detach() {
+        mHandler.removeCallbacks(mApply);
+        mPending = false;
+        mDirty = false;
+        mCamera = null;
+        mParameters = null;
+    }
+
+    boolean isAttached() {
+        return mParameters != null;
+    }
+
+    /**
+     * The copy, for reading only; change it through the setters so changes are tracked.
+     */
+    Camera.Parameters get() {
+        return mParameters;
+    }
+
+    void setPreviewSize(int width, int height) {
+        Camera.Size size = mParameters.getPreviewSize();
+        if (size == null || size.width != width || size.height != height) {
+            mParameters.setPreviewSize(width, height);
+            mDirty = true;
+        }
+    }
+
+    void setPictureSize(int width, int height) {
+        Camera.Size size = mParameters.getPictureSize();
+        if (size == null || size.width != width || size.height != height) {
+            mParameters.setPictureSize(width, height);
+            mDirty = true;
+        }
+    }
+
+    void setPreviewFormat(int format) {
+        if (mParameters.getPreviewFormat() != format) {
+            mParameters.setPreviewFormat(format);
+            mDirty = true;
+        }
+    }
+
+    void setJpegQuality(int quality) {
+        if (mParameters.getJpegQuality() != quality) {
+            mParameters.setJpegQuality(quality);
+            mDirty = true;
+        }
+    }
+
+    void setFlashMode(String mode) {
+        if (!equal(mParameters.getFlashMode(), mode)) {
+            mParameters.setFlashMode(mode);
+            mDirty = true;
+        }
+    }
+
+    void setFocusMode(String mode) {
+        if (!equal(mParameters.getFocusMode(), mode)) {
+            mParameters.setFocusMode(mode);
+            mDirty = true;
+        }
+    }
+
+    void setFocusAreas(List<Camera.Area> areas) {
+        if (!equal(mParameters.getFocusAreas(), areas)) {
+            mParameters.setFocusAreas(areas);
+            mDirty = true;
+        }
+    }
+
+    void setMeteringAreas(List<Camera.Area> areas) {
+        if (!equal(mParameters.getMeteringAreas(), areas)) {
+            mParameters.setMeteringAreas(areas);
+            mDirty = true;
+        }
+    }
+
+    void setExposureCompensation(int compensation) {
+        if (mParameters.getExposureCompensation() != compensation) {
+            mParameters.setExposureCompensation(compensation);
+            mDirty = true;
+        }
+    }
+
+    /**
+     * Applies the changes at the end of the current tick, together with any other change made
+     * before then.
+     */
+    void commit() {
+        if (!mDirty || mPending) {
+            countSaved();
+            return;
+        }
+        mPending = true;
+        mHandler.post(mApply);
+    }
+
+    /**
+     * Applies the changes now, for callers that need them in effect before their next camera
+     * call. A batch still pending is applied with them.
+     */
+    void apply() {
+        if (mPending) {
+            mHandler.removeCallbacks(mApply);
+            mPending = false;
+            countSaved();
+        }
+        if (!mDirty) {
+            countSaved();
+            return;
+        }
+        flush();
+    }
+
+    /**
+     * Returns how many {@link Camera#setParameters} calls were merged into another one or
+     * skipped because nothing changed, since this shadow was created.
+     */
+    synchronized long getSavedRoundTrips() {
+        return mSavedRoundTrips;
+    }
+
+    private void flush() {
+        if (!mDirty || mCamera == null) {
+            return;
+        }
+        mDirty = false;
+        try {
+            mCamera.setParameters(mParameters);
+        } catch (RuntimeException e) {
+            // The driver kept its previous values; resync so the copy does not lie.
+            Log.w(TAG, "flush: parameters rejected", e);
+            mParameters = mCamera.getParameters();
+            throw e;
+        }
+    }
+
+    private synchronized void countSaved() {
+        mSavedRoundTrips++;
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+}
@@ -0,0 +1,227 @@
+package com.flurgle.camerakit;
+
+import android.hardware.Camera;
+import android.os.Handler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Delivers preview frames through {@link Camera#setPreviewCallbackWithBuffer} from a fixed
+ * ring of preallocated buffers, so continuous frame access allocates nothing per frame. A
+ * buffer is handed back to the camera when the last holder releases its {@link Frame}; while
+ * every buffer is held the camera skips frames instead of allocating more.
+ *
+ * Callbacks are only installed while a consumer or a pending one-shot request exists, so an
+ * idle preview pays nothing for the ring.
+ */
+@SuppressWarnings("deprecation")
+final class PreviewBufferRing implements Camera.PreviewCallback, Frame.Recycler {
+
+    static final int BUFFER_COUNT = 3;
+
+    private static final int FREE = 0;
+    private static final int QUEUED = 1;
+    private static final int HELD = 2;
+
+    private final Handler mHandler;
+    private final List<FrameConsumer> mConsumers = new ArrayList<>();
+    private final List<FrameConsumer> mOneShots = new ArrayList<>();
+
+    private Camera mCamera;
+    private int mBufferCount = BUFFER_COUNT;
+    private Frame[] mFrames = new Frame[0];
+    private int[] mStates = new int[0];
+    private boolean mActive;
+
+    /**
+     * @param handler a handler on the camera thread; buffers are returned to the camera on it
+     *                so they never reach a camera that was released in the meantime.
+     */
+    PreviewBufferRing(Handler handler) {
+        mHandler = handler;
+    }
+
+    /**
+     * Binds the ring to {@code camera} after its preview parameters were applied. The buffers
+     * are reallocated when the frame size or format changed; frames still held from the old
+     * ring are dropped on release.
+     */
+    synchronized void attach(Camera camera, int imageFormat, int width, int height) {
+        if (mActive && mCamera != null) {
+            setActive(false);
+        }
+        mCamera = camera;
+
+        YuvLayout layout = YuvLayout.forImageFormat(imageFormat, width, height);
+        Frame current = mFrames.length > 0 ? mFrames[0] : null;
+        if (current == null || current.getFormat() != imageFormat
+                || current.getWidth() != width || current.getHeight() != height) {
+            mFrames = new Frame[mBufferCount];
+            mStates = new int[mBufferCount];
+            for (int i = 0; i < mBufferCount; i++) {
+                mFrames[i] = new Frame(new byte[layout.getLength()], layout, imageFormat, this);
+            }
+        }
+        updateActive();
+    }
+
+    /**
+     * Resizes the ring, for consumers that keep frames for longer. Existing buffers are kept
+     * where possible; a held buffer cut off by shrinking is dropped on release.
+     */
+    synchronized void setBufferCount(int bufferCount) {
+        bufferCount = Math.max(1, bufferCount);
+        if (bufferCount == mBufferCount) {
+            return;
+        }
+        mBufferCount = bufferCount;
+        if (mFrames.length == 0) {
+            return;
+        }
+
+        boolean active = mActive;
+        if (active) {
+            setActive(false);
+        }
+        Frame[] frames = Arrays.copyOf(mFrames, bufferCount);
+        int[] states = Arrays.copyOf(mStates, bufferCount);
+        Frame template = mFrames[0];
+        for (int i = mFrames.length; i < bufferCount; i++) {
+            frames[i] = new Frame(new byte[template.getData().length], template.getLayout(), template.getFormat(), this);
+            states[i] = FREE;
+        }
+        mFrames = frames;
+        mStates = states;
+        if (active) {
+            setActive(true);
+        }
+    }
+
+    /**
+     * Returns the size of one buffer, or 0 before the ring was first attached.
+     */
+    synchronized int getFrameLength() {
+        return mFrames.length > 0 ? mFrames[0].getData().length : 0;
+    }
+
+    synchronized void detach() {
+        if (mActive && mCamera != null) {
+            setActive(false);
+        }
+        mCamera = null;
+    }
+
+    synchronized void addConsumer(FrameConsumer consumer) {
+        if (!mConsumers.contains(consumer)) {
+            mConsumers.add(consumer);
+            updateActive();
+        }
+    }
+
+    synchronized void removeConsumer(FrameConsumer consumer) {
+        if (mConsumers.remove(consumer)) {
+            updateActive();
+        }
+    }
+
+    /**
+     * Delivers the next preview frame to {@code consumer} once.
+     */
+    synchronized void requestFrame(FrameConsumer consumer) {
+        mOneShots.add(consumer);
+        updateActive();
+    }
+
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+        Frame frame;
+        List<FrameConsumer> consumers;
+        synchronized (this) {
+            int index = indexOf(data);
+            if (index < 0) {
+                // A buffer of a ring replaced by attach(); let it go.
+                return;
+            }
+            frame = mFrames[index];
+            mStates[index] = HELD;
+            frame.reset(System.nanoTime());
+
+            consumers = new ArrayList<>(mConsumers.size() + mOneShots.size());
+            consumers.addAll(mConsumers);
+            consumers.addAll(mOneShots);
+            mOneShots.clear();
+            updateActive();
+        }
+
+        try {
+            for (FrameConsumer consumer : consumers) {
+                consumer.onFrame(frame);
+            }
+        } finally {
+            frame.release();
+        }
+    }
+
+    @Override
+    public void recycle(final Frame frame) {
+        mHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                requeue(frame);
+            }
+        });
+    }
+
+    private synchronized void requeue(Frame frame) {
+        int index = indexOf(frame.getData());
+        if (index < 0) {
+            return;
+        }
+        if (mActive && mCamera != null) {
+            mCamera.addCallbackBuffer(frame.getData());
+            mStates[index] = QUEUED;
+        } else {
+            mStates[index] = FREE;
+        }
+    }
+
+    private void updateActive() {
+        boolean active = mCamera != null && (!mConsumers.isEmpty() || !mOneShots.isEmpty());
+        if (active != mActive) {
+            setActive(active);
+        }
+    }
+
+    private void setActive(boolean active) {
+        mActive = active;
+        if (active) {
+            mCamera.setPreviewCallbackWithBuffer(this);
+            for (int i = 0; i < mFrames.length; i++) {
+                if (mStates[i] == FREE) {
+                    mCamera.addCallbackBuffer(mFrames[i].getData());
+                    mStates[i] = QUEUED;
+                }
+            }
+        } else {
+            // Removing the callback also clears the buffers queued with the camera.
+            mCamera.setPreviewCallbackWithBuffer(null);
+            for (int i = 0; i < mStates.length; i++) {
+                if (mStates[i] == QUEUED) {
+                    mStates[i] = FREE;
+                }
+            }
+        }
+    }
+
+    private int indexOf(byte[] data) {
+        for (int i = 0; i < mFrames.length; i++) {
+            if (mFrames[i].getData() == data) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.flurgle.camerakit;
+
+import android.graphics.ImageFormat;
+import android.graphics.YuvImage;
+
+class ProcessHdrTask implements StillQueue.Task {
+
+    private byte[][] bracket;
+    private YuvLayout layout;
+    private CaptureMetadata metadata;
+    private YuvTransform transform;
+    private ProcessStillTask.OnStillProcessedListener onStillProcessedListener;
+
+    /**
+     * Takes over {@code bracket}, copies of the frames taken from {@link BufferPool#getDefault()}
+     * and returned to it once fused. The time spent in each stage is recorded in
+     * {@code metadata} before the listener is called.
+     */
+    public ProcessHdrTask(byte[][] bracket, YuvLayout layout, CaptureMetadata metadata, YuvTransform transform,
+                          ProcessStillTask.OnStillProcessedListener onStillProcessedListener) {
+        this.bracket = bracket;
+        this.layout = layout;
+        this.metadata = metadata;
+        this.transform = transform;
+        this.onStillProcessedListener = onStillProcessedListener;
+    }
+
+    @Override
+    public void run() {
+        BufferPool pool = BufferPool.getDefault();
+        YuvLayout fusedLayout = YuvLayout.nv21(layout.getWidth(), layout.getHeight());
+        byte[] fused = pool.acquire(fusedLayout.getLength());
+        ExposureFusion fusion = new ExposureFusion(StripeExecutor.get());
+        try {
+            fusion.fuse(bracket, layout, fused);
+        } finally {
+            discard();
+        }
+
+        long start = System.nanoTime();
+        byte[] rotatedData = transform.apply(fused, fusedLayout, pool);
+        if (rotatedData != fused) {
+            pool.release(fused);
+        }
+        metadata.setHdrNanos(fusion.getWeightNanos(), fusion.getPyramidNanos(), fusion.getCollapseNanos(),
+                System.nanoTime() - start);
+
+        // The transform always produces NV21, the only 4:2:0 format YuvImage can encode.
+        YuvImage yuv = new YuvImage(rotatedData, ImageFormat.NV21, transform.getOutputWidth(), transform.getOutputHeight(), null);
+
+        onStillProcessedListener.onStillProcessed(yuv, metadata.getFrameTimestamp());
+    }
+
+    @Override
+    public void discard() {
+        BufferPool pool = BufferPool.getDefault();
+        for (byte[] frame : bracket) {
+            pool.release(frame);
+        }
+        bracket = new byte[0][];
+    }
+
+}
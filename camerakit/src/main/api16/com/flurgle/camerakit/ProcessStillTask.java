@@ -1,54 +1,116 @@
 package com.flurgle.camerakit;
 
+import android.graphics.ImageFormat;
 import android.graphics.YuvImage;
-import android.hardware.Camera;
 
-class ProcessStillTask implements Runnable {
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
-    private byte[] data;
-    private Camera camera;
-    private int rotation;
+class ProcessStillTask implements StillQueue.Task {
+
+    private List<Frame> candidates;
+    private boolean merge;
+    private YuvTransform transform;
     private OnStillProcessedListener onStillProcessedListener;
 
-    public ProcessStillTask(byte[] data, Camera camera, int rotation, OnStillProcessedListener onStillProcessedListener) {
-        this.data = data;
-        this.camera = camera;
-        this.rotation = rotation;
+    /**
+     * Takes over one reference to {@code frame}, released once its data has been consumed.
+     */
+    public ProcessStillTask(Frame frame, YuvTransform transform, OnStillProcessedListener onStillProcessedListener) {
+        this(Collections.singletonList(frame), false, transform, onStillProcessedListener);
+    }
+
+    /**
+     * Processes the sharpest of {@code candidates}, or with {@code merge} all of them
+     * merged into it; takes over one reference to each.
+     */
+    public ProcessStillTask(List<Frame> candidates, boolean merge, YuvTransform transform, OnStillProcessedListener onStillProcessedListener) {
+        this.candidates = candidates;
+        this.merge = merge;
+        this.transform = transform;
         this.onStillProcessedListener = onStillProcessedListener;
     }
 
     @Override
     public void run() {
-        Camera.Parameters parameters = camera.getParameters();
-        int width = parameters.getPreviewSize().width;
-        int height = parameters.getPreviewSize().height;
-        byte[] rotatedData = new Rotation(data, width, height, rotation).getYuv();
-
-        int postWidth;
-        int postHeight;
-
-        switch (rotation) {
-            case 90:
-            case 270:
-                postWidth = height;
-                postHeight = width;
-                break;
-
-            case 0:
-            case 180:
-            default:
-                postWidth = width;
-                postHeight = height;
-                break;
+        int selected = candidates.size() > 1 ? FrameSharpness.sharpest(candidates, StripeExecutor.get()) : 0;
+        // Read before the release: the buffer may be refilled right after.
+        long frameTimestamp = candidates.get(selected).getTimestamp();
+
+        byte[] rotatedData = merge && candidates.size() > 1 ? processMerged(selected) : process(selected);
+
+        // The transform always produces NV21, the only 4:2:0 format YuvImage can encode.
+        YuvImage yuv = new YuvImage(rotatedData, ImageFormat.NV21, transform.getOutputWidth(), transform.getOutputHeight(), null);
+
+        onStillProcessedListener.onStillProcessed(yuv, frameTimestamp);
+    }
+
+    @Override
+    public void discard() {
+        for (Frame frame : candidates) {
+            frame.release();
         }
+    }
+
+    // Releases every candidate.
+    private byte[] process(int selected) {
+        Frame frame = candidates.get(selected);
+        for (Frame candidate : candidates) {
+            if (candidate != frame) {
+                candidate.release();
+            }
+        }
+
+        BufferPool pool = BufferPool.getDefault();
+        try {
+            byte[] data = frame.getData();
+            byte[] rotatedData = transform.apply(data, frame.getLayout(), pool);
+            if (rotatedData == data) {
+                // The camera refills its buffer once the frame is released, so keep a copy.
+                rotatedData = pool.acquire(data.length);
+                System.arraycopy(data, 0, rotatedData, 0, data.length);
+            }
+            return rotatedData;
+        } finally {
+            frame.release();
+        }
+    }
 
-        YuvImage yuv = new YuvImage(rotatedData, parameters.getPreviewFormat(), postWidth, postHeight, null);
+    // Merges the candidates into the reference, then releases every candidate.
+    private byte[] processMerged(int reference) {
+        Frame referenceFrame = candidates.get(reference);
+        YuvLayout layout = referenceFrame.getLayout();
+        YuvLayout mergedLayout = YuvLayout.nv21(layout.getWidth(), layout.getHeight());
+        BufferPool pool = BufferPool.getDefault();
+        byte[] merged = pool.acquire(mergedLayout.getLength());
+        try {
+            // Frames from before a preview size or format change cannot be merged.
+            List<byte[]> frames = new ArrayList<>(candidates.size());
+            for (Frame candidate : candidates) {
+                if (candidate == referenceFrame || (candidate.getFormat() == referenceFrame.getFormat()
+                        && candidate.getWidth() == referenceFrame.getWidth()
+                        && candidate.getHeight() == referenceFrame.getHeight())) {
+                    frames.add(candidate.getData());
+                }
+            }
+            new FrameMerger(StripeExecutor.get()).merge(frames.toArray(new byte[frames.size()][]), layout,
+                    frames.indexOf(referenceFrame.getData()), merged);
+        } finally {
+            for (Frame candidate : candidates) {
+                candidate.release();
+            }
+        }
 
-        onStillProcessedListener.onStillProcessed(yuv);
+        byte[] rotatedData = transform.apply(merged, mergedLayout, pool);
+        if (rotatedData != merged) {
+            pool.release(merged);
+        }
+        return rotatedData;
     }
 
     interface OnStillProcessedListener {
-        void onStillProcessed(YuvImage yuv);
+        void onStillProcessed(YuvImage yuv, long frameTimestamp);
     }
 
-}
\ No newline at end of file
+}
@@ -11,13 +11,17 @@ import android.hardware.camera2.params.StreamConfigurationMap;
 import android.util.Log;
 
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.TreeSet;
+
+import static com.flurgle.camerakit.CameraKit.Constants.METHOD_STANDARD;
 
 @TargetApi(21)
 class Camera2 extends CameraImpl {
 
+    private static final float PREVIEW_MIN_FPS = 30;
+    // Largest share of the heap one captured frame may take.
+    private static final int CAPTURE_HEAP_SHARE = 4;
+
     private CameraDevice mCamera;
     private CameraCharacteristics mCameraCharacteristics;
     private CameraManager mCameraManager;
@@ -25,6 +29,11 @@ class Camera2 extends CameraImpl {
     private String mCameraId;
     private int mFacing;
 
+    @Method
+    private int mMethod;
+    private boolean mHdr;
+    private int mMaxOutputPixels;
+
     private Size mCaptureSize;
     private Size mPreviewSize;
 
@@ -111,7 +120,10 @@ class Camera2 extends CameraImpl {
 
     @Override
     void setMethod(@Method int method) {
-
+        if (method != mMethod) {
+            mMethod = method;
+            mPreviewSize = null;
+        }
     }
 
     @Override
@@ -130,7 +142,69 @@ class Camera2 extends CameraImpl {
     }
 
     @Override
-    void captureImage() {
+    void setCropOutput(boolean cropOutput) {
+
+    }
+
+    @Override
+    void setMaxOutputSize(int maxLongEdge, int maxPixels) {
+        if (maxPixels != mMaxOutputPixels) {
+            mMaxOutputPixels = maxPixels;
+            mPreviewSize = null;
+            mCaptureSize = null;
+        }
+    }
+
+    @Override
+    void setPreviewFormat(@PreviewFormat int previewFormat) {
+
+    }
+
+    @Override
+    void setOrientationMode(@OrientationMode int orientationMode) {
+
+    }
+
+    @Override
+    void setFrameSelection(@FrameSelection int frameSelection) {
+
+    }
+
+    @Override
+    void setHdr(boolean hdr) {
+        if (hdr != mHdr) {
+            mHdr = hdr;
+            mPreviewSize = null;
+        }
+    }
+
+    @Override
+    void setStillQueue(StillQueue stillQueue) {
+
+    }
+
+    @Override
+    void setSpeedHistory(int maxFrames, int maxBytes) {
+
+    }
+
+    @Override
+    void addFrameConsumer(FrameConsumer consumer) {
+
+    }
+
+    @Override
+    void removeFrameConsumer(FrameConsumer consumer) {
+
+    }
+
+    @Override
+    void captureImage(long shutterTimestamp) {
+
+    }
+
+    @Override
+    void captureBurst(BurstCapture burst) {
 
     }
 
@@ -149,27 +223,19 @@ class Camera2 extends CameraImpl {
         return false;
     }
 
+    @Override
+    long getSavedParameterRoundTrips() {
+        return 0;
+    }
+
     @Override
     Size getCaptureResolution() {
         if (mCaptureSize == null && mCameraCharacteristics != null) {
-            TreeSet<Size> sizes = new TreeSet<>();
-            sizes.addAll(getAvailableCaptureResolutions());
-
-            TreeSet<AspectRatio> aspectRatios = new CommonAspectRatioFilter(
-                    getAvailablePreviewResolutions(),
-                    getAvailableCaptureResolutions()
-            ).filter();
-            AspectRatio targetRatio = aspectRatios.size() > 0 ? aspectRatios.last() : null;
-
-            Iterator<Size> descendingSizes = sizes.descendingIterator();
-            Size size;
-            while (descendingSizes.hasNext() && mCaptureSize == null) {
-                size = descendingSizes.next();
-                if (targetRatio == null || targetRatio.matches(size)) {
-                    mCaptureSize = size;
-                    break;
-                }
-            }
+            mCaptureSize = new ResolutionSelector()
+                    .setAspectRatio(getTargetRatio(), ResolutionSelector.ASPECT_TOLERANCE)
+                    .setMaxPixels(mMaxOutputPixels)
+                    .setMaxBytesPerFrame(Runtime.getRuntime().maxMemory() / CAPTURE_HEAP_SHARE, 12)
+                    .select(getAvailableCaptureResolutions());
         }
 
         return mCaptureSize;
@@ -178,24 +244,20 @@ class Camera2 extends CameraImpl {
     @Override
     Size getPreviewResolution() {
         if (mPreviewSize == null && mCameraCharacteristics != null) {
-            TreeSet<Size> sizes = new TreeSet<>();
-            sizes.addAll(getAvailablePreviewResolutions());
-
-            TreeSet<AspectRatio> aspectRatios = new CommonAspectRatioFilter(
-                    getAvailablePreviewResolutions(),
-                    getAvailableCaptureResolutions()
-            ).filter();
-            AspectRatio targetRatio = aspectRatios.size() > 0 ? aspectRatios.last() : null;
-
-            Iterator<Size> descendingSizes = sizes.descendingIterator();
-            Size size;
-            while (descendingSizes.hasNext() && mPreviewSize == null) {
-                size = descendingSizes.next();
-                if (targetRatio == null || targetRatio.matches(size)) {
-                    mPreviewSize = size;
-                    break;
-                }
+            List<Size> sizes = getAvailablePreviewResolutions();
+            ResolutionSelector selector = new ResolutionSelector()
+                    .setAspectRatio(getTargetRatio(), ResolutionSelector.ASPECT_TOLERANCE)
+                    .setMinFps(PREVIEW_MIN_FPS);
+            if (mMethod == METHOD_STANDARD && !mHdr) {
+                // Frames are only shown, so a size just covering the screen is enough.
+                selector.setTargetSize(
+                        Math.max(CameraKit.Internal.screenWidth, CameraKit.Internal.screenHeight),
+                        Math.min(CameraKit.Internal.screenWidth, CameraKit.Internal.screenHeight));
+            } else {
+                // Stills are made from preview frames.
+                selector.setMaxPixels(mMaxOutputPixels);
             }
+            mPreviewSize = selector.select(sizes, getPreviewFrameDurations(sizes));
         }
 
         return mPreviewSize;
@@ -208,6 +270,15 @@ class Camera2 extends CameraImpl {
 
     // Internal
 
+    private AspectRatio getTargetRatio() {
+        return ResolutionSelector.findWidestCommonRatio(
+                getAvailablePreviewResolutions(),
+                getAvailableCaptureResolutions(),
+                Math.max(CameraKit.Internal.screenWidth, CameraKit.Internal.screenHeight),
+                Math.min(CameraKit.Internal.screenWidth, CameraKit.Internal.screenHeight),
+                ResolutionSelector.ASPECT_TOLERANCE);
+    }
+
     private List<Size> getAvailableCaptureResolutions() {
         List<Size> output = new ArrayList<>();
 
@@ -225,6 +296,21 @@ class Camera2 extends CameraImpl {
         return output;
     }
 
+    private long[] getPreviewFrameDurations(List<Size> sizes) {
+        StreamConfigurationMap map = mCameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+        if (map == null) {
+            throw new IllegalStateException("Failed to get configuration map: " + mCameraId);
+        }
+
+        long[] durations = new long[sizes.size()];
+        for (int i = 0; i < durations.length; i++) {
+            Size size = sizes.get(i);
+            durations[i] = map.getOutputMinFrameDuration(mPreview.getOutputClass(),
+                    new android.util.Size(size.getWidth(), size.getHeight()));
+        }
+        return durations;
+    }
+
     private List<Size> getAvailablePreviewResolutions() {
         List<Size> output = new ArrayList<>();
 
@@ -22,8 +22,20 @@ abstract class CameraImpl {
     abstract void setZoom(@Zoom int zoom);
     abstract void setJpegQuality(int jpegQuality);
     abstract void setVideoQuality(@VideoQuality int videoQuality);
-
-    abstract void captureImage();
+    abstract void setCropOutput(boolean cropOutput);
+    abstract void setMaxOutputSize(int maxLongEdge, int maxPixels);
+    abstract void setPreviewFormat(@PreviewFormat int previewFormat);
+    abstract void setOrientationMode(@OrientationMode int orientationMode);
+    abstract void setFrameSelection(@FrameSelection int frameSelection);
+    abstract void setHdr(boolean hdr);
+    abstract void setStillQueue(StillQueue stillQueue);
+    abstract void setSpeedHistory(int maxFrames, int maxBytes);
+
+    abstract void addFrameConsumer(FrameConsumer consumer);
+    abstract void removeFrameConsumer(FrameConsumer consumer);
+
+    abstract void captureImage(long shutterTimestamp);
+    abstract void captureBurst(BurstCapture burst);
     abstract void startVideo();
     abstract void endVideo();
     abstract boolean isVideoRecording();
@@ -31,5 +43,6 @@ abstract class CameraImpl {
     abstract Size getCaptureResolution();
     abstract Size getPreviewResolution();
     abstract boolean isCameraOpened();
+    abstract long getSavedParameterRoundTrips();
 
 }
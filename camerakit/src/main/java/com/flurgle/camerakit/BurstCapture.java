@@ -0,0 +1,74 @@
+package com.flurgle.camerakit;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One {@link CameraView#captureBurst(int, long)} request. The camera picks its frames; the
+ * pictures then pass the processing stages independently and are put back in order here,
+ * on the main thread, before they are delivered.
+ */
+final class BurstCapture {
+
+    private final int mCount;
+    private final long mIntervalMillis;
+    private final long mShutterTimestamp;
+
+    // Main thread only.
+    private final Map<Integer, byte[]> mPendingJpegs = new HashMap<>();
+    private final Map<Integer, CaptureMetadata> mPendingMetadata = new HashMap<>();
+    private int mDelivered;
+    private int mCaptured = -1;
+    private long mFirstFrameTimestamp;
+    private long mLastFrameTimestamp;
+
+    BurstCapture(int count, long intervalMillis, long shutterTimestamp) {
+        mCount = count;
+        mIntervalMillis = intervalMillis;
+        mShutterTimestamp = shutterTimestamp;
+    }
+
+    int getCount() {
+        return mCount;
+    }
+
+    long getIntervalMillis() {
+        return mIntervalMillis;
+    }
+
+    long getShutterTimestamp() {
+        return mShutterTimestamp;
+    }
+
+    void onPictureTaken(int index, byte[] jpeg, CaptureMetadata metadata, CameraListener listener) {
+        mPendingJpegs.put(index, jpeg);
+        mPendingMetadata.put(index, metadata);
+        while (mPendingJpegs.containsKey(mDelivered)) {
+            CaptureMetadata next = mPendingMetadata.remove(mDelivered);
+            if (mDelivered == 0) {
+                mFirstFrameTimestamp = next.getFrameTimestamp();
+            }
+            mLastFrameTimestamp = next.getFrameTimestamp();
+            listener.onBurstPictureTaken(mPendingJpegs.remove(mDelivered), mDelivered, next);
+            mDelivered++;
+        }
+        finishIfDone(listener);
+    }
+
+    /**
+     * Called once the camera picked its last frame, {@code captured} in total.
+     */
+    void onCaptureEnded(int captured, CameraListener listener) {
+        mCaptured = captured;
+        finishIfDone(listener);
+    }
+
+    private void finishIfDone(CameraListener listener) {
+        if (mCaptured >= 0 && mDelivered == mCaptured) {
+            listener.onBurstFinished(new BurstStats(mCount, mDelivered, mShutterTimestamp,
+                    mFirstFrameTimestamp, mLastFrameTimestamp, System.nanoTime()));
+            mCaptured = -1;
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package com.flurgle.camerakit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Summary of a burst, see {@link CameraView#captureBurst(int, long)}. Timestamps are
+ * {@link System#nanoTime()} values.
+ */
+public class BurstStats {
+
+    private final int mRequestedCount;
+    private final int mPictureCount;
+    private final long mShutterTimestamp;
+    private final long mFirstFrameTimestamp;
+    private final long mLastFrameTimestamp;
+    private final long mFinishedTimestamp;
+
+    BurstStats(int requestedCount, int pictureCount, long shutterTimestamp,
+               long firstFrameTimestamp, long lastFrameTimestamp, long finishedTimestamp) {
+        mRequestedCount = requestedCount;
+        mPictureCount = pictureCount;
+        mShutterTimestamp = shutterTimestamp;
+        mFirstFrameTimestamp = firstFrameTimestamp;
+        mLastFrameTimestamp = lastFrameTimestamp;
+        mFinishedTimestamp = finishedTimestamp;
+    }
+
+    public int getRequestedCount() {
+        return mRequestedCount;
+    }
+
+    /**
+     * Returns the number of pictures delivered, fewer than requested when the camera was
+     * stopped during the burst.
+     */
+    public int getPictureCount() {
+        return mPictureCount;
+    }
+
+    public long getShutterTimestamp() {
+        return mShutterTimestamp;
+    }
+
+    public long getFirstFrameTimestamp() {
+        return mFirstFrameTimestamp;
+    }
+
+    public long getLastFrameTimestamp() {
+        return mLastFrameTimestamp;
+    }
+
+    /**
+     * Returns when the last picture was delivered.
+     */
+    public long getFinishedTimestamp() {
+        return mFinishedTimestamp;
+    }
+
+    /**
+     * Returns the rate at which frames were captured, from the first to the last frame.
+     */
+    public float getCaptureFps() {
+        return rate(mPictureCount - 1, mLastFrameTimestamp - mFirstFrameTimestamp);
+    }
+
+    /**
+     * Returns the rate at which pictures came out of the whole pipeline, from the shutter to
+     * the delivery of the last one, including processing and encoding.
+     */
+    public float getSustainedFps() {
+        return rate(mPictureCount, mFinishedTimestamp - mShutterTimestamp);
+    }
+
+    private static float rate(int count, long nanos) {
+        return count > 0 && nanos > 0 ? (float) count * TimeUnit.SECONDS.toNanos(1) / nanos : 0;
+    }
+
+}
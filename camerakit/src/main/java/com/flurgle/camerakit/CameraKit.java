@@ -46,6 +46,28 @@ public class CameraKit {
         public static final int VIDEO_QUALITY_HIGHEST = 4;
         public static final int VIDEO_QUALITY_LOWEST = 5;
 
+        public static final int PREVIEW_FORMAT_AUTO = 0;
+        public static final int PREVIEW_FORMAT_NV21 = 1;
+        public static final int PREVIEW_FORMAT_YV12 = 2;
+
+        public static final int ORIENTATION_DEFAULT = 0;
+        public static final int ORIENTATION_EXIF = 1;
+        public static final int ORIENTATION_UPRIGHT = 2;
+
+        public static final int STILL_ENCODER_PLATFORM = 0;
+        public static final int STILL_ENCODER_PARALLEL = 1;
+
+        public static final int STILL_OVERFLOW_DROP = 0;
+        public static final int STILL_OVERFLOW_COALESCE = 1;
+
+        public static final int FRAME_BACKPRESSURE_DROP_OLDEST = 0;
+        public static final int FRAME_BACKPRESSURE_DROP_NEWEST = 1;
+        public static final int FRAME_BACKPRESSURE_BLOCK = 2;
+
+        public static final int FRAME_SELECTION_NEAREST = 0;
+        public static final int FRAME_SELECTION_SHARPEST = 1;
+        public static final int FRAME_SELECTION_MERGE = 2;
+
     }
 
     static class Defaults {
@@ -57,9 +79,23 @@ public class CameraKit {
         static final int DEFAULT_METHOD = Constants.METHOD_STANDARD;
         static final int DEFAULT_PERMISSIONS = Constants.PERMISSIONS_STRICT;
         static final int DEFAULT_VIDEO_QUALITY = Constants.VIDEO_QUALITY_480P;
+        static final int DEFAULT_PREVIEW_FORMAT = Constants.PREVIEW_FORMAT_AUTO;
+        static final int DEFAULT_ORIENTATION_MODE = Constants.ORIENTATION_DEFAULT;
+        static final int DEFAULT_STILL_ENCODER = Constants.STILL_ENCODER_PLATFORM;
+        static final int DEFAULT_STILL_OVERFLOW = Constants.STILL_OVERFLOW_DROP;
+        static final int DEFAULT_FRAME_BACKPRESSURE = Constants.FRAME_BACKPRESSURE_DROP_OLDEST;
+        static final int DEFAULT_FRAME_SELECTION = Constants.FRAME_SELECTION_NEAREST;
 
         static final int DEFAULT_JPEG_QUALITY = 100;
         static final boolean DEFAULT_CROP_OUTPUT = false;
+        static final boolean DEFAULT_HDR = false;
+        static final int DEFAULT_MAX_OUTPUT_LONG_EDGE = 0;
+        static final int DEFAULT_MAX_OUTPUT_PIXELS = 0;
+        static final int DEFAULT_MAX_OUTPUT_BYTES = 0;
+        static final int DEFAULT_MAX_QUEUED_STILLS = 2;
+        static final float DEFAULT_MAX_FRAME_RATE = 0;
+        static final int DEFAULT_SPEED_FRAMES = 3;
+        static final int DEFAULT_SPEED_MAX_BYTES = 0;
         static final boolean DEFAULT_ADJUST_VIEW_BOUNDS = false;
 
     }
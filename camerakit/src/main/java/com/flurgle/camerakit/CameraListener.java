@@ -18,10 +18,53 @@ public abstract class CameraListener {
 
     }
 
+    /**
+     * Same as {@link #onPictureTaken(byte[], int)}, with the timing of the capture.
+     */
+    public void onPictureTaken(byte[] jpeg, int rotation, CaptureMetadata metadata) {
+        onPictureTaken(jpeg, rotation);
+    }
+
+    /**
+     * Called instead of {@link #onPictureTaken(byte[], int, CaptureMetadata)} when a picture
+     * was taken but dropped because the processing executor was full. {@code METHOD_STILL}
+     * captures dropped by their own queue are counted by
+     * {@link CameraView#getDroppedStillCount()} instead.
+     */
+    public void onPictureDropped(CaptureMetadata metadata) {
+
+    }
+
     public void onPictureTaken(YuvImage yuv) {
 
     }
 
+    void onPictureTaken(YuvImage yuv, int exifOrientation, CaptureMetadata metadata) {
+        onPictureTaken(yuv);
+    }
+
+    /**
+     * Called for each picture of {@link CameraView#captureBurst(int, long)}, in order.
+     */
+    public void onBurstPictureTaken(byte[] jpeg, int index, CaptureMetadata metadata) {
+
+    }
+
+    /**
+     * Called after the last picture of a burst was delivered.
+     */
+    public void onBurstFinished(BurstStats stats) {
+
+    }
+
+    void onBurstPictureTaken(BurstCapture burst, int index, YuvImage yuv, int exifOrientation, CaptureMetadata metadata) {
+
+    }
+
+    void onBurstCaptureEnded(BurstCapture burst, int captured) {
+
+    }
+
     public void onVideoTaken(File video) {
 
     }
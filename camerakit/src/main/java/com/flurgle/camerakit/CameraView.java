@@ -6,6 +6,7 @@ import android.content.Context;
 import android.content.ContextWrapper;
 import android.content.pm.PackageManager;
 import android.content.res.TypedArray;
+import android.graphics.ImageFormat;
 import android.graphics.Rect;
 import android.graphics.YuvImage;
 import android.os.Handler;
@@ -16,22 +17,27 @@ import android.support.v4.content.ContextCompat;
 import android.support.v4.hardware.display.DisplayManagerCompat;
 import android.support.v4.view.ViewCompat;
 import android.util.AttributeSet;
+import android.util.Log;
 import android.view.Display;
 import android.view.MotionEvent;
 import android.view.View;
 import android.widget.FrameLayout;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import static com.flurgle.camerakit.CameraKit.Constants.FACING_BACK;
 import static com.flurgle.camerakit.CameraKit.Constants.FACING_FRONT;
 import static com.flurgle.camerakit.CameraKit.Constants.FLASH_AUTO;
 import static com.flurgle.camerakit.CameraKit.Constants.FLASH_OFF;
 import static com.flurgle.camerakit.CameraKit.Constants.FLASH_ON;
-import static com.flurgle.camerakit.CameraKit.Constants.METHOD_STANDARD;
+import static com.flurgle.camerakit.CameraKit.Constants.ORIENTATION_EXIF;
+import static com.flurgle.camerakit.CameraKit.Constants.ORIENTATION_UPRIGHT;
+import static com.flurgle.camerakit.CameraKit.Constants.STILL_ENCODER_PARALLEL;
 
 public class CameraView extends FrameLayout {
 
@@ -56,8 +62,35 @@ public class CameraView extends FrameLayout {
     @VideoQuality
     private int mVideoQuality;
 
-    private int mJpegQuality;
+    @PreviewFormat
+    private int mPreviewFormat;
+
+    @OrientationMode
+    private int mOrientationMode;
+
+    // Also read by the processing threads, once per capture.
+    @StillEncoder
+    private volatile int mStillEncoder;
+
+    @StillOverflow
+    private int mStillOverflow;
+
+    @FrameBackpressure
+    private int mFrameBackpressure;
+
+    @FrameSelection
+    private int mFrameSelection;
+
+    private volatile int mJpegQuality;
     private boolean mCropOutput;
+    private boolean mHdr;
+    private int mMaxOutputLongEdge;
+    private int mMaxOutputPixels;
+    private volatile int mMaxOutputBytes;
+    private int mMaxQueuedStills;
+    private float mMaxFrameRate;
+    private int mSpeedFrames = CameraKit.Defaults.DEFAULT_SPEED_FRAMES;
+    private int mSpeedMaxBytes = CameraKit.Defaults.DEFAULT_SPEED_MAX_BYTES;
     private boolean mAdjustViewBounds;
 
     private CameraListenerMiddleWare mCameraListener;
@@ -70,6 +103,11 @@ public class CameraView extends FrameLayout {
 
     private Handler mCameraHandler;
 
+    private Executor mProcessingExecutor = ProcessingExecutor.getDefault();
+    private volatile Executor mEncodingExecutor = ProcessingExecutor.getEncoding();
+    private StillQueue mStillQueue;
+    private List<FrameDispatcher> mFrameDispatchers = new ArrayList<>();
+
     public CameraView(@NonNull Context context) {
         this(context, null);
     }
@@ -94,6 +132,20 @@ public class CameraView extends FrameLayout {
                 mVideoQuality = a.getInteger(R.styleable.CameraView_ckVideoQuality, CameraKit.Defaults.DEFAULT_VIDEO_QUALITY);
                 mJpegQuality = a.getInteger(R.styleable.CameraView_ckJpegQuality, CameraKit.Defaults.DEFAULT_JPEG_QUALITY);
                 mCropOutput = a.getBoolean(R.styleable.CameraView_ckCropOutput, CameraKit.Defaults.DEFAULT_CROP_OUTPUT);
+                mMaxOutputLongEdge = a.getInteger(R.styleable.CameraView_ckMaxOutputLongEdge, CameraKit.Defaults.DEFAULT_MAX_OUTPUT_LONG_EDGE);
+                mMaxOutputPixels = a.getInteger(R.styleable.CameraView_ckMaxOutputPixels, CameraKit.Defaults.DEFAULT_MAX_OUTPUT_PIXELS);
+                mMaxOutputBytes = a.getInteger(R.styleable.CameraView_ckMaxOutputBytes, CameraKit.Defaults.DEFAULT_MAX_OUTPUT_BYTES);
+                mPreviewFormat = a.getInteger(R.styleable.CameraView_ckPreviewFormat, CameraKit.Defaults.DEFAULT_PREVIEW_FORMAT);
+                mOrientationMode = a.getInteger(R.styleable.CameraView_ckOrientationMode, CameraKit.Defaults.DEFAULT_ORIENTATION_MODE);
+                mStillEncoder = a.getInteger(R.styleable.CameraView_ckStillEncoder, CameraKit.Defaults.DEFAULT_STILL_ENCODER);
+                mMaxQueuedStills = a.getInteger(R.styleable.CameraView_ckMaxQueuedStills, CameraKit.Defaults.DEFAULT_MAX_QUEUED_STILLS);
+                mStillOverflow = a.getInteger(R.styleable.CameraView_ckStillOverflow, CameraKit.Defaults.DEFAULT_STILL_OVERFLOW);
+                mFrameBackpressure = a.getInteger(R.styleable.CameraView_ckFrameBackpressure, CameraKit.Defaults.DEFAULT_FRAME_BACKPRESSURE);
+                mMaxFrameRate = a.getFloat(R.styleable.CameraView_ckMaxFrameRate, CameraKit.Defaults.DEFAULT_MAX_FRAME_RATE);
+                mSpeedFrames = a.getInteger(R.styleable.CameraView_ckSpeedFrames, CameraKit.Defaults.DEFAULT_SPEED_FRAMES);
+                mSpeedMaxBytes = a.getInteger(R.styleable.CameraView_ckSpeedMaxBytes, CameraKit.Defaults.DEFAULT_SPEED_MAX_BYTES);
+                mFrameSelection = a.getInteger(R.styleable.CameraView_ckFrameSelection, CameraKit.Defaults.DEFAULT_FRAME_SELECTION);
+                mHdr = a.getBoolean(R.styleable.CameraView_ckHdr, CameraKit.Defaults.DEFAULT_HDR);
                 mAdjustViewBounds = a.getBoolean(R.styleable.CameraView_android_adjustViewBounds, CameraKit.Defaults.DEFAULT_ADJUST_VIEW_BOUNDS);
             } finally {
                 a.recycle();
@@ -101,18 +153,34 @@ public class CameraView extends FrameLayout {
         }
 
         mCameraListener = new CameraListenerMiddleWare();
+        mStillQueue = new StillQueue(mProcessingExecutor, mMaxQueuedStills, mStillOverflow);
 
         mPreviewImpl = new TextureViewPreview(context, this);
         mCameraImpl = new Camera1(mCameraListener, mPreviewImpl, mCameraHandler);
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCameraImpl.setStillQueue(mStillQueue);
+            }
+        });
 
         setFacing(mFacing);
         setFlash(mFlash);
         setFocus(mFocus);
+        setSpeedHistory(mSpeedFrames, mSpeedMaxBytes);
+        setFrameSelection(mFrameSelection);
+        setHdr(mHdr);
         setMethod(mMethod);
         setZoom(mZoom);
         setJpegQuality(mJpegQuality);
+        setCropOutput(mCropOutput);
+        setMaxOutputSize(mMaxOutputLongEdge, mMaxOutputPixels);
+        setMaxOutputBytes(mMaxOutputBytes);
         setPermissions(mPermissions);
         setVideoQuality(mVideoQuality);
+        setPreviewFormat(mPreviewFormat);
+        setOrientationMode(mOrientationMode);
+        setStillEncoder(mStillEncoder);
 
         mDisplayOrientationDetector = new DisplayOrientationDetector(context) {
             @Override
@@ -295,6 +363,54 @@ public class CameraView extends FrameLayout {
 
     }
 
+    /**
+     * Sets how many recent preview frames {@code METHOD_SPEED} keeps to pick the picture
+     * from, and the most memory they may take; {@code maxBytes} 0 for no limit.
+     */
+    public void setSpeedHistory(final int maxFrames, final int maxBytes) {
+        this.mSpeedFrames = maxFrames;
+        this.mSpeedMaxBytes = maxBytes;
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCameraImpl.setSpeedHistory(maxFrames, maxBytes);
+            }
+        });
+    }
+
+    public void setSpeedFrames(int maxFrames) {
+        setSpeedHistory(maxFrames, mSpeedMaxBytes);
+    }
+
+    public void setSpeedMaxBytes(int maxBytes) {
+        setSpeedHistory(mSpeedFrames, maxBytes);
+    }
+
+    public void setFrameSelection(@FrameSelection final int frameSelection) {
+        this.mFrameSelection = frameSelection;
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCameraImpl.setFrameSelection(frameSelection);
+            }
+        });
+    }
+
+    /**
+     * Takes pictures as a bracket of three preview frames, metered and two stops below and
+     * above, fused into one that keeps detail in both highlights and shadows. Takes about
+     * ten preview frames; the scene and camera should hold still meanwhile.
+     */
+    public void setHdr(final boolean hdr) {
+        this.mHdr = hdr;
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCameraImpl.setHdr(hdr);
+            }
+        });
+    }
+
     public void setZoom(@Zoom int zoom) {
         this.mZoom = zoom;
         mCameraHandler.post(new Runnable() {
@@ -315,6 +431,157 @@ public class CameraView extends FrameLayout {
         mCameraImpl.setVideoQuality(mVideoQuality);
     }
 
+    public void setPreviewFormat(@PreviewFormat final int previewFormat) {
+        this.mPreviewFormat = previewFormat;
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCameraImpl.setPreviewFormat(previewFormat);
+            }
+        });
+    }
+
+    public void setOrientationMode(@OrientationMode final int orientationMode) {
+        this.mOrientationMode = orientationMode;
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCameraImpl.setOrientationMode(orientationMode);
+            }
+        });
+    }
+
+    public void setStillEncoder(@StillEncoder int stillEncoder) {
+        this.mStillEncoder = stillEncoder;
+    }
+
+    /**
+     * Sets the executor that crops, rotates and encodes captures, away from the UI and
+     * camera threads; only the finished JPEG is posted to the main thread. {@code null}
+     * restores the default, a single background thread with a bounded queue.
+     */
+    public void setProcessingExecutor(@Nullable Executor executor) {
+        this.mProcessingExecutor = executor != null ? executor : ProcessingExecutor.getDefault();
+        mStillQueue.setExecutor(mProcessingExecutor);
+    }
+
+    /**
+     * Sets the executor that encodes the pictures of a burst, while the processing executor
+     * rotates and crops the next frame. {@code null} restores the default, a single
+     * background thread with a bounded queue.
+     */
+    public void setEncodingExecutor(@Nullable Executor executor) {
+        this.mEncodingExecutor = executor != null ? executor : ProcessingExecutor.getEncoding();
+    }
+
+    /**
+     * Sets how many {@code METHOD_STILL} captures may wait for processing, at least one.
+     */
+    public void setMaxQueuedStills(int maxQueuedStills) {
+        this.mMaxQueuedStills = maxQueuedStills;
+        mStillQueue.setMaxQueued(maxQueuedStills);
+    }
+
+    public void setStillOverflow(@StillOverflow int stillOverflow) {
+        this.mStillOverflow = stillOverflow;
+        mStillQueue.setOverflow(stillOverflow);
+    }
+
+    /**
+     * Returns the number of {@code METHOD_STILL} captures waiting for processing.
+     */
+    public int getQueuedStillCount() {
+        return mStillQueue.getQueuedCount();
+    }
+
+    /**
+     * Returns the number of {@code METHOD_STILL} captures being processed.
+     */
+    public int getInFlightStillCount() {
+        return mStillQueue.getInFlightCount();
+    }
+
+    /**
+     * Returns the number of {@code METHOD_STILL} captures dropped so far because the queue
+     * was full, including those replaced with {@code STILL_OVERFLOW_COALESCE}.
+     */
+    public long getDroppedStillCount() {
+        return mStillQueue.getDroppedCount();
+    }
+
+    /**
+     * Delivers live preview frames to {@code processor} on a worker thread of its own, so a
+     * slow processor never stalls the preview, the camera or other processors. Frames that
+     * arrive while it is busy are handled as set by {@link #setFrameBackpressure(int)}.
+     */
+    public void addFrameProcessor(final FrameProcessor processor) {
+        if (findFrameDispatcher(processor) != null) {
+            return;
+        }
+        final FrameDispatcher dispatcher = new FrameDispatcher(processor, mFrameBackpressure, mMaxFrameRate);
+        mFrameDispatchers.add(dispatcher);
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCameraImpl.addFrameConsumer(dispatcher);
+            }
+        });
+    }
+
+    public void removeFrameProcessor(FrameProcessor processor) {
+        final FrameDispatcher dispatcher = findFrameDispatcher(processor);
+        if (dispatcher == null) {
+            return;
+        }
+        mFrameDispatchers.remove(dispatcher);
+        dispatcher.close();
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCameraImpl.removeFrameConsumer(dispatcher);
+            }
+        });
+    }
+
+    public void setFrameBackpressure(@FrameBackpressure int frameBackpressure) {
+        this.mFrameBackpressure = frameBackpressure;
+        for (FrameDispatcher dispatcher : mFrameDispatchers) {
+            dispatcher.setBackpressure(frameBackpressure);
+        }
+    }
+
+    /**
+     * Limits the rate at which each frame processor receives frames; 0 delivers every frame.
+     */
+    public void setMaxFrameRate(float maxFrameRate) {
+        this.mMaxFrameRate = maxFrameRate;
+        for (FrameDispatcher dispatcher : mFrameDispatchers) {
+            dispatcher.setMaxFps(maxFrameRate);
+        }
+    }
+
+    /**
+     * Returns the number of frames the current frame processors missed because they were
+     * busy. Frames skipped by the frame rate limit are not counted.
+     */
+    public long getDroppedFrameCount() {
+        long dropped = 0;
+        for (FrameDispatcher dispatcher : mFrameDispatchers) {
+            dropped += dispatcher.getDroppedCount();
+        }
+        return dropped;
+    }
+
+    @Nullable
+    private FrameDispatcher findFrameDispatcher(FrameProcessor processor) {
+        for (FrameDispatcher dispatcher : mFrameDispatchers) {
+            if (dispatcher.getProcessor() == processor) {
+                return dispatcher;
+            }
+        }
+        return null;
+    }
+
     public void setJpegQuality(final int jpegQuality) {
         this.mJpegQuality = jpegQuality;
         mCameraHandler.post(new Runnable() {
@@ -325,8 +592,37 @@ public class CameraView extends FrameLayout {
         });
     }
 
-    public void setCropOutput(boolean cropOutput) {
+    public void setCropOutput(final boolean cropOutput) {
         this.mCropOutput = cropOutput;
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCameraImpl.setCropOutput(cropOutput);
+            }
+        });
+    }
+
+    public void setMaxOutputSize(final int maxLongEdge, final int maxPixels) {
+        this.mMaxOutputLongEdge = maxLongEdge;
+        this.mMaxOutputPixels = maxPixels;
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCameraImpl.setMaxOutputSize(maxLongEdge, maxPixels);
+            }
+        });
+    }
+
+    public void setMaxOutputLongEdge(int maxLongEdge) {
+        setMaxOutputSize(maxLongEdge, mMaxOutputPixels);
+    }
+
+    public void setMaxOutputPixels(int maxPixels) {
+        setMaxOutputSize(mMaxOutputLongEdge, maxPixels);
+    }
+
+    public void setMaxOutputBytes(int maxBytes) {
+        this.mMaxOutputBytes = maxBytes;
     }
 
     @Facing
@@ -368,10 +664,31 @@ public class CameraView extends FrameLayout {
     }
 
     public void captureImage() {
+        final long shutterTimestamp = System.nanoTime();
+        mCameraHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mCameraImpl.captureImage(shutterTimestamp);
+            }
+        });
+    }
+
+    /**
+     * Captures {@code count} consecutive preview frames, at most one per
+     * {@code intervalMillis} (0 for every frame), like {@code METHOD_STILL} pictures. The
+     * frames are rotated, cropped and encoded in a pipeline, one frame per stage, and arrive
+     * in order through {@link CameraListener#onBurstPictureTaken(byte[], int, CaptureMetadata)},
+     * followed by {@link CameraListener#onBurstFinished(BurstStats)}.
+     */
+    public void captureBurst(int count, long intervalMillis) {
+        if (count < 1 || intervalMillis < 0) {
+            throw new IllegalArgumentException("Invalid burst: " + count + " pictures every " + intervalMillis + "ms");
+        }
+        final BurstCapture burst = new BurstCapture(count, intervalMillis, System.nanoTime());
         mCameraHandler.post(new Runnable() {
             @Override
             public void run() {
-                mCameraImpl.captureImage();
+                mCameraImpl.captureBurst(burst);
             }
         });
     }
@@ -406,6 +723,14 @@ public class CameraView extends FrameLayout {
         return mCameraImpl != null ? mCameraImpl.getCaptureResolution() : null;
     }
 
+    /**
+     * Returns how many camera parameter updates were merged into another one or skipped
+     * because nothing changed. Each one would have been a round trip through the camera driver.
+     */
+    public long getSavedParameterRoundTrips() {
+        return mCameraImpl != null ? mCameraImpl.getSavedParameterRoundTrips() : 0;
+    }
+
     private void requestPermissions(boolean requestCamera, boolean requestAudio) {
         Activity activity = null;
         Context context = getContext();
@@ -466,50 +791,159 @@ public class CameraView extends FrameLayout {
         }
 
         @Override
-        public void onPictureTaken(final byte[] jpeg, final int rotation) {
-            if (mCropOutput) {
-                final int width = mMethod == METHOD_STANDARD ? mCameraImpl.getCaptureResolution().getWidth() : mCameraImpl.getPreviewResolution().getWidth();
-                final int height = mMethod == METHOD_STANDARD ? mCameraImpl.getCaptureResolution().getHeight() : mCameraImpl.getPreviewResolution().getHeight();
-                final AspectRatio outputRatio = AspectRatio.of(getWidth(), getHeight());
-                mMainHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        getCameraListener().onPictureTaken(new CenterCrop(jpeg, outputRatio, mJpegQuality).getJpeg(), rotation);
-                    }
-                });
+        public void onPictureTaken(byte[] jpeg, int rotation) {
+            onPictureTaken(jpeg, rotation, null);
+        }
 
-            } else {
-                mMainHandler.post(new Runnable() {
-                    @Override
-                    public void run() {
-                        getCameraListener().onPictureTaken(jpeg, rotation);
+        @Override
+        public void onPictureTaken(final byte[] jpeg, final int rotation, final CaptureMetadata metadata) {
+            // Read on the calling thread, so the capture uses the settings it was taken with.
+            final int orientationMode = mOrientationMode;
+            final AspectRatio outputRatio = mCropOutput ? AspectRatio.of(getWidth(), getHeight()) : null;
+            final int jpegQuality = mJpegQuality;
+            final int maxBytes = mMaxOutputBytes;
+            process(metadata, new Runnable() {
+                @Override
+                public void run() {
+                    if (orientationMode == ORIENTATION_EXIF) {
+                        // The crop decodes the unrotated frame, so the view ratio is turned to match it.
+                        byte[] output = outputRatio != null
+                                ? new CenterCrop(jpeg, rotation % 180 != 0 ? outputRatio.inverse() : outputRatio, jpegQuality, maxBytes).getJpeg()
+                                : jpeg;
+                        output = new ExifOrientation(output, ExifOrientation.forRotation(rotation, false)).getJpeg();
+                        // Also catches the few bytes the Exif segment can add to a crop that just fit.
+                        deliverPicture(new JpegSizeCap(output, jpegQuality, maxBytes).getJpeg(), 0, metadata);
+
+                    } else if (orientationMode == ORIENTATION_UPRIGHT) {
+                        deliverPicture(new JpegRotation(jpeg, rotation, outputRatio, jpegQuality, maxBytes).getJpeg(), 0, metadata);
+
+                    } else if (outputRatio != null) {
+                        deliverPicture(new CenterCrop(jpeg, outputRatio, jpegQuality, maxBytes).getJpeg(), rotation, metadata);
+
+                    } else {
+                        deliverPicture(new JpegSizeCap(jpeg, jpegQuality, maxBytes).getJpeg(), rotation, metadata);
                     }
-                });
-            }
+                }
+            });
         }
 
         @Override
         public void onPictureTaken(final YuvImage yuv) {
-            if (mCropOutput) {
-                final AspectRatio outputRatio = AspectRatio.of(getWidth(), getHeight());
-                mMainHandler.post(new Runnable() {
+            onPictureTaken(yuv, ExifOrientation.ORIENTATION_UNDEFINED, null);
+        }
+
+        @Override
+        void onPictureTaken(final YuvImage yuv, final int exifOrientation, CaptureMetadata metadata) {
+            // Called on the processing executor by the camera. Stills arrive already cropped
+            // to the view bounds when mCropOutput is set. The settings are read once, so the
+            // retries of the byte budget all use the same ones.
+            final int stillEncoder = mStillEncoder;
+            final int jpegQuality = mJpegQuality;
+            final int maxBytes = mMaxOutputBytes;
+            byte[] jpeg = encodePicture(yuv, exifOrientation, stillEncoder, jpegQuality, maxBytes);
+            BufferPool.getDefault().release(yuv.getYuvData());
+            deliverPicture(jpeg, 0, metadata);
+        }
+
+        @Override
+        void onBurstPictureTaken(final BurstCapture burst, final int index, final YuvImage yuv,
+                                 final int exifOrientation, final CaptureMetadata metadata) {
+            // Encoding runs on a stage of its own, so the processing executor can go on with
+            // the next frame of the burst meanwhile. The settings are read as the frame arrives.
+            final int stillEncoder = mStillEncoder;
+            final int jpegQuality = mJpegQuality;
+            final int maxBytes = mMaxOutputBytes;
+            Runnable encode = new Runnable() {
+                @Override
+                public void run() {
+                    final byte[] jpeg = encodePicture(yuv, exifOrientation, stillEncoder, jpegQuality, maxBytes);
+                    BufferPool.getDefault().release(yuv.getYuvData());
+                    mMainHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            burst.onPictureTaken(index, jpeg, metadata, getCameraListener());
+                        }
+                    });
+                }
+            };
+            try {
+                mEncodingExecutor.execute(encode);
+            } catch (RejectedExecutionException e) {
+                // The encoder is behind; encoding here slows the earlier stage down to match.
+                encode.run();
+            }
+        }
+
+        @Override
+        void onBurstCaptureEnded(final BurstCapture burst, final int captured) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    burst.onCaptureEnded(captured, getCameraListener());
+                }
+            });
+        }
+
+        private byte[] encodePicture(final YuvImage yuv, final int exifOrientation,
+                                     @StillEncoder final int stillEncoder, int jpegQuality, int maxBytes) {
+            if (maxBytes > 0 && yuv.getYuvFormat() == ImageFormat.NV21) {
+                JpegSizeTarget target = JpegSizeTarget.forYuv(yuv.getYuvData(),
+                        YuvLayout.nv21(yuv.getWidth(), yuv.getHeight()), new Rect(0, 0, yuv.getWidth(), yuv.getHeight()));
+                return target.encode(jpegQuality, maxBytes, new JpegSizeTarget.Encoder() {
                     @Override
-                    public void run() {
-                        getCameraListener().onPictureTaken(new CenterCrop(yuv, outputRatio, mJpegQuality).getJpeg(), 0);
+                    public byte[] encode(int quality) {
+                        return encodeStill(yuv, stillEncoder, quality, exifOrientation);
                     }
                 });
-            } else {
-                final ByteArrayOutputStream out = new ByteArrayOutputStream();
-                yuv.compressToJpeg(new Rect(0, 0, yuv.getWidth(), yuv.getHeight()), mJpegQuality, out);
+            }
+            return encodeStill(yuv, stillEncoder, jpegQuality, exifOrientation);
+        }
+
+        // Runs crop, encode and rotate work away from the UI and camera threads.
+        private void process(final CaptureMetadata metadata, Runnable task) {
+            try {
+                mProcessingExecutor.execute(task);
+            } catch (RejectedExecutionException e) {
+                Log.w("CameraKit", "Processing queue full, dropping picture");
                 mMainHandler.post(new Runnable() {
                     @Override
                     public void run() {
-                        getCameraListener().onPictureTaken(out.toByteArray(), 0);
+                        getCameraListener().onPictureDropped(metadata);
                     }
                 });
             }
         }
 
+        private void deliverPicture(final byte[] jpeg, final int rotation, final CaptureMetadata metadata) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    getCameraListener().onPictureTaken(jpeg, rotation, metadata);
+                }
+            });
+        }
+
+        private byte[] encodeStill(YuvImage yuv, @StillEncoder int stillEncoder, int quality, int exifOrientation) {
+            PooledOutputStream out = new PooledOutputStream(BufferPool.getDefault());
+            if (stillEncoder == STILL_ENCODER_PARALLEL && yuv.getYuvFormat() == ImageFormat.NV21) {
+                try {
+                    new JpegEncoder(quality).encode(yuv.getYuvData(),
+                            YuvLayout.nv21(yuv.getWidth(), yuv.getHeight()), out, StripeExecutor.get());
+                } catch (IOException e) {
+                    // PooledOutputStream does not throw.
+                    throw new IllegalStateException(e);
+                }
+            } else {
+                yuv.compressToJpeg(new Rect(0, 0, yuv.getWidth(), yuv.getHeight()), quality, out);
+            }
+            byte[] encoded = out.toByteArray();
+            out.release();
+            if (exifOrientation != ExifOrientation.ORIENTATION_UNDEFINED) {
+                encoded = new ExifOrientation(encoded, exifOrientation).getJpeg();
+            }
+            return encoded;
+        }
+
         @Override
         public void onVideoTaken(final File video) {
             super.onVideoTaken(video);
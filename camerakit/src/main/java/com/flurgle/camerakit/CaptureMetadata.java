@@ -0,0 +1,91 @@
+package com.flurgle.camerakit;
+
+/**
+ * Timing of a captured picture. Timestamps are {@link System#nanoTime()} values.
+ * Pictures fused from an HDR bracket also carry the time spent in each processing stage.
+ */
+public class CaptureMetadata {
+
+    @Method
+    private final int mMethod;
+    private final long mShutterTimestamp;
+    private final long mFrameTimestamp;
+
+    private long mHdrWeightNanos;
+    private long mHdrPyramidNanos;
+    private long mHdrCollapseNanos;
+    private long mHdrTransformNanos;
+
+    CaptureMetadata(@Method int method, long shutterTimestamp, long frameTimestamp) {
+        mMethod = method;
+        mShutterTimestamp = shutterTimestamp;
+        mFrameTimestamp = frameTimestamp;
+    }
+
+    @Method
+    public int getMethod() {
+        return mMethod;
+    }
+
+    /**
+     * Returns when {@link CameraView#captureImage()} was called.
+     */
+    public long getShutterTimestamp() {
+        return mShutterTimestamp;
+    }
+
+    /**
+     * Returns when the captured frame was delivered by the camera.
+     */
+    public long getFrameTimestamp() {
+        return mFrameTimestamp;
+    }
+
+    /**
+     * Returns the time from the shutter to the captured frame. Negative with
+     * {@code METHOD_SPEED} when the picture was taken from a frame before the shutter.
+     */
+    public long getShutterToFrameNanos() {
+        return mFrameTimestamp - mShutterTimestamp;
+    }
+
+    void setHdrNanos(long weightNanos, long pyramidNanos, long collapseNanos, long transformNanos) {
+        mHdrWeightNanos = weightNanos;
+        mHdrPyramidNanos = pyramidNanos;
+        mHdrCollapseNanos = collapseNanos;
+        mHdrTransformNanos = transformNanos;
+    }
+
+    /**
+     * Returns the time spent weighing the exposures of an HDR bracket, or 0 for other
+     * pictures.
+     */
+    public long getHdrWeightNanos() {
+        return mHdrWeightNanos;
+    }
+
+    /**
+     * Returns the time spent building and blending the pyramids of an HDR bracket, or 0 for
+     * other pictures.
+     */
+    public long getHdrPyramidNanos() {
+        return mHdrPyramidNanos;
+    }
+
+    /**
+     * Returns the time spent collapsing the blended pyramid of an HDR bracket, or 0 for
+     * other pictures.
+     */
+    public long getHdrCollapseNanos() {
+        return mHdrCollapseNanos;
+    }
+
+    /**
+     * Returns the time spent rotating, cropping and scaling the fused HDR frame, or 0 for
+     * other pictures.
+     */
+    public long getHdrTransformNanos() {
+        return mHdrTransformNanos;
+    }
+
+}
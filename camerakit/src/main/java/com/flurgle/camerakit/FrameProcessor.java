@@ -0,0 +1,15 @@
+package com.flurgle.camerakit;
+
+/**
+ * Receives live preview frames, see {@link CameraView#addFrameProcessor(FrameProcessor)}.
+ */
+public interface FrameProcessor {
+
+    /**
+     * Called on a worker thread owned by this processor, never on the UI or camera thread.
+     * The frame is released when this returns; {@link Frame#retain() retain} it to keep it
+     * longer, but every retained frame holds back one of the few preview buffers.
+     */
+    void process(Frame frame);
+
+}
@@ -0,0 +1,15 @@
+package com.flurgle.camerakit;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import static com.flurgle.camerakit.CameraKit.Constants.FRAME_BACKPRESSURE_BLOCK;
+import static com.flurgle.camerakit.CameraKit.Constants.FRAME_BACKPRESSURE_DROP_NEWEST;
+import static com.flurgle.camerakit.CameraKit.Constants.FRAME_BACKPRESSURE_DROP_OLDEST;
+
+@Retention(RetentionPolicy.SOURCE)
+@IntDef({FRAME_BACKPRESSURE_DROP_OLDEST, FRAME_BACKPRESSURE_DROP_NEWEST, FRAME_BACKPRESSURE_BLOCK})
+public @interface FrameBackpressure {
+}
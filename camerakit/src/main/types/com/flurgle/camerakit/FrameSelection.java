@@ -0,0 +1,15 @@
+package com.flurgle.camerakit;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import static com.flurgle.camerakit.CameraKit.Constants.FRAME_SELECTION_MERGE;
+import static com.flurgle.camerakit.CameraKit.Constants.FRAME_SELECTION_NEAREST;
+import static com.flurgle.camerakit.CameraKit.Constants.FRAME_SELECTION_SHARPEST;
+
+@Retention(RetentionPolicy.SOURCE)
+@IntDef({FRAME_SELECTION_NEAREST, FRAME_SELECTION_SHARPEST, FRAME_SELECTION_MERGE})
+public @interface FrameSelection {
+}
@@ -0,0 +1,15 @@
+package com.flurgle.camerakit;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import static com.flurgle.camerakit.CameraKit.Constants.ORIENTATION_DEFAULT;
+import static com.flurgle.camerakit.CameraKit.Constants.ORIENTATION_EXIF;
+import static com.flurgle.camerakit.CameraKit.Constants.ORIENTATION_UPRIGHT;
+
+@Retention(RetentionPolicy.SOURCE)
+@IntDef({ORIENTATION_DEFAULT, ORIENTATION_EXIF, ORIENTATION_UPRIGHT})
+public @interface OrientationMode {
+}
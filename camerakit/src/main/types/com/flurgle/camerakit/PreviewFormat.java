@@ -0,0 +1,15 @@
+package com.flurgle.camerakit;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import static com.flurgle.camerakit.CameraKit.Constants.PREVIEW_FORMAT_AUTO;
+import static com.flurgle.camerakit.CameraKit.Constants.PREVIEW_FORMAT_NV21;
+import static com.flurgle.camerakit.CameraKit.Constants.PREVIEW_FORMAT_YV12;
+
+@Retention(RetentionPolicy.SOURCE)
+@IntDef({PREVIEW_FORMAT_AUTO, PREVIEW_FORMAT_NV21, PREVIEW_FORMAT_YV12})
+public @interface PreviewFormat {
+}
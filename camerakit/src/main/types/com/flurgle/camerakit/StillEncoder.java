@@ -0,0 +1,14 @@
+package com.flurgle.camerakit;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import static com.flurgle.camerakit.CameraKit.Constants.STILL_ENCODER_PARALLEL;
+import static com.flurgle.camerakit.CameraKit.Constants.STILL_ENCODER_PLATFORM;
+
+@Retention(RetentionPolicy.SOURCE)
+@IntDef({STILL_ENCODER_PLATFORM, STILL_ENCODER_PARALLEL})
+public @interface StillEncoder {
+}
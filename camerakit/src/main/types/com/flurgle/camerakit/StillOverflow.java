@@ -0,0 +1,14 @@
+package com.flurgle.camerakit;
+
+import android.support.annotation.IntDef;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+
+import static com.flurgle.camerakit.CameraKit.Constants.STILL_OVERFLOW_COALESCE;
+import static com.flurgle.camerakit.CameraKit.Constants.STILL_OVERFLOW_DROP;
+
+@Retention(RetentionPolicy.SOURCE)
+@IntDef({STILL_OVERFLOW_DROP, STILL_OVERFLOW_COALESCE})
+public @interface StillOverflow {
+}
@@ -0,0 +1,142 @@
+package com.flurgle.camerakit;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Size keyed pool of {@code byte[]} buffers for the still processing pipeline.
+ *
+ * {@link #acquire(int)} returns a previously released buffer of exactly the requested
+ * length when one is available and allocates otherwise. Released buffers are retained up
+ * to {@link #getMaxBytes()}; when the cap is exceeded the least recently released buffers
+ * are dropped first. Buffers handed out by the pool must not be used after release.
+ */
+public class BufferPool {
+
+    private static final long DEFAULT_MAX_BYTES = 32 * 1024 * 1024;
+
+    private static BufferPool sDefault;
+
+    private final Map<Integer, ArrayDeque<byte[]>> mBuckets = new HashMap<>();
+    private final ArrayDeque<byte[]> mReleaseOrder = new ArrayDeque<>();
+
+    private long mMaxBytes;
+    private long mBytesRetained;
+    private long mHits;
+    private long mMisses;
+
+    public static synchronized BufferPool getDefault() {
+        if (sDefault == null) {
+            sDefault = new BufferPool(Math.min(DEFAULT_MAX_BYTES, Runtime.getRuntime().maxMemory() / 8));
+        }
+        return sDefault;
+    }
+
+    public BufferPool(long maxBytes) {
+        mMaxBytes = maxBytes;
+    }
+
+    public synchronized byte[] acquire(int size) {
+        ArrayDeque<byte[]> bucket = mBuckets.get(size);
+        if (bucket != null && !bucket.isEmpty()) {
+            byte[] buffer = bucket.pollLast();
+            mReleaseOrder.removeLastOccurrence(buffer);
+            mBytesRetained -= size;
+            mHits++;
+            return buffer;
+        }
+
+        mMisses++;
+        return new byte[size];
+    }
+
+    public synchronized void release(byte[] buffer) {
+        if (buffer == null || buffer.length == 0 || buffer.length > mMaxBytes) {
+            return;
+        }
+
+        ArrayDeque<byte[]> bucket = mBuckets.get(buffer.length);
+        if (bucket == null) {
+            bucket = new ArrayDeque<>();
+            mBuckets.put(buffer.length, bucket);
+        } else {
+            for (byte[] retained : bucket) {
+                if (retained == buffer) {
+                    return;
+                }
+            }
+        }
+
+        bucket.addLast(buffer);
+        mReleaseOrder.addLast(buffer);
+        mBytesRetained += buffer.length;
+        trimTo(mMaxBytes);
+    }
+
+    public synchronized void setMaxBytes(long maxBytes) {
+        mMaxBytes = Math.max(0, maxBytes);
+        trimTo(mMaxBytes);
+    }
+
+    public synchronized long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    public synchronized void trimTo(long bytes) {
+        while (mBytesRetained > bytes && !mReleaseOrder.isEmpty()) {
+            byte[] buffer = mReleaseOrder.pollFirst();
+            ArrayDeque<byte[]> bucket = mBuckets.get(buffer.length);
+            bucket.removeFirstOccurrence(buffer);
+            if (bucket.isEmpty()) {
+                mBuckets.remove(buffer.length);
+            }
+            mBytesRetained -= buffer.length;
+        }
+    }
+
+    public synchronized void clear() {
+        trimTo(0);
+    }
+
+    public synchronized long getBytesRetained() {
+        return mBytesRetained;
+    }
+
+    public synchronized int getBuffersRetained() {
+        return mReleaseOrder.size();
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    public synchronized void resetStats() {
+        mHits = 0;
+        mMisses = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("BufferPool{hits=").append(mHits)
+                .append(", misses=").append(mMisses)
+                .append(", retained=").append(mBytesRetained)
+                .append('/').append(mMaxBytes)
+                .append(", sizes=[");
+        Iterator<Map.Entry<Integer, ArrayDeque<byte[]>>> iterator = mBuckets.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Integer, ArrayDeque<byte[]>> entry = iterator.next();
+            builder.append(entry.getKey()).append('x').append(entry.getValue().size());
+            if (iterator.hasNext()) {
+                builder.append(", ");
+            }
+        }
+        return builder.append("]}").toString();
+    }
+
+}
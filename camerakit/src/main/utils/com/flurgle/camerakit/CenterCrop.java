@@ -3,11 +3,11 @@ package com.flurgle.camerakit;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapRegionDecoder;
+import android.graphics.ImageFormat;
 import android.graphics.Rect;
 import android.graphics.YuvImage;
 import android.util.Log;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 public class CenterCrop {
@@ -15,13 +15,61 @@ public class CenterCrop {
     private byte[] croppedJpeg;
 
     public CenterCrop(YuvImage yuv, AspectRatio targetRatio, int jpegCompression) {
-        Rect crop = getCrop(yuv.getWidth(), yuv.getHeight(), targetRatio);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        yuv.compressToJpeg(crop, jpegCompression, out);
-        this.croppedJpeg = out.toByteArray();
+        this(yuv, targetRatio, jpegCompression, 0);
+    }
+
+    /**
+     * With {@code maxBytes > 0}, lowers the quality below {@code jpegCompression} as far as
+     * needed for the JPEG to fit in {@code maxBytes}.
+     */
+    public CenterCrop(final YuvImage yuv, AspectRatio targetRatio, int jpegCompression, int maxBytes) {
+        final Rect crop = getCrop(yuv.getWidth(), yuv.getHeight(), targetRatio);
+        if (maxBytes > 0 && yuv.getYuvFormat() == ImageFormat.NV21) {
+            JpegSizeTarget target = JpegSizeTarget.forYuv(yuv.getYuvData(),
+                    YuvLayout.nv21(yuv.getWidth(), yuv.getHeight()), crop);
+            this.croppedJpeg = target.encode(jpegCompression, maxBytes, new JpegSizeTarget.Encoder() {
+                @Override
+                public byte[] encode(int quality) {
+                    return compress(yuv, crop, quality);
+                }
+            });
+        } else {
+            this.croppedJpeg = compress(yuv, crop, jpegCompression);
+        }
     }
 
     public CenterCrop(byte[] jpeg, AspectRatio targetRatio, int jpegCompression) {
+        this(jpeg, targetRatio, jpegCompression, 0);
+    }
+
+    /**
+     * With {@code maxBytes > 0}, requantizes the cropped JPEG as far as needed for it to fit
+     * in {@code maxBytes}.
+     */
+    public CenterCrop(byte[] jpeg, AspectRatio targetRatio, int jpegCompression, int maxBytes) {
+        try {
+            // Lossless when the JPEG can be cropped in the compressed domain; jpegCompression
+            // then only caps the quality a byte budget requantizes to, because otherwise the
+            // original coefficients are kept.
+            final JpegFrame frame = JpegFrame.parse(jpeg);
+            if (frame != null) {
+                final Rect crop = getCrop(frame.mWidth, frame.mHeight, targetRatio);
+                this.croppedJpeg = JpegCrop.crop(frame, crop);
+                if (maxBytes > 0 && croppedJpeg.length > maxBytes) {
+                    final JpegSizeTarget target = JpegSizeTarget.forJpeg(frame, crop);
+                    this.croppedJpeg = target.encode(jpegCompression, maxBytes, new JpegSizeTarget.Encoder() {
+                        @Override
+                        public byte[] encode(int quality) {
+                            return JpegCrop.crop(frame, crop, target.getQuantTables(quality));
+                        }
+                    });
+                }
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w("CameraKit", "Lossless crop failed, re-encoding: " + e);
+        }
+
         BitmapFactory.Options options = new BitmapFactory.Options();
         options.inJustDecodeBounds = true;
         BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
@@ -35,15 +83,57 @@ public class CenterCrop {
                     true
             ).decodeRegion(crop, null);
 
-            ByteArrayOutputStream out = new ByteArrayOutputStream();
-            bitmap.compress(Bitmap.CompressFormat.JPEG, jpegCompression, out);
-            this.croppedJpeg = out.toByteArray();
+            this.croppedJpeg = compress(bitmap, jpegCompression, maxBytes);
+            bitmap.recycle();
         } catch (IOException e) {
             Log.e("CameraKit", e.toString());
         }
     }
 
-    private static Rect getCrop(int currentWidth, int currentHeight, AspectRatio targetRatio) {
+    private static byte[] compress(YuvImage yuv, Rect crop, int quality) {
+        PooledOutputStream out = new PooledOutputStream(BufferPool.getDefault());
+        yuv.compressToJpeg(crop, quality, out);
+        byte[] jpeg = out.toByteArray();
+        out.release();
+        return jpeg;
+    }
+
+    /**
+     * Compresses {@code bitmap} at {@code maxQuality}, or with {@code maxBytes > 0} at the
+     * highest quality up to it whose output fits; at quality 1 when none does.
+     */
+    static byte[] compress(Bitmap bitmap, int maxQuality, int maxBytes) {
+        byte[] jpeg = compress(bitmap, maxQuality);
+        if (maxBytes <= 0 || jpeg.length <= maxBytes) {
+            return jpeg;
+        }
+        // No coefficients to estimate from here: bisect on real encodes, which at least
+        // never decode again.
+        int low = 1;
+        int high = maxQuality - 1;
+        byte[] fitting = null;
+        while (low <= high) {
+            int quality = (low + high) / 2;
+            byte[] output = compress(bitmap, quality);
+            if (output.length <= maxBytes) {
+                fitting = output;
+                low = quality + 1;
+            } else {
+                high = quality - 1;
+            }
+        }
+        return fitting != null ? fitting : compress(bitmap, 1);
+    }
+
+    private static byte[] compress(Bitmap bitmap, int quality) {
+        PooledOutputStream out = new PooledOutputStream(BufferPool.getDefault());
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, out);
+        byte[] jpeg = out.toByteArray();
+        out.release();
+        return jpeg;
+    }
+
+    static Rect getCrop(int currentWidth, int currentHeight, AspectRatio targetRatio) {
         AspectRatio currentRatio = AspectRatio.of(currentWidth, currentHeight);
 
         Rect crop;
@@ -0,0 +1,288 @@
+package com.flurgle.camerakit;
+
+/**
+ * Sets the EXIF Orientation tag of a JPEG without decoding it.
+ *
+ * An existing tag is patched in place. When the Exif segment has no Orientation entry a
+ * copy of IFD0 with the entry added is appended to the segment and the TIFF header is
+ * repointed at it, so every other tag and the thumbnail are kept. When the JPEG has no
+ * Exif segment a minimal one is inserted after SOI and any JFIF header.
+ */
+public class ExifOrientation {
+
+    public static final int ORIENTATION_UNDEFINED = 0;
+    public static final int ORIENTATION_NORMAL = 1;
+    public static final int ORIENTATION_FLIP_HORIZONTAL = 2;
+    public static final int ORIENTATION_ROTATE_180 = 3;
+    public static final int ORIENTATION_FLIP_VERTICAL = 4;
+    public static final int ORIENTATION_TRANSPOSE = 5;
+    public static final int ORIENTATION_ROTATE_90 = 6;
+    public static final int ORIENTATION_TRANSVERSE = 7;
+    public static final int ORIENTATION_ROTATE_270 = 8;
+
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_APP0 = 0xE0;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TYPE_SHORT = 3;
+    private static final int IFD_ENTRY_SIZE = 12;
+    private static final int MAX_SEGMENT_LENGTH = 0xFFFF;
+
+    private static final byte[] EXIF_HEADER = {'E', 'x', 'i', 'f', 0, 0};
+
+    private byte[] mJpeg;
+
+    public ExifOrientation(byte[] jpeg, int orientation) {
+        if (orientation < ORIENTATION_NORMAL || orientation > ORIENTATION_ROTATE_270) {
+            throw new IllegalArgumentException("1 <= orientation <= 8");
+        }
+
+        ExifSegment segment = ExifSegment.find(jpeg);
+        if (segment == null) {
+            mJpeg = insertSegment(jpeg, orientation);
+        } else if (segment.orientationEntry >= 0) {
+            mJpeg = jpeg.clone();
+            segment.writeEntry(mJpeg, segment.orientationEntry, orientation);
+        } else {
+            mJpeg = appendIfd(jpeg, segment, orientation);
+        }
+    }
+
+    public byte[] getJpeg() {
+        return mJpeg;
+    }
+
+    /**
+     * The Orientation value for an image that has to be rotated clockwise by
+     * {@code rotation} degrees and then mirrored horizontally to be displayed upright.
+     */
+    public static int forRotation(int rotation, boolean mirror) {
+        RotationKernel.checkRotation(rotation);
+        switch (rotation) {
+            case 90:
+                return mirror ? ORIENTATION_TRANSPOSE : ORIENTATION_ROTATE_90;
+            case 180:
+                return mirror ? ORIENTATION_FLIP_VERTICAL : ORIENTATION_ROTATE_180;
+            case 270:
+                return mirror ? ORIENTATION_TRANSVERSE : ORIENTATION_ROTATE_270;
+            default:
+                return mirror ? ORIENTATION_FLIP_HORIZONTAL : ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * Reads the Orientation tag, or {@link #ORIENTATION_UNDEFINED} when there is none.
+     */
+    public static int read(byte[] jpeg) {
+        ExifSegment segment = ExifSegment.find(jpeg);
+        if (segment == null || segment.orientationEntry < 0) {
+            return ORIENTATION_UNDEFINED;
+        }
+        return segment.readShort(jpeg, segment.orientationEntry + 8);
+    }
+
+    private static byte[] insertSegment(byte[] jpeg, int orientation) {
+        // Exif APP1 with a big endian TIFF header and an IFD0 holding only the Orientation entry.
+        int tiffLength = 8 + 2 + IFD_ENTRY_SIZE + 4;
+        int segmentLength = 2 + EXIF_HEADER.length + tiffLength;
+        byte[] segment = new byte[2 + segmentLength];
+        int p = 0;
+        segment[p++] = (byte) 0xFF;
+        segment[p++] = (byte) MARKER_APP1;
+        segment[p++] = (byte) (segmentLength >> 8);
+        segment[p++] = (byte) segmentLength;
+        System.arraycopy(EXIF_HEADER, 0, segment, p, EXIF_HEADER.length);
+        p += EXIF_HEADER.length;
+        segment[p++] = 'M';
+        segment[p++] = 'M';
+        segment[p++] = 0;
+        segment[p++] = 42;
+        segment[p + 3] = 8;
+        p += 4;
+        segment[p + 1] = 1;
+        p += 2;
+        segment[p] = (byte) (TAG_ORIENTATION >> 8);
+        segment[p + 1] = (byte) TAG_ORIENTATION;
+        segment[p + 3] = TYPE_SHORT;
+        segment[p + 7] = 1;
+        segment[p + 9] = (byte) orientation;
+
+        int insertAt = ExifSegment.insertionPoint(jpeg);
+        byte[] output = new byte[jpeg.length + segment.length];
+        System.arraycopy(jpeg, 0, output, 0, insertAt);
+        System.arraycopy(segment, 0, output, insertAt, segment.length);
+        System.arraycopy(jpeg, insertAt, output, insertAt + segment.length, jpeg.length - insertAt);
+        return output;
+    }
+
+    private static byte[] appendIfd(byte[] jpeg, ExifSegment segment, int orientation) {
+        int count = segment.entryCount;
+        int padding = (segment.end - segment.tiffStart) % 2;
+        int ifdSize = 2 + (count + 1) * IFD_ENTRY_SIZE + 4;
+        int segmentLength = segment.end - segment.start + padding + ifdSize;
+        if (segmentLength > MAX_SEGMENT_LENGTH) {
+            // No room for a second IFD0; replace the segment with a minimal one instead.
+            byte[] stripped = new byte[jpeg.length - (segment.end - segment.start + 2)];
+            System.arraycopy(jpeg, 0, stripped, 0, segment.start - 2);
+            System.arraycopy(jpeg, segment.end, stripped, segment.start - 2, jpeg.length - segment.end);
+            return insertSegment(stripped, orientation);
+        }
+
+        byte[] output = new byte[jpeg.length + padding + ifdSize];
+        System.arraycopy(jpeg, 0, output, 0, segment.end);
+        System.arraycopy(jpeg, segment.end, output, segment.end + padding + ifdSize, jpeg.length - segment.end);
+        output[segment.start] = (byte) (segmentLength >> 8);
+        output[segment.start + 1] = (byte) segmentLength;
+
+        // Entries must stay sorted by tag, so the new one goes before the first larger tag.
+        int ifd = segment.end + padding;
+        int oldEntries = segment.ifdOffset + 2;
+        int insertIndex = 0;
+        while (insertIndex < count
+                && segment.readShort(jpeg, oldEntries + insertIndex * IFD_ENTRY_SIZE) < TAG_ORIENTATION) {
+            insertIndex++;
+        }
+        segment.writeShort(output, ifd, count + 1);
+        System.arraycopy(jpeg, oldEntries, output, ifd + 2, insertIndex * IFD_ENTRY_SIZE);
+        int newEntry = ifd + 2 + insertIndex * IFD_ENTRY_SIZE;
+        segment.writeEntry(output, newEntry, orientation);
+        System.arraycopy(jpeg, oldEntries + insertIndex * IFD_ENTRY_SIZE,
+                output, newEntry + IFD_ENTRY_SIZE, (count - insertIndex) * IFD_ENTRY_SIZE + 4);
+
+        segment.writeInt(output, segment.tiffStart + 4, ifd - segment.tiffStart);
+        return output;
+    }
+
+    private static class ExifSegment {
+
+        // Offset of the segment length field and of the first byte after the segment.
+        int start;
+        int end;
+        int tiffStart;
+        boolean bigEndian;
+        int ifdOffset;
+        int entryCount;
+        int orientationEntry = -1;
+
+        static ExifSegment find(byte[] jpeg) {
+            checkSoi(jpeg);
+            int p = 2;
+            while (p + 4 <= jpeg.length) {
+                if ((jpeg[p] & 0xff) != 0xFF) {
+                    throw new IllegalArgumentException("Malformed JPEG segment at " + p);
+                }
+                int marker = jpeg[p + 1] & 0xff;
+                if (marker == 0xFF) {
+                    p++;
+                    continue;
+                }
+                if (marker == MARKER_SOS || marker == MARKER_EOI) {
+                    return null;
+                }
+
+                int length = ((jpeg[p + 2] & 0xff) << 8) | (jpeg[p + 3] & 0xff);
+                int end = p + 2 + length;
+                if (length < 2 || end > jpeg.length) {
+                    throw new IllegalArgumentException("Truncated JPEG segment at " + p);
+                }
+                if (marker == MARKER_APP1 && isExif(jpeg, p + 4, end)) {
+                    ExifSegment segment = new ExifSegment();
+                    segment.start = p + 2;
+                    segment.end = end;
+                    segment.tiffStart = p + 4 + EXIF_HEADER.length;
+                    segment.parse(jpeg);
+                    return segment;
+                }
+                p = end;
+            }
+            return null;
+        }
+
+        static int insertionPoint(byte[] jpeg) {
+            checkSoi(jpeg);
+            int p = 2;
+            while (p + 4 <= jpeg.length && (jpeg[p] & 0xff) == 0xFF && (jpeg[p + 1] & 0xff) == MARKER_APP0) {
+                p += 2 + (((jpeg[p + 2] & 0xff) << 8) | (jpeg[p + 3] & 0xff));
+            }
+            return Math.min(p, jpeg.length);
+        }
+
+        private static void checkSoi(byte[] jpeg) {
+            if (jpeg.length < 4 || (jpeg[0] & 0xff) != 0xFF || (jpeg[1] & 0xff) != MARKER_SOI) {
+                throw new IllegalArgumentException("Not a JPEG");
+            }
+        }
+
+        private static boolean isExif(byte[] jpeg, int offset, int end) {
+            if (end - offset < EXIF_HEADER.length + 8) {
+                return false;
+            }
+            for (int i = 0; i < EXIF_HEADER.length; i++) {
+                if (jpeg[offset + i] != EXIF_HEADER[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void parse(byte[] jpeg) {
+            int order = ((jpeg[tiffStart] & 0xff) << 8) | (jpeg[tiffStart + 1] & 0xff);
+            if (order != 0x4D4D && order != 0x4949) {
+                throw new IllegalArgumentException("Malformed TIFF header");
+            }
+            bigEndian = order == 0x4D4D;
+
+            ifdOffset = tiffStart + readInt(jpeg, tiffStart + 4);
+            if (ifdOffset < tiffStart + 8 || ifdOffset + 2 > end) {
+                throw new IllegalArgumentException("Malformed IFD0 offset");
+            }
+            entryCount = readShort(jpeg, ifdOffset);
+            if (ifdOffset + 2 + entryCount * IFD_ENTRY_SIZE + 4 > end) {
+                throw new IllegalArgumentException("Truncated IFD0");
+            }
+            for (int i = 0; i < entryCount; i++) {
+                int entry = ifdOffset + 2 + i * IFD_ENTRY_SIZE;
+                if (readShort(jpeg, entry) == TAG_ORIENTATION) {
+                    orientationEntry = entry;
+                    break;
+                }
+            }
+        }
+
+        void writeEntry(byte[] jpeg, int entry, int orientation) {
+            writeShort(jpeg, entry, TAG_ORIENTATION);
+            writeShort(jpeg, entry + 2, TYPE_SHORT);
+            writeInt(jpeg, entry + 4, 1);
+            // A SHORT value is left aligned within the 4 byte value field.
+            writeInt(jpeg, entry + 8, 0);
+            writeShort(jpeg, entry + 8, orientation);
+        }
+
+        int readShort(byte[] jpeg, int offset) {
+            int a = jpeg[offset] & 0xff;
+            int b = jpeg[offset + 1] & 0xff;
+            return bigEndian ? (a << 8) | b : (b << 8) | a;
+        }
+
+        int readInt(byte[] jpeg, int offset) {
+            int a = readShort(jpeg, offset);
+            int b = readShort(jpeg, offset + 2);
+            return bigEndian ? (a << 16) | b : (b << 16) | a;
+        }
+
+        void writeShort(byte[] jpeg, int offset, int value) {
+            jpeg[offset + (bigEndian ? 0 : 1)] = (byte) (value >> 8);
+            jpeg[offset + (bigEndian ? 1 : 0)] = (byte) value;
+        }
+
+        void writeInt(byte[] jpeg, int offset, int value) {
+            writeShort(jpeg, offset + (bigEndian ? 0 : 2), value >>> 16);
+            writeShort(jpeg, offset + (bigEndian ? 2 : 0), value & 0xFFFF);
+        }
+
+    }
+
+}
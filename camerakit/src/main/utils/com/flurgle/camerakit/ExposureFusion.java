@@ -0,0 +1,378 @@
+package com.flurgle.camerakit;
+
+/**
+ * Exposure fusion: blends differently exposed frames of one scene, taking every region from
+ * the frames where it is well exposed, has contrast and has colour. The blend happens per
+ * level of a Laplacian pyramid, with the weights smoothed by a Gaussian pyramid, so the seams
+ * between frames are as wide as the detail they cross and do not show.
+ *
+ * Works on plain {@code byte[]} frames in any {@link YuvLayout}, with the rows of every pyramid
+ * level spread over {@link StripeExecutor}; the result is NV21. The time spent in each stage of
+ * the last {@link #fuse} is kept for {@link CaptureMetadata}.
+ */
+final class ExposureFusion {
+
+    // The coarsest level is the first one smaller than this, so a few pixels span the frame.
+    private static final int MIN_LEVEL_SIZE = 16;
+
+    // Spread of the well-exposedness curve around mid grey, on a 0..1 scale.
+    private static final float EXPOSEDNESS_SIGMA = 0.2f;
+    // Keeps flat, grey regions from having no weight in every frame.
+    private static final float EPSILON = 1e-3f;
+
+    private static final float[] EXPOSEDNESS = new float[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            float d = i / 255f - 0.5f;
+            EXPOSEDNESS[i] = (float) Math.exp(-d * d / (2 * EXPOSEDNESS_SIGMA * EXPOSEDNESS_SIGMA));
+        }
+    }
+
+    private final StripeExecutor mExecutor;
+
+    private long mWeightNanos;
+    private long mPyramidNanos;
+    private long mCollapseNanos;
+
+    ExposureFusion(StripeExecutor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Fuses {@code frames}, all laid out as {@code layout}, into {@code output}, NV21 of the
+     * same size.
+     */
+    void fuse(byte[][] frames, YuvLayout layout, byte[] output) {
+        int width = layout.getWidth();
+        int height = layout.getHeight();
+        int levels = getLevelCount(width, height);
+        // Chroma level l matches luma level l + 1 in size, so it reuses those weights.
+        int chromaLevels = levels - 1;
+
+        mWeightNanos = 0;
+        mPyramidNanos = 0;
+        Level[] luma = Level.pyramid(width, height, levels);
+        Level[] weightSums = Level.pyramid(width, height, levels);
+        Level[] u = Level.pyramid(width / 2, height / 2, chromaLevels);
+        Level[] v = Level.pyramid(width / 2, height / 2, chromaLevels);
+        for (byte[] frame : frames) {
+            long start = System.nanoTime();
+            Level weight = getWeights(frame, layout);
+            long weighted = System.nanoTime();
+
+            Level[] weights = gaussian(weight, levels);
+            accumulate(luma, weights, 0, laplacian(getLuma(frame, layout), levels));
+            accumulate(u, weights, 1, laplacian(getChroma(frame, layout, layout.getUOffset()), chromaLevels));
+            accumulate(v, weights, 1, laplacian(getChroma(frame, layout, layout.getVOffset()), chromaLevels));
+            add(weightSums, weights);
+
+            mWeightNanos += weighted - start;
+            mPyramidNanos += System.nanoTime() - weighted;
+        }
+
+        long start = System.nanoTime();
+        normalize(luma, weightSums, 0);
+        normalize(u, weightSums, 1);
+        normalize(v, weightSums, 1);
+        Level fusedLuma = collapse(luma);
+        Level fusedU = collapse(u);
+        Level fusedV = collapse(v);
+        write(fusedLuma, fusedU, fusedV, output);
+        mCollapseNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Time spent on the per-pixel weights in the last {@link #fuse}.
+     */
+    long getWeightNanos() {
+        return mWeightNanos;
+    }
+
+    /**
+     * Time spent building and blending the pyramids in the last {@link #fuse}.
+     */
+    long getPyramidNanos() {
+        return mPyramidNanos;
+    }
+
+    /**
+     * Time spent collapsing the blended pyramids into the output in the last {@link #fuse}.
+     */
+    long getCollapseNanos() {
+        return mCollapseNanos;
+    }
+
+    // Contrast, saturation and well-exposedness, multiplied.
+    private Level getWeights(final byte[] data, final YuvLayout layout) {
+        final int width = layout.getWidth();
+        final int height = layout.getHeight();
+        final int stride = layout.getYRowStride();
+        final int uOffset = layout.getUOffset();
+        final int vOffset = layout.getVOffset();
+        final int uvRowStride = layout.getUvRowStride();
+        final int uvPixelStride = layout.getUvPixelStride();
+        final Level weights = new Level(width, height);
+        mExecutor.execute(height, 1, new StripeExecutor.Task() {
+            @Override
+            public void run(int start, int end) {
+                for (int y = start; y < end; y++) {
+                    int row = y * stride;
+                    int above = Math.max(0, y - 1) * stride;
+                    int below = Math.min(height - 1, y + 1) * stride;
+                    int chromaRow = (y / 2) * uvRowStride;
+                    for (int x = 0; x < width; x++) {
+                        int luma = data[row + x] & 0xFF;
+                        int laplacian = 4 * luma
+                                - (data[row + Math.max(0, x - 1)] & 0xFF)
+                                - (data[row + Math.min(width - 1, x + 1)] & 0xFF)
+                                - (data[above + x] & 0xFF) - (data[below + x] & 0xFF);
+                        int c = chromaRow + (x / 2) * uvPixelStride;
+                        int saturation = Math.abs((data[uOffset + c] & 0xFF) - 128)
+                                + Math.abs((data[vOffset + c] & 0xFF) - 128);
+                        weights.data[y * width + x] = (Math.abs(laplacian) / 255f + EPSILON)
+                                * (saturation / 255f + EPSILON) * EXPOSEDNESS[luma];
+                    }
+                }
+            }
+        });
+        return weights;
+    }
+
+    private Level getLuma(final byte[] data, YuvLayout layout) {
+        final int width = layout.getWidth();
+        final int stride = layout.getYRowStride();
+        final Level luma = new Level(width, layout.getHeight());
+        mExecutor.execute(luma.height, 1, new StripeExecutor.Task() {
+            @Override
+            public void run(int start, int end) {
+                for (int y = start; y < end; y++) {
+                    for (int x = 0, i = y * stride, o = y * width; x < width; x++, i++, o++) {
+                        luma.data[o] = data[i] & 0xFF;
+                    }
+                }
+            }
+        });
+        return luma;
+    }
+
+    // Centred on zero, so the blend does not pull colours towards grey.
+    private Level getChroma(final byte[] data, YuvLayout layout, final int offset) {
+        final int width = layout.getWidth() / 2;
+        final int rowStride = layout.getUvRowStride();
+        final int pixelStride = layout.getUvPixelStride();
+        final Level chroma = new Level(width, layout.getHeight() / 2);
+        mExecutor.execute(chroma.height, 1, new StripeExecutor.Task() {
+            @Override
+            public void run(int start, int end) {
+                for (int y = start; y < end; y++) {
+                    for (int x = 0, i = offset + y * rowStride, o = y * width; x < width; x++, i += pixelStride, o++) {
+                        chroma.data[o] = (data[i] & 0xFF) - 128;
+                    }
+                }
+            }
+        });
+        return chroma;
+    }
+
+    private Level[] gaussian(Level base, int levels) {
+        Level[] pyramid = new Level[levels];
+        pyramid[0] = base;
+        for (int l = 1; l < levels; l++) {
+            pyramid[l] = reduce(pyramid[l - 1]);
+        }
+        return pyramid;
+    }
+
+    // Each level keeps the detail lost by the next one; the last keeps what is left.
+    private Level[] laplacian(Level base, int levels) {
+        Level[] pyramid = gaussian(base, levels);
+        for (int l = 0; l < levels - 1; l++) {
+            expand(pyramid[l + 1], pyramid[l], -1);
+        }
+        return pyramid;
+    }
+
+    private Level collapse(Level[] pyramid) {
+        for (int l = pyramid.length - 2; l >= 0; l--) {
+            expand(pyramid[l + 1], pyramid[l], 1);
+        }
+        return pyramid[0];
+    }
+
+    private void accumulate(final Level[] sums, final Level[] weights, final int weightLevel, final Level[] pyramid) {
+        for (int l = 0; l < sums.length; l++) {
+            final float[] sum = sums[l].data;
+            final float[] weight = weights[l + weightLevel].data;
+            final float[] values = pyramid[l].data;
+            final int width = sums[l].width;
+            mExecutor.execute(sums[l].height, 1, new StripeExecutor.Task() {
+                @Override
+                public void run(int start, int end) {
+                    for (int i = start * width; i < end * width; i++) {
+                        sum[i] += weight[i] * values[i];
+                    }
+                }
+            });
+        }
+    }
+
+    private void add(Level[] sums, Level[] pyramid) {
+        for (int l = 0; l < sums.length; l++) {
+            float[] sum = sums[l].data;
+            float[] values = pyramid[l].data;
+            for (int i = 0; i < sum.length; i++) {
+                sum[i] += values[i];
+            }
+        }
+    }
+
+    private void normalize(final Level[] sums, final Level[] weightSums, final int weightLevel) {
+        for (int l = 0; l < sums.length; l++) {
+            final float[] sum = sums[l].data;
+            final float[] weight = weightSums[l + weightLevel].data;
+            final int width = sums[l].width;
+            mExecutor.execute(sums[l].height, 1, new StripeExecutor.Task() {
+                @Override
+                public void run(int start, int end) {
+                    for (int i = start * width; i < end * width; i++) {
+                        sum[i] = weight[i] > 0 ? sum[i] / weight[i] : 0;
+                    }
+                }
+            });
+        }
+    }
+
+    // Blurs with the binomial kernel 1 4 6 4 1 and keeps every other row and column.
+    private Level reduce(final Level source) {
+        final Level reduced = new Level((source.width + 1) / 2, (source.height + 1) / 2);
+        final int width = source.width;
+        final int height = source.height;
+        final float[] s = source.data;
+        mExecutor.execute(reduced.height, 1, new StripeExecutor.Task() {
+            @Override
+            public void run(int start, int end) {
+                float[] row = new float[width];
+                for (int y = start; y < end; y++) {
+                    int r0 = clamp(2 * y - 2, height - 1) * width;
+                    int r1 = clamp(2 * y - 1, height - 1) * width;
+                    int r2 = clamp(2 * y, height - 1) * width;
+                    int r3 = clamp(2 * y + 1, height - 1) * width;
+                    int r4 = clamp(2 * y + 2, height - 1) * width;
+                    for (int x = 0; x < width; x++) {
+                        row[x] = s[r0 + x] + 4 * s[r1 + x] + 6 * s[r2 + x] + 4 * s[r3 + x] + s[r4 + x];
+                    }
+                    int o = y * reduced.width;
+                    for (int x = 0; x < reduced.width; x++, o++) {
+                        int c = 2 * x;
+                        reduced.data[o] = (row[clamp(c - 2, width - 1)] + 4 * row[clamp(c - 1, width - 1)]
+                                + 6 * row[c] + 4 * row[clamp(c + 1, width - 1)]
+                                + row[clamp(c + 2, width - 1)]) / 256f;
+                    }
+                }
+            }
+        });
+        return reduced;
+    }
+
+    /**
+     * Upsamples {@code source} to the size of {@code target} with the kernel of
+     * {@link #reduce} and adds it, times {@code scale}.
+     */
+    private void expand(final Level source, final Level target, final float scale) {
+        final int sourceWidth = source.width;
+        final int sourceHeight = source.height;
+        final float[] s = source.data;
+        mExecutor.execute(target.height, 1, new StripeExecutor.Task() {
+            @Override
+            public void run(int start, int end) {
+                float[] row = new float[sourceWidth];
+                for (int y = start; y < end; y++) {
+                    int k = y / 2;
+                    int r1 = k * sourceWidth;
+                    int r2 = Math.min(k + 1, sourceHeight - 1) * sourceWidth;
+                    if (y % 2 == 0) {
+                        int r0 = Math.max(k - 1, 0) * sourceWidth;
+                        for (int x = 0; x < sourceWidth; x++) {
+                            row[x] = (s[r0 + x] + 6 * s[r1 + x] + s[r2 + x]) / 8;
+                        }
+                    } else {
+                        for (int x = 0; x < sourceWidth; x++) {
+                            row[x] = (s[r1 + x] + s[r2 + x]) / 2;
+                        }
+                    }
+                    int o = y * target.width;
+                    for (int x = 0; x < target.width; x++, o++) {
+                        int c = x / 2;
+                        float value = x % 2 == 0
+                                ? (row[Math.max(c - 1, 0)] + 6 * row[c] + row[Math.min(c + 1, sourceWidth - 1)]) / 8
+                                : (row[c] + row[Math.min(c + 1, sourceWidth - 1)]) / 2;
+                        target.data[o] += scale * value;
+                    }
+                }
+            }
+        });
+    }
+
+    private void write(final Level luma, final Level u, final Level v, final byte[] output) {
+        final int frameSize = luma.width * luma.height;
+        mExecutor.execute(luma.height, 1, new StripeExecutor.Task() {
+            @Override
+            public void run(int start, int end) {
+                for (int i = start * luma.width; i < end * luma.width; i++) {
+                    output[i] = (byte) clamp(Math.round(luma.data[i]), 255);
+                }
+            }
+        });
+        mExecutor.execute(u.height, 1, new StripeExecutor.Task() {
+            @Override
+            public void run(int start, int end) {
+                for (int i = start * u.width; i < end * u.width; i++) {
+                    output[frameSize + 2 * i] = (byte) clamp(Math.round(v.data[i]) + 128, 255);
+                    output[frameSize + 2 * i + 1] = (byte) clamp(Math.round(u.data[i]) + 128, 255);
+                }
+            }
+        });
+    }
+
+    // At least two, as chroma levels use the weights one level down.
+    private static int getLevelCount(int width, int height) {
+        int levels = 1;
+        while (Math.min(width, height) >= 2 * MIN_LEVEL_SIZE) {
+            width = (width + 1) / 2;
+            height = (height + 1) / 2;
+            levels++;
+        }
+        return Math.max(2, levels);
+    }
+
+    private static int clamp(int value, int max) {
+        return value < 0 ? 0 : value > max ? max : value;
+    }
+
+    private static final class Level {
+
+        final float[] data;
+        final int width;
+        final int height;
+
+        Level(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.data = new float[width * height];
+        }
+
+        // Zeroed levels, each half the size of the one before.
+        static Level[] pyramid(int width, int height, int levels) {
+            Level[] pyramid = new Level[levels];
+            for (int l = 0; l < levels; l++) {
+                pyramid[l] = new Level(width, height);
+                width = (width + 1) / 2;
+                height = (height + 1) / 2;
+            }
+            return pyramid;
+        }
+
+    }
+
+}
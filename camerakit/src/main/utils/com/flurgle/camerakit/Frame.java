@@ -0,0 +1,85 @@
+package com.flurgle.camerakit;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A preview frame in a camera owned buffer. The buffer goes back to the camera once every
+ * holder has released it, so a consumer that keeps a frame past the callback it received it
+ * in must {@link #retain()} it and {@link #release()} it when done. The data must not be
+ * read after the last release: the same buffer is filled again by a later frame.
+ */
+public class Frame {
+
+    interface Recycler {
+        void recycle(Frame frame);
+    }
+
+    private final byte[] mData;
+    private final YuvLayout mLayout;
+    private final int mFormat;
+    private final Recycler mRecycler;
+    private final AtomicInteger mReferences = new AtomicInteger();
+    private long mTimestamp;
+
+    Frame(byte[] data, YuvLayout layout, int format, Recycler recycler) {
+        mData = data;
+        mLayout = layout;
+        mFormat = format;
+        mRecycler = recycler;
+    }
+
+    // Hands the frame out again with a single reference, owned by the dispatcher.
+    void reset(long timestamp) {
+        mTimestamp = timestamp;
+        mReferences.set(1);
+    }
+
+    public byte[] getData() {
+        return mData;
+    }
+
+    public YuvLayout getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * Returns the {@code android.graphics.ImageFormat} of the data.
+     */
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public int getWidth() {
+        return mLayout.getWidth();
+    }
+
+    public int getHeight() {
+        return mLayout.getHeight();
+    }
+
+    /**
+     * Returns the {@link System#nanoTime()} at which the frame was delivered.
+     */
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    public Frame retain() {
+        if (mReferences.getAndIncrement() <= 0) {
+            mReferences.getAndDecrement();
+            throw new IllegalStateException("Frame already released");
+        }
+        return this;
+    }
+
+    public void release() {
+        int references = mReferences.decrementAndGet();
+        if (references == 0) {
+            mRecycler.recycle(this);
+        } else if (references < 0) {
+            mReferences.incrementAndGet();
+            throw new IllegalStateException("Frame released more often than retained");
+        }
+    }
+
+}
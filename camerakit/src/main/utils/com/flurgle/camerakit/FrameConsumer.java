@@ -0,0 +1,11 @@
+package com.flurgle.camerakit;
+
+interface FrameConsumer {
+
+    /**
+     * Called on the camera thread. The frame is only valid during the call unless it is
+     * {@link Frame#retain() retained}.
+     */
+    void onFrame(Frame frame);
+
+}
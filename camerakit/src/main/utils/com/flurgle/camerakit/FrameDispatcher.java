@@ -0,0 +1,170 @@
+package com.flurgle.camerakit;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static com.flurgle.camerakit.CameraKit.Constants.FRAME_BACKPRESSURE_BLOCK;
+import static com.flurgle.camerakit.CameraKit.Constants.FRAME_BACKPRESSURE_DROP_NEWEST;
+
+/**
+ * Hands preview frames from the camera thread to one {@link FrameProcessor} on its own
+ * worker thread. The camera thread never waits: frames arriving faster than {@code maxFps}
+ * are skipped, and while the processor is busy at most one frame waits, replacing or
+ * replaced by the next one. With {@code FRAME_BACKPRESSURE_BLOCK} every frame is kept
+ * instead; the waiting frames hold their preview buffers, so the camera runs out and skips
+ * frames until the processor catches up.
+ */
+final class FrameDispatcher implements FrameConsumer {
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final FrameProcessor mProcessor;
+    private final ExecutorService mExecutor;
+    private final ArrayDeque<Frame> mPending = new ArrayDeque<>();
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    @FrameBackpressure
+    private int mBackpressure;
+    private long mMinIntervalNanos;
+    private long mLastTimestamp;
+    private boolean mDraining;
+    private boolean mClosed;
+    private long mDropped;
+
+    FrameDispatcher(FrameProcessor processor, @FrameBackpressure int backpressure, float maxFps) {
+        mProcessor = processor;
+        mBackpressure = backpressure;
+        setMaxFps(maxFps);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, "CameraKit-Frames");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+    }
+
+    FrameProcessor getProcessor() {
+        return mProcessor;
+    }
+
+    synchronized void setBackpressure(@FrameBackpressure int backpressure) {
+        mBackpressure = backpressure;
+    }
+
+    /**
+     * Sets the highest rate at which frames are handed to the processor; 0 for every frame.
+     */
+    synchronized void setMaxFps(float maxFps) {
+        mMinIntervalNanos = maxFps > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / maxFps) : 0;
+    }
+
+    synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    @Override
+    public void onFrame(Frame frame) {
+        Frame dropped = null;
+        boolean schedule;
+        synchronized (this) {
+            if (mClosed) {
+                return;
+            }
+            if (mMinIntervalNanos > 0 && mLastTimestamp != 0
+                    && frame.getTimestamp() - mLastTimestamp < mMinIntervalNanos) {
+                return;
+            }
+            if (mBackpressure != FRAME_BACKPRESSURE_BLOCK && !mPending.isEmpty()) {
+                mDropped++;
+                if (mBackpressure == FRAME_BACKPRESSURE_DROP_NEWEST) {
+                    return;
+                }
+                dropped = mPending.pollFirst();
+            }
+            mPending.addLast(frame.retain());
+            mLastTimestamp = frame.getTimestamp();
+            schedule = !mDraining;
+            mDraining = true;
+        }
+        if (dropped != null) {
+            dropped.release();
+        }
+        if (schedule) {
+            try {
+                mExecutor.execute(mDrain);
+            } catch (RejectedExecutionException e) {
+                // Closed in the meantime.
+                releasePending();
+            }
+        }
+    }
+
+    /**
+     * Stops delivery and releases the waiting frames; a frame being processed finishes.
+     */
+    void close() {
+        synchronized (this) {
+            mClosed = true;
+        }
+        releasePending();
+        mExecutor.shutdown();
+    }
+
+    private void releasePending() {
+        ArrayDeque<Frame> pending;
+        synchronized (this) {
+            pending = new ArrayDeque<>(mPending);
+            mPending.clear();
+        }
+        for (Frame frame : pending) {
+            frame.release();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Frame frame;
+            synchronized (this) {
+                frame = mPending.pollFirst();
+                if (frame == null) {
+                    mDraining = false;
+                    return;
+                }
+            }
+            try {
+                mProcessor.process(frame);
+            } catch (RuntimeException e) {
+                Log.e("CameraKit", "Frame processor failed: " + e);
+            } finally {
+                frame.release();
+            }
+        }
+    }
+
+}
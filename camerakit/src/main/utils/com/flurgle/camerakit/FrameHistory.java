@@ -0,0 +1,98 @@
+package com.flurgle.camerakit;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the most recent preview frames for zero shutter lag capture. The frames stay in
+ * their preview buffers, retained, so the history costs no copies; the buffer ring has to be
+ * large enough to hold them on top of the buffers the camera needs to keep streaming.
+ */
+final class FrameHistory implements FrameConsumer {
+
+    private final ArrayDeque<Frame> mFrames = new ArrayDeque<>();
+    private int mCapacity;
+
+    FrameHistory(int capacity) {
+        mCapacity = Math.max(0, capacity);
+    }
+
+    void setCapacity(int capacity) {
+        List<Frame> evicted;
+        synchronized (this) {
+            mCapacity = Math.max(0, capacity);
+            evicted = evict();
+        }
+        release(evicted);
+    }
+
+    synchronized int getCapacity() {
+        return mCapacity;
+    }
+
+    @Override
+    public void onFrame(Frame frame) {
+        List<Frame> evicted;
+        synchronized (this) {
+            if (mCapacity == 0) {
+                return;
+            }
+            mFrames.addLast(frame.retain());
+            evicted = evict();
+        }
+        release(evicted);
+    }
+
+    /**
+     * Returns the kept frame delivered closest to {@code timestamp}, retained for the caller,
+     * or {@code null} when the history is empty.
+     */
+    synchronized Frame takeNearest(long timestamp) {
+        Frame nearest = null;
+        long nearestDelta = Long.MAX_VALUE;
+        for (Frame frame : mFrames) {
+            long delta = Math.abs(frame.getTimestamp() - timestamp);
+            if (delta < nearestDelta) {
+                nearest = frame;
+                nearestDelta = delta;
+            }
+        }
+        return nearest != null ? nearest.retain() : null;
+    }
+
+    /**
+     * Returns every kept frame, oldest first, each retained for the caller.
+     */
+    synchronized List<Frame> takeAll() {
+        List<Frame> frames = new ArrayList<>(mFrames.size());
+        for (Frame frame : mFrames) {
+            frames.add(frame.retain());
+        }
+        return frames;
+    }
+
+    void clear() {
+        List<Frame> frames;
+        synchronized (this) {
+            frames = new ArrayList<>(mFrames);
+            mFrames.clear();
+        }
+        release(frames);
+    }
+
+    private List<Frame> evict() {
+        List<Frame> evicted = new ArrayList<>();
+        while (mFrames.size() > mCapacity) {
+            evicted.add(mFrames.pollFirst());
+        }
+        return evicted;
+    }
+
+    private static void release(List<Frame> frames) {
+        for (Frame frame : frames) {
+            frame.release();
+        }
+    }
+
+}
@@ -0,0 +1,461 @@
+package com.flurgle.camerakit;
+
+import java.util.Arrays;
+
+/**
+ * Multi-frame denoise. Every frame is aligned to a reference tile by tile, with a coarse to
+ * fine block matching search over a luma pyramid, and the planes are then averaged over time
+ * with one weight per tile and frame. A tile that still differs from the reference after
+ * alignment, because something moved, gets a low weight and falls back to the reference, so
+ * noise is removed without ghosting. Merge tiles overlap by half and are blended with a raised
+ * cosine window, so no tile edges show.
+ *
+ * Works on plain {@code byte[]} frames in any {@link YuvLayout}, parallel over tile rows on
+ * {@link StripeExecutor}; the result is NV21.
+ */
+final class FrameMerger {
+
+    static final int TILE_SIZE = 16;
+
+    private static final int HALF_TILE = TILE_SIZE / 2;
+    private static final int MAX_LEVELS = 4;
+    private static final int COARSE_RADIUS = 4;
+    private static final int FINE_RADIUS = 1;
+
+    // A frame's noise level is the median distance of its tiles to the reference. Tiles within
+    // NOISE_LOW times that level are merged fully, tiles beyond NOISE_HIGH times not at all.
+    private static final float NOISE_LOW = 1.5f;
+    private static final float NOISE_HIGH = 3f;
+    private static final float MIN_NOISE = 1f;
+    private static final float MAX_NOISE = 12f;
+
+    private static final float[] LUMA_WINDOW = window(TILE_SIZE);
+    private static final float[] CHROMA_WINDOW = window(HALF_TILE);
+
+    private final StripeExecutor mExecutor;
+
+    FrameMerger(StripeExecutor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Merges {@code frames}, all laid out as {@code layout}, into {@code output}, NV21 of the
+     * same size. The others are aligned to {@code frames[reference]}, which wins wherever they
+     * disagree.
+     */
+    void merge(final byte[][] frames, final YuvLayout layout, final int reference, byte[] output) {
+        final int width = layout.getWidth();
+        final int height = layout.getHeight();
+        int levels = getLevelCount(width, height);
+
+        final byte[][][] pyramids = new byte[frames.length][][];
+        byte[][] lumaPlanes = new byte[frames.length][];
+        for (int f = 0; f < frames.length; f++) {
+            pyramids[f] = buildPyramid(frames[f], layout, levels);
+            lumaPlanes[f] = pyramids[f][0];
+        }
+
+        // Merge tiles start half a tile before the frame, so every pixel is covered by
+        // windows that add up to exactly one.
+        final int columns = (width + TILE_SIZE - 1) / HALF_TILE;
+        final int rows = (height + TILE_SIZE - 1) / HALF_TILE;
+        final int[][] offsets = new int[frames.length][];
+        final float[][] weights = new float[frames.length][];
+        for (int f = 0; f < frames.length; f++) {
+            if (f != reference) {
+                int[] alignment = align(pyramids[reference], pyramids[f], width, height, levels);
+                offsets[f] = getTileOffsets(alignment, getAlignLevel(levels), width, height, columns, rows);
+                weights[f] = getTileWeights(lumaPlanes, frames, layout, reference, f, offsets[f], columns, rows);
+            }
+        }
+
+        final float[] luma = new float[width * height];
+        final float[] chroma = new float[width * (height / 2)];
+        // Tiles in rows of the same parity do not overlap, so each pass is free of races.
+        for (int parity = 0; parity < 2; parity++) {
+            final int firstRow = parity;
+            mExecutor.execute((rows - firstRow + 1) / 2, 1, new StripeExecutor.Task() {
+                @Override
+                public void run(int start, int end) {
+                    float[] sums = new float[TILE_SIZE * TILE_SIZE];
+                    for (int i = start; i < end; i++) {
+                        int row = firstRow + 2 * i;
+                        for (int column = 0; column < columns; column++) {
+                            int tile = row * columns + column;
+                            int x0 = column * HALF_TILE - HALF_TILE;
+                            int y0 = row * HALF_TILE - HALF_TILE;
+                            mergeLuma(pyramids, reference, offsets, weights, tile, x0, y0, width, height, sums, luma);
+                            mergeChroma(frames, layout, reference, offsets, weights, tile, x0 / 2, y0 / 2, sums, chroma);
+                        }
+                    }
+                }
+            });
+        }
+
+        for (int i = 0; i < luma.length; i++) {
+            output[i] = (byte) clamp((int) (luma[i] + 0.5f));
+        }
+        // The chroma accumulator is already interleaved V, U like NV21.
+        int frameSize = width * height;
+        for (int i = 0; i < chroma.length; i++) {
+            output[frameSize + i] = (byte) clamp((int) (chroma[i] + 0.5f));
+        }
+    }
+
+    /**
+     * Returns one offset (x, y) per alignment tile of {@code TILE_SIZE} pixels at the align
+     * level, found coarse to fine: a wide search at the coarsest level, then a search of one
+     * pixel around the doubled offset of the parent tile at each finer level.
+     */
+    private int[] align(final byte[][] reference, final byte[][] frame, int width, int height, int levels) {
+        int[] offsets = null;
+        for (int level = levels - 1; level >= getAlignLevel(levels); level--) {
+            final int levelWidth = width >> level;
+            final int levelHeight = height >> level;
+            final int columns = (levelWidth + TILE_SIZE - 1) / TILE_SIZE;
+            final int rows = (levelHeight + TILE_SIZE - 1) / TILE_SIZE;
+            final int parentColumns = (levelWidth / 2 + TILE_SIZE - 1) / TILE_SIZE;
+            final int parentRows = (levelHeight / 2 + TILE_SIZE - 1) / TILE_SIZE;
+            final int radius = offsets == null ? COARSE_RADIUS : FINE_RADIUS;
+            final int[] parents = offsets;
+            final int[] current = new int[columns * rows * 2];
+            final byte[] referenceLevel = reference[level];
+            final byte[] frameLevel = frame[level];
+            mExecutor.execute(rows, 1, new StripeExecutor.Task() {
+                @Override
+                public void run(int start, int end) {
+                    for (int row = start; row < end; row++) {
+                        for (int column = 0; column < columns; column++) {
+                            int startX = 0;
+                            int startY = 0;
+                            if (parents != null) {
+                                int parent = Math.min(row / 2, parentRows - 1) * parentColumns
+                                        + Math.min(column / 2, parentColumns - 1);
+                                startX = parents[parent * 2] * 2;
+                                startY = parents[parent * 2 + 1] * 2;
+                            }
+                            int x0 = column * TILE_SIZE;
+                            int y0 = row * TILE_SIZE;
+                            int x1 = Math.min(x0 + TILE_SIZE, levelWidth);
+                            int y1 = Math.min(y0 + TILE_SIZE, levelHeight);
+                            long best = Long.MAX_VALUE;
+                            int bestX = startX;
+                            int bestY = startY;
+                            for (int dy = startY - radius; dy <= startY + radius; dy++) {
+                                for (int dx = startX - radius; dx <= startX + radius; dx++) {
+                                    long distance = distance(referenceLevel, frameLevel, levelWidth, levelHeight,
+                                            x0, y0, x1, y1, dx, dy, best);
+                                    // Ties go to the smaller motion.
+                                    if (distance < best || (distance == best
+                                            && Math.abs(dx) + Math.abs(dy) < Math.abs(bestX) + Math.abs(bestY))) {
+                                        best = distance;
+                                        bestX = dx;
+                                        bestY = dy;
+                                    }
+                                }
+                            }
+                            int tile = (row * columns + column) * 2;
+                            current[tile] = bestX;
+                            current[tile + 1] = bestY;
+                        }
+                    }
+                }
+            });
+            offsets = current;
+        }
+        return offsets;
+    }
+
+    // Picks for each merge tile the offset of the alignment tile holding its centre.
+    private static int[] getTileOffsets(int[] alignment, int level, int width, int height, int columns, int rows) {
+        int alignColumns = ((width >> level) + TILE_SIZE - 1) / TILE_SIZE;
+        int alignRows = ((height >> level) + TILE_SIZE - 1) / TILE_SIZE;
+        int[] offsets = new int[columns * rows * 2];
+        for (int row = 0; row < rows; row++) {
+            int alignRow = Math.min((row * HALF_TILE >> level) / TILE_SIZE, alignRows - 1);
+            for (int column = 0; column < columns; column++) {
+                int alignColumn = Math.min((column * HALF_TILE >> level) / TILE_SIZE, alignColumns - 1);
+                int from = (alignRow * alignColumns + alignColumn) * 2;
+                int to = (row * columns + column) * 2;
+                offsets[to] = alignment[from] << level;
+                offsets[to + 1] = alignment[from + 1] << level;
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Weighs each merge tile by its distance to the reference, luma and chroma apart: a
+     * small misalignment on a faint luma edge can still show on a strong chroma edge.
+     */
+    private float[] getTileWeights(final byte[][] pyramid, final byte[][] frames, final YuvLayout layout,
+                                   final int reference, final int frame, final int[] offsets,
+                                   final int columns, int rows) {
+        final int width = layout.getWidth();
+        final int height = layout.getHeight();
+        final byte[] referenceLuma = pyramid[reference];
+        final byte[] frameLuma = pyramid[frame];
+        final float[] lumaDistances = new float[columns * rows];
+        final float[] chromaDistances = new float[columns * rows];
+        mExecutor.execute(rows, 1, new StripeExecutor.Task() {
+            @Override
+            public void run(int start, int end) {
+                for (int row = start; row < end; row++) {
+                    int y0 = Math.max(0, row * HALF_TILE - HALF_TILE);
+                    int y1 = Math.min(height, row * HALF_TILE + HALF_TILE);
+                    for (int column = 0; column < columns; column++) {
+                        int tile = row * columns + column;
+                        int x0 = Math.max(0, column * HALF_TILE - HALF_TILE);
+                        int x1 = Math.min(width, column * HALF_TILE + HALF_TILE);
+                        int dx = offsets[tile * 2];
+                        int dy = offsets[tile * 2 + 1];
+                        long luma = distance(referenceLuma, frameLuma, width, height, x0, y0, x1, y1,
+                                dx, dy, Long.MAX_VALUE);
+                        lumaDistances[tile] = (float) luma / ((x1 - x0) * (y1 - y0));
+                        int cx0 = x0 / 2;
+                        int cy0 = y0 / 2;
+                        int cx1 = x1 / 2;
+                        int cy1 = y1 / 2;
+                        long chroma = chromaDistance(frames[reference], frames[frame], layout, cx0, cy0, cx1, cy1,
+                                Math.round(dx / 2f), Math.round(dy / 2f));
+                        chromaDistances[tile] = cx1 > cx0 && cy1 > cy0
+                                ? (float) chroma / (2 * (cx1 - cx0) * (cy1 - cy0)) : 0f;
+                    }
+                }
+            }
+        });
+
+        float[] weights = new float[columns * rows];
+        float lumaNoise = getNoiseLevel(lumaDistances);
+        float chromaNoise = getNoiseLevel(chromaDistances);
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = Math.min(getWeight(lumaDistances[i], lumaNoise), getWeight(chromaDistances[i], chromaNoise));
+        }
+        return weights;
+    }
+
+    private static float getNoiseLevel(float[] distances) {
+        float[] sorted = distances.clone();
+        Arrays.sort(sorted);
+        return Math.max(MIN_NOISE, Math.min(MAX_NOISE, sorted[sorted.length / 2]));
+    }
+
+    private static float getWeight(float distance, float noise) {
+        float low = NOISE_LOW * noise;
+        float high = NOISE_HIGH * noise;
+        return distance <= low ? 1f : distance >= high ? 0f : (high - distance) / (high - low);
+    }
+
+    // The weights are constant over a tile, so each frame is summed in on its own and the
+    // window applied once; sums holds TILE_SIZE * TILE_SIZE values.
+    private static void mergeLuma(byte[][][] pyramids, int reference, int[][] offsets, float[][] weights,
+                                  int tile, int x0, int y0, int width, int height, float[] sums, float[] luma) {
+        int left = Math.max(0, x0);
+        int right = Math.min(width, x0 + TILE_SIZE);
+        int top = Math.max(0, y0);
+        int bottom = Math.min(height, y0 + TILE_SIZE);
+        byte[] referenceLuma = pyramids[reference][0];
+        for (int y = top, s = 0; y < bottom; y++) {
+            for (int i = y * width + left, end = i + right - left; i < end; i++, s++) {
+                sums[s] = referenceLuma[i] & 0xFF;
+            }
+        }
+
+        float weightSum = 1f;
+        for (int f = 0; f < pyramids.length; f++) {
+            float weight = f != reference ? weights[f][tile] : 0f;
+            if (weight <= 0) {
+                continue;
+            }
+            weightSum += weight;
+            byte[] frame = pyramids[f][0];
+            int dx = offsets[f][tile * 2];
+            int dy = offsets[f][tile * 2 + 1];
+            boolean inside = left + dx >= 0 && right + dx <= width && top + dy >= 0 && bottom + dy <= height;
+            for (int y = top, s = 0; y < bottom; y++) {
+                if (inside) {
+                    for (int i = (y + dy) * width + left + dx, end = i + right - left; i < end; i++, s++) {
+                        sums[s] += weight * (frame[i] & 0xFF);
+                    }
+                } else {
+                    int row = clamp(y + dy, height - 1) * width;
+                    for (int x = left; x < right; x++, s++) {
+                        sums[s] += weight * (frame[row + clamp(x + dx, width - 1)] & 0xFF);
+                    }
+                }
+            }
+        }
+
+        for (int y = top, s = 0; y < bottom; y++) {
+            float windowY = LUMA_WINDOW[y - y0] / weightSum;
+            for (int x = left, i = y * width + left; x < right; x++, i++, s++) {
+                luma[i] += windowY * LUMA_WINDOW[x - x0] * sums[s];
+            }
+        }
+    }
+
+    private static void mergeChroma(byte[][] frames, YuvLayout layout, int reference, int[][] offsets,
+                                    float[][] weights, int tile, int x0, int y0, float[] sums, float[] chroma) {
+        int width = layout.getWidth() / 2;
+        int height = layout.getHeight() / 2;
+        int uOffset = layout.getUOffset();
+        int vOffset = layout.getVOffset();
+        int rowStride = layout.getUvRowStride();
+        int pixelStride = layout.getUvPixelStride();
+        int left = Math.max(0, x0);
+        int right = Math.min(width, x0 + HALF_TILE);
+        int top = Math.max(0, y0);
+        int bottom = Math.min(height, y0 + HALF_TILE);
+        byte[] referenceData = frames[reference];
+        for (int y = top, s = 0; y < bottom; y++) {
+            for (int x = left; x < right; x++, s += 2) {
+                int i = y * rowStride + x * pixelStride;
+                sums[s] = referenceData[vOffset + i] & 0xFF;
+                sums[s + 1] = referenceData[uOffset + i] & 0xFF;
+            }
+        }
+
+        float weightSum = 1f;
+        for (int f = 0; f < frames.length; f++) {
+            float weight = f != reference ? weights[f][tile] : 0f;
+            if (weight <= 0) {
+                continue;
+            }
+            weightSum += weight;
+            byte[] data = frames[f];
+            int dx = Math.round(offsets[f][tile * 2] / 2f);
+            int dy = Math.round(offsets[f][tile * 2 + 1] / 2f);
+            for (int y = top, s = 0; y < bottom; y++) {
+                int row = clamp(y + dy, height - 1) * rowStride;
+                for (int x = left; x < right; x++, s += 2) {
+                    int j = row + clamp(x + dx, width - 1) * pixelStride;
+                    sums[s] += weight * (data[vOffset + j] & 0xFF);
+                    sums[s + 1] += weight * (data[uOffset + j] & 0xFF);
+                }
+            }
+        }
+
+        for (int y = top, s = 0; y < bottom; y++) {
+            float windowY = CHROMA_WINDOW[y - y0] / weightSum;
+            for (int x = left, o = y * width * 2 + left * 2; x < right; x++, o += 2, s += 2) {
+                float window = windowY * CHROMA_WINDOW[x - x0];
+                chroma[o] += window * sums[s];
+                chroma[o + 1] += window * sums[s + 1];
+            }
+        }
+    }
+
+    /**
+     * Sum of absolute differences between the reference rectangle and the frame moved by
+     * (dx, dy), clamped to its edges. Stops early once past {@code limit}.
+     */
+    private static long distance(byte[] reference, byte[] frame, int width, int height,
+                                 int x0, int y0, int x1, int y1, int dx, int dy, long limit) {
+        long sum = 0;
+        boolean inside = x0 + dx >= 0 && x1 + dx <= width && y0 + dy >= 0 && y1 + dy <= height;
+        for (int y = y0; y < y1; y++) {
+            int r = y * width;
+            if (inside) {
+                int f = (y + dy) * width + dx;
+                for (int x = x0; x < x1; x++) {
+                    sum += Math.abs((reference[r + x] & 0xFF) - (frame[f + x] & 0xFF));
+                }
+            } else {
+                int f = clamp(y + dy, height - 1) * width;
+                for (int x = x0; x < x1; x++) {
+                    sum += Math.abs((reference[r + x] & 0xFF) - (frame[f + clamp(x + dx, width - 1)] & 0xFF));
+                }
+            }
+            if (sum > limit) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    private static long chromaDistance(byte[] reference, byte[] frame, YuvLayout layout,
+                                       int x0, int y0, int x1, int y1, int dx, int dy) {
+        int width = layout.getWidth() / 2;
+        int height = layout.getHeight() / 2;
+        int uOffset = layout.getUOffset();
+        int vOffset = layout.getVOffset();
+        int rowStride = layout.getUvRowStride();
+        int pixelStride = layout.getUvPixelStride();
+        long sum = 0;
+        for (int y = y0; y < y1; y++) {
+            int r = y * rowStride;
+            int f = clamp(y + dy, height - 1) * rowStride;
+            for (int x = x0; x < x1; x++) {
+                int i = r + x * pixelStride;
+                int j = f + clamp(x + dx, width - 1) * pixelStride;
+                sum += Math.abs((reference[uOffset + i] & 0xFF) - (frame[uOffset + j] & 0xFF))
+                        + Math.abs((reference[vOffset + i] & 0xFF) - (frame[vOffset + j] & 0xFF));
+            }
+        }
+        return sum;
+    }
+
+    // Level 0 is the luma plane without row padding, each further level halves it, 2x2 averaged.
+    private static byte[][] buildPyramid(byte[] data, YuvLayout layout, int levels) {
+        int width = layout.getWidth();
+        int height = layout.getHeight();
+        int stride = layout.getYRowStride();
+        byte[][] pyramid = new byte[levels][];
+        byte[] luma = new byte[width * height];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(data, y * stride, luma, y * width, width);
+        }
+        pyramid[0] = luma;
+        for (int level = 1; level < levels; level++) {
+            byte[] upper = pyramid[level - 1];
+            int upperWidth = width >> (level - 1);
+            int levelWidth = width >> level;
+            int levelHeight = height >> level;
+            byte[] lower = new byte[levelWidth * levelHeight];
+            for (int y = 0; y < levelHeight; y++) {
+                int u = 2 * y * upperWidth;
+                for (int x = 0; x < levelWidth; x++, u += 2) {
+                    int sum = (upper[u] & 0xFF) + (upper[u + 1] & 0xFF)
+                            + (upper[u + upperWidth] & 0xFF) + (upper[u + upperWidth + 1] & 0xFF);
+                    lower[y * levelWidth + x] = (byte) ((sum + 2) >> 2);
+                }
+            }
+            pyramid[level] = lower;
+        }
+        return pyramid;
+    }
+
+    // Stops before a level gets smaller than a couple of tiles.
+    private static int getLevelCount(int width, int height) {
+        int levels = 1;
+        while (levels < MAX_LEVELS && Math.min(width, height) >> levels >= 2 * TILE_SIZE) {
+            levels++;
+        }
+        return levels;
+    }
+
+    // Full resolution only adds noise to the search; half resolution keeps offsets even, so
+    // chroma moves by whole samples too.
+    private static int getAlignLevel(int levels) {
+        return Math.min(1, levels - 1);
+    }
+
+    // Raised cosine: windows shifted by half their size add up to one.
+    private static float[] window(int size) {
+        float[] window = new float[size];
+        for (int i = 0; i < size; i++) {
+            double s = Math.sin(Math.PI * (i + 0.5) / size);
+            window[i] = (float) (s * s);
+        }
+        return window;
+    }
+
+    private static int clamp(int value, int max) {
+        return value < 0 ? 0 : value > max ? max : value;
+    }
+
+    private static int clamp(int value) {
+        return clamp(value, 255);
+    }
+
+}
@@ -0,0 +1,80 @@
+package com.flurgle.camerakit;
+
+import java.util.List;
+
+/**
+ * Scores how sharp a frame is as the variance of the Laplacian of its luma. Hand shake and
+ * missed focus flatten edges and lower the score, so among frames of the same scene the
+ * highest score is the sharpest. The Laplacian is only evaluated on a grid of about
+ * {@link #TARGET_SAMPLES} points, but each point uses its direct neighbours, so the fine
+ * detail that blur removes first is still what is measured.
+ */
+final class FrameSharpness {
+
+    static final int TARGET_SAMPLES = 1 << 16;
+
+    private FrameSharpness() {
+    }
+
+    static double score(final byte[] data, YuvLayout layout, StripeExecutor executor) {
+        int width = layout.getWidth();
+        int height = layout.getHeight();
+        if (width < 3 || height < 3) {
+            return 0;
+        }
+        final int stride = layout.getYRowStride();
+        final int step = Math.max(1, (int) Math.sqrt((double) width * height / TARGET_SAMPLES));
+        final int rows = (height - 3) / step + 1;
+        final int columns = (width - 3) / step + 1;
+
+        final long[] sums = new long[rows];
+        final long[] squares = new long[rows];
+        executor.execute(rows, 1, new StripeExecutor.Task() {
+            @Override
+            public void run(int start, int end) {
+                for (int r = start; r < end; r++) {
+                    int i = (1 + r * step) * stride + 1;
+                    long sum = 0;
+                    long square = 0;
+                    for (int c = 0; c < columns; c++, i += step) {
+                        int laplacian = 4 * (data[i] & 0xFF)
+                                - (data[i - 1] & 0xFF) - (data[i + 1] & 0xFF)
+                                - (data[i - stride] & 0xFF) - (data[i + stride] & 0xFF);
+                        sum += laplacian;
+                        square += laplacian * laplacian;
+                    }
+                    sums[r] = sum;
+                    squares[r] = square;
+                }
+            }
+        });
+
+        long sum = 0;
+        long square = 0;
+        for (int r = 0; r < rows; r++) {
+            sum += sums[r];
+            square += squares[r];
+        }
+        double count = (double) rows * columns;
+        double mean = sum / count;
+        return square / count - mean * mean;
+    }
+
+    /**
+     * Returns the index of the sharpest of {@code frames}.
+     */
+    static int sharpest(List<Frame> frames, StripeExecutor executor) {
+        int best = 0;
+        double bestScore = -1;
+        for (int i = 0; i < frames.size(); i++) {
+            Frame frame = frames.get(i);
+            double score = score(frame.getData(), frame.getLayout(), executor);
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+}
@@ -0,0 +1,132 @@
+package com.flurgle.camerakit;
+
+/**
+ * Reads the entropy coded data of a JPEG scan: removes byte stuffing, stops at markers and
+ * decodes Huffman symbols and their appended bits.
+ */
+final class JpegBitReader {
+
+    private final byte[] mData;
+    private int mPosition;
+
+    // Bits are consumed from the top of mBuffer; mBitCount of them are valid.
+    private long mBuffer;
+    private int mBitCount;
+    private boolean mAtMarker;
+
+    JpegBitReader(byte[] data, int offset) {
+        mData = data;
+        mPosition = offset;
+    }
+
+    int decode(JpegHuffmanTable table) {
+        if (mBitCount < 16) {
+            fill();
+        }
+
+        int entry = table.mLookup[(int) (mBuffer >>> (64 - JpegHuffmanTable.LOOKAHEAD_BITS))];
+        if (entry != 0) {
+            consume(entry >> 8);
+            return entry & 0xff;
+        }
+
+        int length = JpegHuffmanTable.LOOKAHEAD_BITS + 1;
+        int code = (int) (mBuffer >>> (64 - length));
+        while (code > table.mMaxCode[length]) {
+            length++;
+            code = (int) (mBuffer >>> (64 - length));
+        }
+        if (length > 16) {
+            throw new IllegalArgumentException("Invalid Huffman code at " + mPosition);
+        }
+        consume(length);
+        return table.symbol(table.mValueOffset[length] + code);
+    }
+
+    /**
+     * Reads {@code size} bits and sign extends them as described in F.2.2.1.
+     */
+    int receiveExtend(int size) {
+        if (size == 0) {
+            return 0;
+        }
+        if (mBitCount < size) {
+            fill();
+        }
+        int value = (int) (mBuffer >>> (64 - size));
+        consume(size);
+        return value < (1 << (size - 1)) ? value - (1 << size) + 1 : value;
+    }
+
+    /**
+     * Drops buffered bits and moves past the next RSTn marker, skipping any entropy coded
+     * data before it. Used both at the end of a restart interval and to skip an interval
+     * that does not need to be decoded.
+     */
+    void skipToRestart() {
+        mBuffer = 0;
+        mBitCount = 0;
+        mAtMarker = false;
+        int end = mData.length - 1;
+        while (mPosition < end) {
+            if ((mData[mPosition] & 0xff) == 0xFF) {
+                int marker = mData[mPosition + 1] & 0xff;
+                if (marker >= 0xD0 && marker <= 0xD7) {
+                    mPosition += 2;
+                    return;
+                }
+                if (marker != 0 && marker != 0xFF) {
+                    // Some other marker, e.g. EOI of a truncated scan: leave it for the caller.
+                    return;
+                }
+            }
+            mPosition++;
+        }
+    }
+
+    /**
+     * Saves the reader position at index {@code i} of the given arrays, so decoding can later
+     * resume there with {@link #restore}.
+     */
+    void save(int[] positions, long[] buffers, int[] bitCounts, int i) {
+        positions[i] = mPosition;
+        buffers[i] = mBuffer;
+        bitCounts[i] = mAtMarker ? mBitCount | 0x100 : mBitCount;
+    }
+
+    void restore(int[] positions, long[] buffers, int[] bitCounts, int i) {
+        mPosition = positions[i];
+        mBuffer = buffers[i];
+        mBitCount = bitCounts[i] & 0xff;
+        mAtMarker = (bitCounts[i] & 0x100) != 0;
+    }
+
+    private void consume(int bits) {
+        mBuffer <<= bits;
+        mBitCount -= bits;
+    }
+
+    private void fill() {
+        while (mBitCount <= 56) {
+            int b = 0;
+            if (!mAtMarker && mPosition < mData.length) {
+                b = mData[mPosition] & 0xff;
+                if (b == 0xFF) {
+                    int next = mPosition + 1 < mData.length ? mData[mPosition + 1] & 0xff : 0xD9;
+                    if (next == 0) {
+                        mPosition += 2;
+                    } else {
+                        // A marker ends the data; keep feeding zero bits without passing it.
+                        mAtMarker = true;
+                        b = 0;
+                    }
+                } else {
+                    mPosition++;
+                }
+            }
+            mBuffer |= (long) b << (56 - mBitCount);
+            mBitCount += 8;
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+package com.flurgle.camerakit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes the entropy coded data of a JPEG scan, stuffing a zero byte after every 0xFF.
+ */
+final class JpegBitWriter {
+
+    private final OutputStream mOut;
+    private final byte[] mBuffer = new byte[8192];
+    private int mCount;
+
+    // The low mBitCount bits of mBits are pending output.
+    private long mBits;
+    private int mBitCount;
+
+    JpegBitWriter(OutputStream out) {
+        mOut = out;
+    }
+
+    void write(int value, int size) throws IOException {
+        mBits = (mBits << size) | (value & ((1 << size) - 1));
+        mBitCount += size;
+        while (mBitCount >= 8) {
+            mBitCount -= 8;
+            int b = (int) (mBits >>> mBitCount) & 0xff;
+            put(b);
+            if (b == 0xFF) {
+                put(0);
+            }
+        }
+    }
+
+    /**
+     * Encodes one 8x8 block of quantized coefficients in zigzag order, with its DC
+     * coefficient given as the difference to the previous block of the component.
+     */
+    void writeBlock(short[] coefficients, int offset, int dcDiff,
+                    JpegHuffmanTable dcTable, JpegHuffmanTable acTable) throws IOException {
+        int size = category(dcDiff);
+        write(dcTable.mCodes[size], dcTable.mSizes[size]);
+        if (size != 0) {
+            write(dcDiff < 0 ? dcDiff - 1 : dcDiff, size);
+        }
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = coefficients[offset + k];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                write(acTable.mCodes[0xF0], acTable.mSizes[0xF0]);
+                run -= 16;
+            }
+            size = category(value);
+            int symbol = (run << 4) | size;
+            write(acTable.mCodes[symbol], acTable.mSizes[symbol]);
+            write(value < 0 ? value - 1 : value, size);
+            run = 0;
+        }
+        if (run > 0) {
+            write(acTable.mCodes[0x00], acTable.mSizes[0x00]);
+        }
+    }
+
+    /**
+     * Returns the number of bits {@link #writeBlock} writes for the same arguments, byte
+     * stuffing aside.
+     */
+    static int countBits(short[] coefficients, int offset, int dcDiff,
+                         JpegHuffmanTable dcTable, JpegHuffmanTable acTable) {
+        int size = category(dcDiff);
+        int bits = dcTable.mSizes[size] + size;
+
+        int run = 0;
+        for (int k = 1; k < 64; k++) {
+            int value = coefficients[offset + k];
+            if (value == 0) {
+                run++;
+                continue;
+            }
+            while (run > 15) {
+                bits += acTable.mSizes[0xF0];
+                run -= 16;
+            }
+            size = category(value);
+            bits += acTable.mSizes[(run << 4) | size] + size;
+            run = 0;
+        }
+        if (run > 0) {
+            bits += acTable.mSizes[0x00];
+        }
+        return bits;
+    }
+
+    /**
+     * Pads the last byte with one bits and writes restart marker {@code RSTn}.
+     */
+    void writeRestart(int n) throws IOException {
+        padToByte();
+        put(0xFF);
+        put(0xD0 + (n & 7));
+    }
+
+    /**
+     * Pads the last byte with one bits and hands everything to the underlying stream.
+     */
+    void flush() throws IOException {
+        padToByte();
+        mOut.write(mBuffer, 0, mCount);
+        mCount = 0;
+    }
+
+    private void padToByte() throws IOException {
+        if (mBitCount > 0) {
+            int pad = 8 - mBitCount;
+            write((1 << pad) - 1, pad);
+        }
+    }
+
+    private void put(int b) throws IOException {
+        if (mCount == mBuffer.length) {
+            mOut.write(mBuffer, 0, mCount);
+            mCount = 0;
+        }
+        mBuffer[mCount++] = (byte) b;
+    }
+
+    static int category(int value) {
+        if (value < 0) {
+            value = -value;
+        }
+        return 32 - Integer.numberOfLeadingZeros(value);
+    }
+
+}
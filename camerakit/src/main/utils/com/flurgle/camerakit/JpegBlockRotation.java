@@ -0,0 +1,168 @@
+package com.flurgle.camerakit;
+
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Lossless rotation in the compressed domain, optionally combined with a crop. Blocks are
+ * moved to their rotated position and their coefficients transposed and sign flipped, which
+ * is exactly a transpose or mirror of the 8x8 pixels; quantization tables and sampling
+ * factors are transposed to match.
+ *
+ * A mirrored axis must end on an MCU boundary, so the partial MCU at the right or bottom
+ * edge that would become the left or top edge is trimmed, as jpegtran -trim does. A first
+ * pass records the decoder state at the start of every MCU inside the crop; the second
+ * pass decodes them again in output order. That keeps memory at a few bytes per MCU
+ * instead of holding every coefficient of the frame.
+ */
+final class JpegBlockRotation {
+
+    private JpegBlockRotation() {
+    }
+
+    /**
+     * Returns the JPEG for {@code crop} of the frame rotated clockwise by {@code rotation},
+     * or null when trimming leaves nothing.
+     */
+    static byte[] rotate(JpegFrame frame, int rotation, Rect crop) {
+        RotationKernel.checkRotation(rotation);
+        final boolean transpose = rotation % 180 != 0;
+        final boolean flipX = rotation == 90 || rotation == 180;
+        final boolean flipY = rotation == 180 || rotation == 270;
+
+        final int mcuWidth = frame.mMcuWidth;
+        final int mcuHeight = frame.mMcuHeight;
+        int width = crop.width();
+        int height = crop.height();
+        final int left = JpegCrop.snap(crop.left, width, frame.mWidth, mcuWidth);
+        final int top = JpegCrop.snap(crop.top, height, frame.mHeight, mcuHeight);
+        if (transpose ? flipY : flipX) {
+            width -= width % mcuWidth;
+        }
+        if (transpose ? flipX : flipY) {
+            height -= height % mcuHeight;
+        }
+        if (width == 0 || height == 0) {
+            return null;
+        }
+
+        final int firstColumn = left / mcuWidth;
+        final int firstRow = top / mcuHeight;
+        final int columns = (width + mcuWidth - 1) / mcuWidth;
+        final int rows = (height + mcuHeight - 1) / mcuHeight;
+        final int components = frame.mComponentCount;
+        final int count = columns * rows;
+
+        int[] positions = new int[count];
+        long[] buffers = new long[count];
+        int[] bitCounts = new int[count];
+        int[] predictors = new int[count * components];
+        JpegBitReader reader = new JpegBitReader(frame.mJpeg, frame.mScanOffset);
+        short[] input = new short[frame.mBlocksPerMcu * 64];
+        scan(frame, reader, input, firstColumn, firstRow, columns, rows, positions, buffers, bitCounts, predictors);
+
+        final int outColumns = transpose ? rows : columns;
+        final int outRows = transpose ? columns : rows;
+        int[] source = new int[64];
+        int[] sign = new int[64];
+        for (int k = 0; k < 64; k++) {
+            int natural = JpegFrame.NATURAL_ORDER[k];
+            int u = natural / 8;
+            int v = natural % 8;
+            source[k] = JpegFrame.ZIGZAG_ORDER[transpose ? v * 8 + u : natural];
+            sign[k] = ((flipX && (v & 1) != 0) ^ (flipY && (u & 1) != 0)) ? -1 : 1;
+        }
+
+        short[] output = new short[frame.mBlocksPerMcu * 64];
+        int[] inputPredictors = new int[components];
+        int[] outputPredictors = new int[components];
+        PooledOutputStream out = new PooledOutputStream(BufferPool.getDefault());
+        try {
+            frame.writeHeaders(out, transpose ? height : width, transpose ? width : height, 0, transpose);
+            JpegBitWriter writer = new JpegBitWriter(out);
+
+            for (int oy = 0; oy < outRows; oy++) {
+                for (int ox = 0; ox < outColumns; ox++) {
+                    int fx = flipX ? outColumns - 1 - ox : ox;
+                    int fy = flipY ? outRows - 1 - oy : oy;
+                    int index = (transpose ? fx : fy) * columns + (transpose ? fy : fx);
+
+                    reader.restore(positions, buffers, bitCounts, index);
+                    System.arraycopy(predictors, index * components, inputPredictors, 0, components);
+                    frame.decodeMcu(reader, input, inputPredictors);
+
+                    int base = 0;
+                    for (int c = 0; c < components; c++) {
+                        int h = frame.mHSamples[c];
+                        int v = frame.mVSamples[c];
+                        int outH = transpose ? v : h;
+                        int outV = transpose ? h : v;
+                        for (int by = 0; by < outV; by++) {
+                            for (int bx = 0; bx < outH; bx++) {
+                                int sx = flipX ? outH - 1 - bx : bx;
+                                int sy = flipY ? outV - 1 - by : by;
+                                int src = base + ((transpose ? sx : sy) * h + (transpose ? sy : sx)) * 64;
+                                int dst = base + (by * outH + bx) * 64;
+                                for (int k = 0; k < 64; k++) {
+                                    output[dst + k] = (short) (sign[k] * input[src + source[k]]);
+                                }
+                            }
+                        }
+                        base += h * v * 64;
+                    }
+                    JpegCrop.writeMcu(frame, writer, output, outputPredictors);
+                }
+            }
+
+            writer.flush();
+            JpegFrame.writeEnd(out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            // PooledOutputStream does not throw.
+            throw new IllegalStateException(e);
+        } finally {
+            out.release();
+        }
+    }
+
+    // Decodes up to the last MCU of the crop, saving the decoder state before each MCU in it.
+    private static void scan(JpegFrame frame, JpegBitReader reader, short[] coefficients,
+                             int firstColumn, int firstRow, int columns, int rows,
+                             int[] positions, long[] buffers, int[] bitCounts, int[] predictors) {
+        final int mcusX = frame.mMcusX;
+        final int lastColumn = firstColumn + columns - 1;
+        final int lastRow = firstRow + rows - 1;
+        final int lastMcu = lastRow * mcusX + lastColumn;
+        final int interval = frame.mRestartInterval;
+        final int components = frame.mComponentCount;
+        int[] dcPredictors = new int[components];
+
+        int mcu = 0;
+        while (mcu <= lastMcu) {
+            if (interval > 0 && mcu % interval == 0) {
+                if (mcu > 0) {
+                    reader.skipToRestart();
+                    Arrays.fill(dcPredictors, 0);
+                }
+                if (!JpegCrop.intersects(mcu, Math.min(mcu + interval, frame.mMcusY * mcusX) - 1, mcusX,
+                        firstColumn, lastColumn, firstRow, lastRow)) {
+                    mcu += interval;
+                    continue;
+                }
+            }
+
+            int row = mcu / mcusX;
+            int column = mcu % mcusX;
+            if (row >= firstRow && column >= firstColumn && column <= lastColumn) {
+                int index = (row - firstRow) * columns + column - firstColumn;
+                reader.save(positions, buffers, bitCounts, index);
+                System.arraycopy(dcPredictors, 0, predictors, index * components, components);
+            }
+            frame.decodeMcu(reader, coefficients, dcPredictors);
+            mcu++;
+        }
+    }
+
+}
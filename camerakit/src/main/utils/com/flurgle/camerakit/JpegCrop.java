@@ -0,0 +1,162 @@
+package com.flurgle.camerakit;
+
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Lossless crop in the compressed domain: the MCUs inside the crop are entropy decoded and
+ * re-encoded as they are, so no pixel is ever reconstructed. The crop origin is moved to
+ * the nearest MCU boundary; the crop size is kept exactly, since a frame may end inside
+ * its last MCU. MCUs below the crop are never read, and with restart markers whole
+ * intervals outside the crop are skipped without being decoded.
+ *
+ * Given coarser quantization tables, the kept coefficients are requantized on the way
+ * through, which shrinks the file without an inverse and forward DCT.
+ */
+final class JpegCrop {
+
+    private JpegCrop() {
+    }
+
+    static byte[] crop(JpegFrame frame, Rect crop) {
+        return crop(frame, crop, null);
+    }
+
+    /**
+     * Crops the frame, requantizing its coefficients to {@code quantTables} (natural order,
+     * by table id) when it is not null.
+     */
+    static byte[] crop(JpegFrame frame, Rect crop, int[][] quantTables) {
+        return crop(frame, crop.left, crop.top, crop.width(), crop.height(), quantTables);
+    }
+
+    /**
+     * Same as {@link #crop(JpegFrame, Rect, int[][])}, for the crop of {@code width} by
+     * {@code height} pixels at ({@code cropLeft}, {@code cropTop}).
+     */
+    static byte[] crop(JpegFrame frame, int cropLeft, int cropTop, int width, int height, int[][] quantTables) {
+        final int mcuWidth = frame.mMcuWidth;
+        final int mcuHeight = frame.mMcuHeight;
+        final int left = snap(cropLeft, width, frame.mWidth, mcuWidth);
+        final int top = snap(cropTop, height, frame.mHeight, mcuHeight);
+
+        final int firstColumn = left / mcuWidth;
+        final int lastColumn = (left + width - 1) / mcuWidth;
+        final int firstRow = top / mcuHeight;
+        final int lastRow = (top + height - 1) / mcuHeight;
+        final int mcusX = frame.mMcusX;
+        final int lastMcu = lastRow * mcusX + lastColumn;
+        final int interval = frame.mRestartInterval;
+
+        JpegBitReader reader = new JpegBitReader(frame.mJpeg, frame.mScanOffset);
+        short[] coefficients = new short[frame.mBlocksPerMcu * 64];
+        int[] inputPredictors = new int[frame.mComponentCount];
+        int[] outputPredictors = new int[frame.mComponentCount];
+
+        PooledOutputStream out = new PooledOutputStream(BufferPool.getDefault());
+        try {
+            frame.writeHeaders(out, width, height, 0, false, quantTables);
+            JpegBitWriter writer = new JpegBitWriter(out);
+
+            int mcu = 0;
+            while (mcu <= lastMcu) {
+                if (interval > 0 && mcu % interval == 0) {
+                    if (mcu > 0) {
+                        reader.skipToRestart();
+                        Arrays.fill(inputPredictors, 0);
+                    }
+                    if (!intersects(mcu, Math.min(mcu + interval, frame.mMcusY * mcusX) - 1, mcusX,
+                            firstColumn, lastColumn, firstRow, lastRow)) {
+                        mcu += interval;
+                        continue;
+                    }
+                }
+
+                frame.decodeMcu(reader, coefficients, inputPredictors);
+                int row = mcu / mcusX;
+                int column = mcu % mcusX;
+                if (row >= firstRow && column >= firstColumn && column <= lastColumn) {
+                    if (quantTables != null) {
+                        requantize(frame, coefficients, quantTables);
+                    }
+                    writeMcu(frame, writer, coefficients, outputPredictors);
+                }
+                mcu++;
+            }
+
+            writer.flush();
+            JpegFrame.writeEnd(out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            // PooledOutputStream does not throw.
+            throw new IllegalStateException(e);
+        } finally {
+            out.release();
+        }
+    }
+
+    static void writeMcu(JpegFrame frame, JpegBitWriter writer, short[] coefficients, int[] dcPredictors)
+            throws IOException {
+        int offset = 0;
+        for (int c = 0; c < frame.mComponentCount; c++) {
+            JpegHuffmanTable dcTable = JpegFrame.outputDcTable(c);
+            JpegHuffmanTable acTable = JpegFrame.outputAcTable(c);
+            int blocks = frame.mHSamples[c] * frame.mVSamples[c];
+            for (int b = 0; b < blocks; b++) {
+                int dc = coefficients[offset];
+                writer.writeBlock(coefficients, offset, dc - dcPredictors[c], dcTable, acTable);
+                dcPredictors[c] = dc;
+                offset += 64;
+            }
+        }
+    }
+
+    // Rounds each coefficient to the nearest multiple of the new step, half away from zero.
+    private static void requantize(JpegFrame frame, short[] coefficients, int[][] quantTables) {
+        int offset = 0;
+        for (int c = 0; c < frame.mComponentCount; c++) {
+            int id = frame.mQuantTables[c];
+            int[] from = frame.mQuantValues[id];
+            int[] to = quantTables[id];
+            int blocks = frame.mHSamples[c] * frame.mVSamples[c];
+            for (int b = 0; b < blocks; b++) {
+                for (int k = 0; k < 64; k++) {
+                    int n = JpegFrame.NATURAL_ORDER[k];
+                    int value = coefficients[offset + k] * from[n];
+                    int step = to[n];
+                    coefficients[offset + k] = (short) (value < 0
+                            ? -((-value + step / 2) / step)
+                            : (value + step / 2) / step);
+                }
+                offset += 64;
+            }
+        }
+    }
+
+    // Moves start to the nearest multiple of unit that keeps [start, start + length) inside the frame.
+    static int snap(int start, int length, int frameLength, int unit) {
+        int snapped = (start + unit / 2) / unit * unit;
+        if (snapped + length > frameLength) {
+            snapped -= unit;
+        }
+        return Math.max(0, snapped);
+    }
+
+    // Whether MCUs [first, last] in raster order touch the crop.
+    static boolean intersects(int first, int last, int mcusX,
+                              int firstColumn, int lastColumn, int firstRow, int lastRow) {
+        int startRow = first / mcusX;
+        int endRow = last / mcusX;
+        for (int row = Math.max(startRow, firstRow); row <= Math.min(endRow, lastRow); row++) {
+            int from = row == startRow ? first % mcusX : 0;
+            int to = row == endRow ? last % mcusX : mcusX - 1;
+            if (from <= lastColumn && to >= firstColumn) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,402 @@
+package com.flurgle.camerakit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Baseline JPEG encoder for 4:2:0 frames.
+ *
+ * The frame is read in place through its {@link YuvLayout}, one 16 row MCU strip at a
+ * time, so it needs no conversion or contiguous copy, and the output streams to any
+ * {@link OutputStream} or {@link ByteBuffer}. Chroma is already subsampled and is coded
+ * as is. The forward DCT is the accurate integer one of libjpeg ({@code jfdctint}) and the
+ * entropy coder uses the Annex K Huffman tables. Quantization tables are either the Annex K
+ * tables scaled by the libjpeg quality formula or supplied by the caller.
+ *
+ * The parallel mode splits the frame into strips of whole MCU rows, each one a restart
+ * interval. The strips share no DC prediction, so they are encoded on separate cores and
+ * joined with RSTn markers into a single standard scan.
+ */
+public class JpegEncoder {
+
+    // Annex K.1 tables in natural order.
+    static final int[] LUMINANCE_QUANT_TABLE = {
+            16, 11, 10, 16, 24, 40, 51, 61,
+            12, 12, 14, 19, 26, 58, 60, 55,
+            14, 13, 16, 24, 40, 57, 69, 56,
+            14, 17, 22, 29, 51, 87, 80, 62,
+            18, 22, 37, 56, 68, 109, 103, 77,
+            24, 35, 55, 64, 81, 104, 113, 92,
+            49, 64, 78, 87, 103, 121, 120, 101,
+            72, 92, 95, 98, 112, 100, 103, 99
+    };
+
+    static final int[] CHROMINANCE_QUANT_TABLE = {
+            17, 18, 24, 47, 99, 99, 99, 99,
+            18, 21, 26, 66, 99, 99, 99, 99,
+            24, 26, 56, 99, 99, 99, 99, 99,
+            47, 66, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99,
+            99, 99, 99, 99, 99, 99, 99, 99
+    };
+
+    private static final int[] COMPONENT_IDS = {1, 2, 3};
+
+    // The DRI segment stores the restart interval in 16 bits.
+    private static final int MAX_RESTART_INTERVAL = 0xFFFF;
+
+    private static final int CONST_BITS = 13;
+    private static final int PASS1_BITS = 2;
+    private static final int FIX_0_298631336 = 2446;
+    private static final int FIX_0_390180644 = 3196;
+    private static final int FIX_0_541196100 = 4433;
+    private static final int FIX_0_765366865 = 6270;
+    private static final int FIX_0_899976223 = 7373;
+    private static final int FIX_1_175875602 = 9633;
+    private static final int FIX_1_501321110 = 12299;
+    private static final int FIX_1_847759065 = 15137;
+    private static final int FIX_1_961570560 = 16069;
+    private static final int FIX_2_053119869 = 16819;
+    private static final int FIX_2_562915447 = 20995;
+    private static final int FIX_3_072711026 = 25172;
+
+    private final int[] mLuminanceTable = new int[64];
+    private final int[] mChrominanceTable = new int[64];
+
+    // Per natural index: the divisor for the 8x scaled DCT output and its 2^32 reciprocal.
+    private final int[] mLuminanceDivisors = new int[64];
+    private final int[] mChrominanceDivisors = new int[64];
+    private final long[] mLuminanceReciprocals = new long[64];
+    private final long[] mChrominanceReciprocals = new long[64];
+
+    public JpegEncoder(int quality) {
+        setQuality(quality);
+    }
+
+    /**
+     * Uses the Annex K tables scaled for {@code quality} in 1..100, as libjpeg does.
+     */
+    public JpegEncoder setQuality(int quality) {
+        return setQuantizationTables(scaleTable(LUMINANCE_QUANT_TABLE, quality),
+                scaleTable(CHROMINANCE_QUANT_TABLE, quality));
+    }
+
+    /**
+     * Uses the given tables, 64 values in 1..255 in natural (row major) order.
+     */
+    public JpegEncoder setQuantizationTables(int[] luminance, int[] chrominance) {
+        setTable(luminance, mLuminanceTable, mLuminanceDivisors, mLuminanceReciprocals);
+        setTable(chrominance, mChrominanceTable, mChrominanceDivisors, mChrominanceReciprocals);
+        return this;
+    }
+
+    public int[] getLuminanceTable() {
+        return mLuminanceTable.clone();
+    }
+
+    public int[] getChrominanceTable() {
+        return mChrominanceTable.clone();
+    }
+
+    public void encode(byte[] yuv, YuvLayout layout, OutputStream out) throws IOException {
+        writeHeaders(out, layout.getWidth(), layout.getHeight(), 0);
+        JpegBitWriter writer = new JpegBitWriter(out);
+        encodeRows(yuv, layout, 0, getMcuRows(layout), writer, new int[3]);
+        writer.flush();
+        JpegFrame.writeEnd(out);
+    }
+
+    /**
+     * Encodes into {@code out} starting at its position; throws
+     * {@link java.nio.BufferOverflowException} when it runs out of room.
+     */
+    public void encode(byte[] yuv, YuvLayout layout, final ByteBuffer out) throws IOException {
+        encode(yuv, layout, new OutputStream() {
+            @Override
+            public void write(int b) {
+                out.put((byte) b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                out.put(b, off, len);
+            }
+        });
+    }
+
+    /**
+     * Encodes one restart interval per stripe of {@code executor}, falling back to
+     * {@link #encode(byte[], YuvLayout, OutputStream)} when the frame is a single strip.
+     */
+    void encode(final byte[] yuv, final YuvLayout layout, OutputStream out, StripeExecutor executor)
+            throws IOException {
+        final int mcuRows = getMcuRows(layout);
+        final int mcuColumns = getMcuColumns(layout);
+        int parallelism = executor.getParallelism();
+        final int rowsPerInterval = Math.max(1,
+                Math.min((mcuRows + parallelism - 1) / parallelism, MAX_RESTART_INTERVAL / mcuColumns));
+        int intervals = (mcuRows + rowsPerInterval - 1) / rowsPerInterval;
+        if (intervals <= 1) {
+            encode(yuv, layout, out);
+            return;
+        }
+
+        writeHeaders(out, layout.getWidth(), layout.getHeight(), rowsPerInterval * mcuColumns);
+        final PooledOutputStream[] segments = new PooledOutputStream[intervals];
+        try {
+            executor.execute(mcuRows, rowsPerInterval, new StripeExecutor.Task() {
+                @Override
+                public void run(int start, int end) {
+                    for (int row = start; row < end; row += rowsPerInterval) {
+                        PooledOutputStream segment = new PooledOutputStream(BufferPool.getDefault());
+                        segments[row / rowsPerInterval] = segment;
+                        JpegBitWriter writer = new JpegBitWriter(segment);
+                        try {
+                            encodeRows(yuv, layout, row, Math.min(end, row + rowsPerInterval), writer, new int[3]);
+                            writer.flush();
+                        } catch (IOException e) {
+                            // PooledOutputStream does not throw.
+                            throw new IllegalStateException(e);
+                        }
+                    }
+                }
+            });
+
+            for (int i = 0; i < intervals; i++) {
+                if (i > 0) {
+                    out.write(0xFF);
+                    out.write(0xD0 + ((i - 1) & 7));
+                }
+                segments[i].writeTo(out);
+            }
+        } finally {
+            for (PooledOutputStream segment : segments) {
+                if (segment != null) {
+                    segment.release();
+                }
+            }
+        }
+        JpegFrame.writeEnd(out);
+    }
+
+    static int getMcuRows(YuvLayout layout) {
+        return (layout.getHeight() + 15) / 16;
+    }
+
+    static int getMcuColumns(YuvLayout layout) {
+        return (layout.getWidth() + 15) / 16;
+    }
+
+    void writeHeaders(OutputStream out, int width, int height, int restartInterval) throws IOException {
+        out.write(0xFF);
+        out.write(JpegFrame.MARKER_SOI);
+
+        // JFIF 1.01, no density, no thumbnail.
+        JpegFrame.writeMarker(out, 0xE0, 16);
+        out.write(new byte[]{'J', 'F', 'I', 'F', 0, 1, 1, 0, 0, 1, 0, 1, 0, 0});
+
+        JpegFrame.writeQuantTables(out, new int[][]{mLuminanceTable, mChrominanceTable});
+
+        JpegFrame.writeMarker(out, JpegFrame.MARKER_SOF0, 17);
+        out.write(8);
+        JpegFrame.writeShort(out, height);
+        JpegFrame.writeShort(out, width);
+        out.write(3);
+        out.write(new byte[]{1, 0x22, 0, 2, 0x11, 1, 3, 0x11, 1});
+
+        JpegFrame.writeScanHeaders(out, COMPONENT_IDS, restartInterval);
+    }
+
+    /**
+     * Encodes MCU rows {@code [mcuRowStart, mcuRowEnd)} with the given DC predictors
+     * (Y, Cb, Cr), which are updated as blocks are written.
+     */
+    void encodeRows(byte[] yuv, YuvLayout layout, int mcuRowStart, int mcuRowEnd,
+                    JpegBitWriter writer, int[] dcPredictors) throws IOException {
+        final int width = layout.getWidth();
+        final int height = layout.getHeight();
+        final int mcuColumns = getMcuColumns(layout);
+        int[] block = new int[64];
+        short[] coefficients = new short[64];
+
+        for (int my = mcuRowStart; my < mcuRowEnd; my++) {
+            for (int mx = 0; mx < mcuColumns; mx++) {
+                for (int b = 0; b < 4; b++) {
+                    loadBlock(yuv, 0, layout.getYRowStride(), 1, width, height,
+                            mx * 16 + (b & 1) * 8, my * 16 + (b >> 1) * 8, block);
+                    dcPredictors[0] = encodeBlock(block, coefficients, mLuminanceDivisors, mLuminanceReciprocals,
+                            dcPredictors[0], writer, JpegHuffmanTable.DC_LUMINANCE, JpegHuffmanTable.AC_LUMINANCE);
+                }
+
+                loadBlock(yuv, layout.getUOffset(), layout.getUvRowStride(), layout.getUvPixelStride(),
+                        width / 2, height / 2, mx * 8, my * 8, block);
+                dcPredictors[1] = encodeBlock(block, coefficients, mChrominanceDivisors, mChrominanceReciprocals,
+                        dcPredictors[1], writer, JpegHuffmanTable.DC_CHROMINANCE, JpegHuffmanTable.AC_CHROMINANCE);
+
+                loadBlock(yuv, layout.getVOffset(), layout.getUvRowStride(), layout.getUvPixelStride(),
+                        width / 2, height / 2, mx * 8, my * 8, block);
+                dcPredictors[2] = encodeBlock(block, coefficients, mChrominanceDivisors, mChrominanceReciprocals,
+                        dcPredictors[2], writer, JpegHuffmanTable.DC_CHROMINANCE, JpegHuffmanTable.AC_CHROMINANCE);
+            }
+        }
+    }
+
+    // Reads a level shifted 8x8 block, repeating the last row and column past the plane edge.
+    static void loadBlock(byte[] src, int offset, int rowStride, int pixelStride,
+                                  int planeWidth, int planeHeight, int x0, int y0, int[] block) {
+        if (x0 + 8 <= planeWidth && y0 + 8 <= planeHeight) {
+            for (int y = 0; y < 8; y++) {
+                int s = offset + (y0 + y) * rowStride + x0 * pixelStride;
+                for (int x = 0; x < 8; x++) {
+                    block[y * 8 + x] = (src[s] & 0xff) - 128;
+                    s += pixelStride;
+                }
+            }
+            return;
+        }
+
+        for (int y = 0; y < 8; y++) {
+            int row = offset + Math.min(y0 + y, planeHeight - 1) * rowStride;
+            for (int x = 0; x < 8; x++) {
+                block[y * 8 + x] = (src[row + Math.min(x0 + x, planeWidth - 1) * pixelStride] & 0xff) - 128;
+            }
+        }
+    }
+
+    private static int encodeBlock(int[] block, short[] coefficients, int[] divisors, long[] reciprocals,
+                                   int dcPredictor, JpegBitWriter writer,
+                                   JpegHuffmanTable dcTable, JpegHuffmanTable acTable) throws IOException {
+        forwardDct(block);
+        quantize(block, coefficients, divisors, reciprocals);
+        int dc = coefficients[0];
+        writer.writeBlock(coefficients, 0, dc - dcPredictor, dcTable, acTable);
+        return dc;
+    }
+
+    /**
+     * Divides by the quantization step with rounding half away from zero and stores the
+     * result in zigzag order. The reciprocal multiply is exact for the magnitudes the DCT
+     * produces.
+     */
+    static void quantize(int[] block, short[] coefficients, int[] divisors, long[] reciprocals) {
+        for (int k = 0; k < 64; k++) {
+            int n = JpegFrame.NATURAL_ORDER[k];
+            int value = block[n];
+            if (value < 0) {
+                coefficients[k] = (short) -(((-value + (divisors[n] >> 1)) * reciprocals[n]) >>> 32);
+            } else {
+                coefficients[k] = (short) (((value + (divisors[n] >> 1)) * reciprocals[n]) >>> 32);
+            }
+        }
+    }
+
+    /**
+     * In place forward DCT of a level shifted block in natural order, scaled up by 8, as
+     * libjpeg's {@code jpeg_fdct_islow}.
+     */
+    static void forwardDct(int[] data) {
+        for (int p = 0; p < 64; p += 8) {
+            int tmp0 = data[p] + data[p + 7];
+            int tmp7 = data[p] - data[p + 7];
+            int tmp1 = data[p + 1] + data[p + 6];
+            int tmp6 = data[p + 1] - data[p + 6];
+            int tmp2 = data[p + 2] + data[p + 5];
+            int tmp5 = data[p + 2] - data[p + 5];
+            int tmp3 = data[p + 3] + data[p + 4];
+            int tmp4 = data[p + 3] - data[p + 4];
+
+            int tmp10 = tmp0 + tmp3;
+            int tmp13 = tmp0 - tmp3;
+            int tmp11 = tmp1 + tmp2;
+            int tmp12 = tmp1 - tmp2;
+
+            data[p] = (tmp10 + tmp11) << PASS1_BITS;
+            data[p + 4] = (tmp10 - tmp11) << PASS1_BITS;
+
+            int z1 = (tmp12 + tmp13) * FIX_0_541196100;
+            data[p + 2] = descale(z1 + tmp13 * FIX_0_765366865, CONST_BITS - PASS1_BITS);
+            data[p + 6] = descale(z1 - tmp12 * FIX_1_847759065, CONST_BITS - PASS1_BITS);
+
+            oddPart(data, p, 1, tmp4, tmp5, tmp6, tmp7, CONST_BITS - PASS1_BITS);
+        }
+
+        for (int p = 0; p < 8; p++) {
+            int tmp0 = data[p] + data[p + 56];
+            int tmp7 = data[p] - data[p + 56];
+            int tmp1 = data[p + 8] + data[p + 48];
+            int tmp6 = data[p + 8] - data[p + 48];
+            int tmp2 = data[p + 16] + data[p + 40];
+            int tmp5 = data[p + 16] - data[p + 40];
+            int tmp3 = data[p + 24] + data[p + 32];
+            int tmp4 = data[p + 24] - data[p + 32];
+
+            int tmp10 = tmp0 + tmp3;
+            int tmp13 = tmp0 - tmp3;
+            int tmp11 = tmp1 + tmp2;
+            int tmp12 = tmp1 - tmp2;
+
+            data[p] = descale(tmp10 + tmp11, PASS1_BITS);
+            data[p + 32] = descale(tmp10 - tmp11, PASS1_BITS);
+
+            int z1 = (tmp12 + tmp13) * FIX_0_541196100;
+            data[p + 16] = descale(z1 + tmp13 * FIX_0_765366865, CONST_BITS + PASS1_BITS);
+            data[p + 48] = descale(z1 - tmp12 * FIX_1_847759065, CONST_BITS + PASS1_BITS);
+
+            oddPart(data, p, 8, tmp4, tmp5, tmp6, tmp7, CONST_BITS + PASS1_BITS);
+        }
+    }
+
+    private static void oddPart(int[] data, int p, int step, int tmp4, int tmp5, int tmp6, int tmp7, int shift) {
+        int z1 = tmp4 + tmp7;
+        int z2 = tmp5 + tmp6;
+        int z3 = tmp4 + tmp6;
+        int z4 = tmp5 + tmp7;
+        int z5 = (z3 + z4) * FIX_1_175875602;
+
+        tmp4 *= FIX_0_298631336;
+        tmp5 *= FIX_2_053119869;
+        tmp6 *= FIX_3_072711026;
+        tmp7 *= FIX_1_501321110;
+        z1 *= -FIX_0_899976223;
+        z2 *= -FIX_2_562915447;
+        z3 = z3 * -FIX_1_961570560 + z5;
+        z4 = z4 * -FIX_0_390180644 + z5;
+
+        data[p + 7 * step] = descale(tmp4 + z1 + z3, shift);
+        data[p + 5 * step] = descale(tmp5 + z2 + z4, shift);
+        data[p + 3 * step] = descale(tmp6 + z2 + z3, shift);
+        data[p + step] = descale(tmp7 + z1 + z4, shift);
+    }
+
+    private static int descale(int value, int shift) {
+        return (value + (1 << (shift - 1))) >> shift;
+    }
+
+    static int[] scaleTable(int[] base, int quality) {
+        quality = Math.max(1, Math.min(100, quality));
+        int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+        int[] table = new int[64];
+        for (int i = 0; i < 64; i++) {
+            table[i] = Math.max(1, Math.min(255, (base[i] * scale + 50) / 100));
+        }
+        return table;
+    }
+
+    private static void setTable(int[] table, int[] target, int[] divisors, long[] reciprocals) {
+        if (table.length != 64) {
+            throw new IllegalArgumentException("Quantization tables have 64 entries");
+        }
+        for (int i = 0; i < 64; i++) {
+            if (table[i] < 1 || table[i] > 255) {
+                throw new IllegalArgumentException("1 <= quantization step <= 255");
+            }
+            target[i] = table[i];
+            divisors[i] = table[i] * 8;
+            reciprocals[i] = ((1L << 32) + divisors[i] - 1) / divisors[i];
+        }
+    }
+
+}
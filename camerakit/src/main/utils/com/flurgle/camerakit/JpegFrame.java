@@ -0,0 +1,472 @@
+package com.flurgle.camerakit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Headers of a sequential Huffman coded JPEG with a single interleaved scan, which is what
+ * camera hardware and {@code YuvImage} produce, plus decoding of its MCUs into quantized
+ * coefficients. Progressive, arithmetic coded, 12-bit and multi-scan files are not
+ * supported and make {@link #parse(byte[])} return null.
+ */
+final class JpegFrame {
+
+    static final int MARKER_SOF0 = 0xC0;
+    static final int MARKER_SOF1 = 0xC1;
+    static final int MARKER_DHT = 0xC4;
+    static final int MARKER_SOI = 0xD8;
+    static final int MARKER_EOI = 0xD9;
+    static final int MARKER_SOS = 0xDA;
+    static final int MARKER_DQT = 0xDB;
+    static final int MARKER_DRI = 0xDD;
+    static final int MARKER_COM = 0xFE;
+
+    // Natural (row major) index of each zigzag position.
+    static final int[] NATURAL_ORDER = {
+            0, 1, 8, 16, 9, 2, 3, 10, 17, 24, 32, 25, 18, 11, 4, 5,
+            12, 19, 26, 33, 40, 48, 41, 34, 27, 20, 13, 6, 7, 14, 21, 28,
+            35, 42, 49, 56, 57, 50, 43, 36, 29, 22, 15, 23, 30, 37, 44, 51,
+            58, 59, 52, 45, 38, 31, 39, 46, 53, 60, 61, 54, 47, 55, 62, 63
+    };
+
+    // Zigzag position of each natural index.
+    static final int[] ZIGZAG_ORDER = new int[64];
+
+    static {
+        for (int k = 0; k < 64; k++) {
+            ZIGZAG_ORDER[NATURAL_ORDER[k]] = k;
+        }
+    }
+
+    final byte[] mJpeg;
+    int mSofMarker;
+    int mWidth;
+    int mHeight;
+    int mComponentCount;
+    int[] mComponentIds;
+    int[] mHSamples;
+    int[] mVSamples;
+    int[] mQuantTables;
+    // Quantization table values by table id, in natural order.
+    final int[][] mQuantValues = new int[4][];
+    JpegHuffmanTable[] mDcTables;
+    JpegHuffmanTable[] mAcTables;
+    int mMcuWidth;
+    int mMcuHeight;
+    int mMcusX;
+    int mMcusY;
+    int mBlocksPerMcu;
+    int mRestartInterval;
+    int mScanOffset;
+
+    // [start, end) byte ranges of the APPn, COM and DQT segments, in file order.
+    private int[] mSegments = new int[16];
+    private int mSegmentCount;
+
+    private JpegFrame(byte[] jpeg) {
+        mJpeg = jpeg;
+    }
+
+    static JpegFrame parse(byte[] jpeg) {
+        if (jpeg.length < 4 || (jpeg[0] & 0xff) != 0xFF || (jpeg[1] & 0xff) != MARKER_SOI) {
+            throw new IllegalArgumentException("Not a JPEG");
+        }
+
+        JpegFrame frame = new JpegFrame(jpeg);
+        JpegHuffmanTable[][] tables = new JpegHuffmanTable[2][4];
+        int p = 2;
+        while (true) {
+            if (p + 4 > jpeg.length || (jpeg[p] & 0xff) != 0xFF) {
+                throw new IllegalArgumentException("Malformed JPEG segment at " + p);
+            }
+            int marker = jpeg[p + 1] & 0xff;
+            if (marker == 0xFF) {
+                p++;
+                continue;
+            }
+            if (marker == MARKER_EOI) {
+                throw new IllegalArgumentException("JPEG without a scan");
+            }
+
+            int length = readShort(jpeg, p + 2);
+            int start = p + 4;
+            int end = p + 2 + length;
+            if (length < 2 || end > jpeg.length) {
+                throw new IllegalArgumentException("Truncated JPEG segment at " + p);
+            }
+
+            if (marker == MARKER_SOF0 || marker == MARKER_SOF1) {
+                if (!frame.parseFrame(marker, start, end)) {
+                    return null;
+                }
+            } else if (marker >= 0xC2 && marker <= 0xCF && marker != MARKER_DHT && marker != 0xC8 && marker != 0xCC) {
+                // Progressive, lossless, hierarchical or arithmetic coding.
+                return null;
+            } else if (marker == MARKER_DHT) {
+                parseHuffmanTables(jpeg, start, end, tables);
+            } else if (marker == MARKER_DRI) {
+                if (end - start != 2) {
+                    throw new IllegalArgumentException("Malformed DRI segment");
+                }
+                frame.mRestartInterval = readShort(jpeg, start);
+            } else if (marker == MARKER_DQT || marker == MARKER_COM || (marker >= 0xE0 && marker <= 0xEF)) {
+                if (marker == MARKER_DQT) {
+                    parseQuantTables(jpeg, start, end, frame.mQuantValues);
+                }
+                frame.addSegment(p, end);
+            } else if (marker == MARKER_SOS) {
+                if (frame.mComponentCount == 0 || !frame.parseScan(start, end, tables)) {
+                    return null;
+                }
+                frame.mScanOffset = end;
+                return frame;
+            }
+            p = end;
+        }
+    }
+
+    // Throws on a segment too short for its components or a quantization table id above 3,
+    // which would otherwise index past the tables.
+    private boolean parseFrame(int marker, int p, int end) {
+        if (end - p < 6 || end - p != 6 + 3 * (mJpeg[p + 5] & 0xff)) {
+            throw new IllegalArgumentException("Malformed SOF segment");
+        }
+        if ((mJpeg[p] & 0xff) != 8) {
+            return false;
+        }
+        mSofMarker = marker;
+        mHeight = readShort(mJpeg, p + 1);
+        mWidth = readShort(mJpeg, p + 3);
+        mComponentCount = mJpeg[p + 5] & 0xff;
+        if (mWidth == 0 || mHeight == 0 || (mComponentCount != 1 && mComponentCount != 3)) {
+            return false;
+        }
+
+        mComponentIds = new int[mComponentCount];
+        mHSamples = new int[mComponentCount];
+        mVSamples = new int[mComponentCount];
+        mQuantTables = new int[mComponentCount];
+        int maxH = 1;
+        int maxV = 1;
+        for (int i = 0; i < mComponentCount; i++) {
+            int c = p + 6 + i * 3;
+            mComponentIds[i] = mJpeg[c] & 0xff;
+            // A single component scan is never interleaved, so its MCU is one block.
+            mHSamples[i] = mComponentCount == 1 ? 1 : (mJpeg[c + 1] & 0xff) >> 4;
+            mVSamples[i] = mComponentCount == 1 ? 1 : mJpeg[c + 1] & 0x0f;
+            mQuantTables[i] = mJpeg[c + 2] & 0xff;
+            if (mQuantTables[i] > 3) {
+                throw new IllegalArgumentException("Malformed SOF segment");
+            }
+            if (mHSamples[i] < 1 || mHSamples[i] > 2 || mVSamples[i] < 1 || mVSamples[i] > 2) {
+                return false;
+            }
+            maxH = Math.max(maxH, mHSamples[i]);
+            maxV = Math.max(maxV, mVSamples[i]);
+            mBlocksPerMcu += mHSamples[i] * mVSamples[i];
+        }
+        mMcuWidth = maxH * 8;
+        mMcuHeight = maxV * 8;
+        mMcusX = (mWidth + mMcuWidth - 1) / mMcuWidth;
+        mMcusY = (mHeight + mMcuHeight - 1) / mMcuHeight;
+        return true;
+    }
+
+    private boolean parseScan(int p, int end, JpegHuffmanTable[][] tables) {
+        if (end - p < 4 || end - p != 4 + 2 * (mJpeg[p] & 0xff)) {
+            throw new IllegalArgumentException("Malformed SOS segment");
+        }
+        int count = mJpeg[p] & 0xff;
+        if (count != mComponentCount) {
+            return false;
+        }
+        mDcTables = new JpegHuffmanTable[count];
+        mAcTables = new JpegHuffmanTable[count];
+        for (int i = 0; i < count; i++) {
+            int id = mJpeg[p + 1 + i * 2] & 0xff;
+            int selectors = mJpeg[p + 2 + i * 2] & 0xff;
+            if (id != mComponentIds[i]) {
+                return false;
+            }
+            mDcTables[i] = tables[0][(selectors >> 4) & 3];
+            mAcTables[i] = tables[1][selectors & 3];
+            if (mDcTables[i] == null || mAcTables[i] == null) {
+                throw new IllegalArgumentException("Missing Huffman table");
+            }
+            if (mQuantValues[mQuantTables[i]] == null) {
+                throw new IllegalArgumentException("Missing quantization table");
+            }
+        }
+        int s = p + 1 + count * 2;
+        return (mJpeg[s] & 0xff) == 0 && (mJpeg[s + 1] & 0xff) == 63 && (mJpeg[s + 2] & 0xff) == 0;
+    }
+
+    private static void parseHuffmanTables(byte[] jpeg, int p, int end, JpegHuffmanTable[][] tables) {
+        while (p < end) {
+            int tableClass = (jpeg[p] & 0xff) >> 4;
+            int tableId = jpeg[p] & 0x0f;
+            if (tableClass > 1 || tableId > 3 || p + 17 > end) {
+                throw new IllegalArgumentException("Malformed DHT segment");
+            }
+            int[] counts = new int[16];
+            int total = 0;
+            for (int i = 0; i < 16; i++) {
+                counts[i] = jpeg[p + 1 + i] & 0xff;
+                total += counts[i];
+            }
+            p += 17;
+            if (total > 256 || p + total > end) {
+                throw new IllegalArgumentException("Malformed DHT segment");
+            }
+            int[] symbols = new int[total];
+            for (int i = 0; i < total; i++) {
+                symbols[i] = jpeg[p + i] & 0xff;
+            }
+            p += total;
+            tables[tableClass][tableId] = new JpegHuffmanTable(counts, symbols);
+        }
+    }
+
+    private static void parseQuantTables(byte[] jpeg, int p, int end, int[][] tables) {
+        while (p < end) {
+            int precision = (jpeg[p] & 0xff) >> 4;
+            int tableId = jpeg[p] & 0x0f;
+            int valueBytes = precision == 0 ? 1 : 2;
+            if (precision > 1 || tableId > 3 || p + 1 + 64 * valueBytes > end) {
+                throw new IllegalArgumentException("Malformed DQT segment");
+            }
+            int[] table = new int[64];
+            for (int k = 0; k < 64; k++) {
+                int v = p + 1 + k * valueBytes;
+                table[NATURAL_ORDER[k]] = valueBytes == 1 ? jpeg[v] & 0xff : readShort(jpeg, v);
+            }
+            tables[tableId] = table;
+            p += 1 + 64 * valueBytes;
+        }
+    }
+
+    private void addSegment(int start, int end) {
+        if (mSegmentCount * 2 == mSegments.length) {
+            mSegments = Arrays.copyOf(mSegments, mSegments.length * 2);
+        }
+        mSegments[mSegmentCount * 2] = start;
+        mSegments[mSegmentCount * 2 + 1] = end;
+        mSegmentCount++;
+    }
+
+    /**
+     * Decodes the next MCU into {@code coefficients}: {@link #mBlocksPerMcu} blocks of 64
+     * quantized coefficients in zigzag order, grouped by component and in raster order
+     * within a component. DC values are absolute; {@code dcPredictors} carries the
+     * previous DC of each component and must be zeroed at every restart.
+     */
+    void decodeMcu(JpegBitReader reader, short[] coefficients, int[] dcPredictors) {
+        Arrays.fill(coefficients, 0, mBlocksPerMcu * 64, (short) 0);
+        int offset = 0;
+        for (int c = 0; c < mComponentCount; c++) {
+            JpegHuffmanTable dcTable = mDcTables[c];
+            JpegHuffmanTable acTable = mAcTables[c];
+            int blocks = mHSamples[c] * mVSamples[c];
+            for (int b = 0; b < blocks; b++) {
+                dcPredictors[c] += reader.receiveExtend(reader.decode(dcTable));
+                coefficients[offset] = (short) dcPredictors[c];
+
+                int k = 1;
+                while (k < 64) {
+                    int symbol = reader.decode(acTable);
+                    int run = symbol >> 4;
+                    int size = symbol & 0x0f;
+                    if (size == 0) {
+                        if (run != 15) {
+                            break;
+                        }
+                        k += 16;
+                        continue;
+                    }
+                    k += run;
+                    if (k > 63) {
+                        throw new IllegalArgumentException("Corrupt JPEG block");
+                    }
+                    coefficients[offset + k] = (short) reader.receiveExtend(size);
+                    k++;
+                }
+                offset += 64;
+            }
+        }
+    }
+
+    /**
+     * Writes everything up to the entropy coded data of a copy of this frame with the given
+     * dimensions: the original APPn, COM and DQT segments, a frame header, the Annex K
+     * Huffman tables (luminance for the first component, chrominance for the others), an
+     * optional restart interval and the scan header. With {@code transpose} the sampling
+     * factors and quantization tables are transposed, for blocks whose coefficients are.
+     */
+    void writeHeaders(OutputStream out, int width, int height, int restartInterval, boolean transpose)
+            throws IOException {
+        writeHeaders(out, width, height, restartInterval, transpose, null);
+    }
+
+    /**
+     * Same as {@link #writeHeaders(OutputStream, int, int, int, boolean)}, but with the
+     * original DQT segments replaced by {@code quantTables} (natural order, by table id)
+     * when it is not null.
+     */
+    void writeHeaders(OutputStream out, int width, int height, int restartInterval, boolean transpose,
+                      int[][] quantTables) throws IOException {
+        out.write(0xFF);
+        out.write(MARKER_SOI);
+        for (int i = 0; i < mSegmentCount; i++) {
+            int start = mSegments[i * 2];
+            int end = mSegments[i * 2 + 1];
+            boolean dqt = (mJpeg[start + 1] & 0xff) == MARKER_DQT;
+            if (dqt && quantTables != null) {
+                continue;
+            }
+            if (transpose && dqt) {
+                writeTransposedQuantTables(out, start, end);
+            } else {
+                out.write(mJpeg, start, end - start);
+            }
+        }
+        if (quantTables != null) {
+            writeQuantTables(out, quantTables);
+        }
+
+        writeMarker(out, mSofMarker, 8 + 3 * mComponentCount);
+        out.write(8);
+        writeShort(out, height);
+        writeShort(out, width);
+        out.write(mComponentCount);
+        for (int i = 0; i < mComponentCount; i++) {
+            out.write(mComponentIds[i]);
+            out.write(transpose ? (mVSamples[i] << 4) | mHSamples[i] : (mHSamples[i] << 4) | mVSamples[i]);
+            out.write(mQuantTables[i]);
+        }
+
+        writeScanHeaders(out, mComponentIds, restartInterval);
+    }
+
+    /**
+     * Writes the Annex K Huffman tables, an optional restart interval and the header of a
+     * single interleaved scan, the first component using the luminance tables and the
+     * others the chrominance tables.
+     */
+    static void writeScanHeaders(OutputStream out, int[] componentIds, int restartInterval) throws IOException {
+        boolean chrominance = componentIds.length > 1;
+        int tableLength = JpegHuffmanTable.DC_LUMINANCE.getSegmentLength()
+                + JpegHuffmanTable.AC_LUMINANCE.getSegmentLength();
+        if (chrominance) {
+            tableLength += JpegHuffmanTable.DC_CHROMINANCE.getSegmentLength()
+                    + JpegHuffmanTable.AC_CHROMINANCE.getSegmentLength();
+        }
+        writeMarker(out, MARKER_DHT, 2 + tableLength);
+        JpegHuffmanTable.DC_LUMINANCE.writeTo(out, 0, 0);
+        JpegHuffmanTable.AC_LUMINANCE.writeTo(out, 1, 0);
+        if (chrominance) {
+            JpegHuffmanTable.DC_CHROMINANCE.writeTo(out, 0, 1);
+            JpegHuffmanTable.AC_CHROMINANCE.writeTo(out, 1, 1);
+        }
+
+        if (restartInterval > 0) {
+            writeMarker(out, MARKER_DRI, 4);
+            writeShort(out, restartInterval);
+        }
+
+        writeMarker(out, MARKER_SOS, 6 + 2 * componentIds.length);
+        out.write(componentIds.length);
+        for (int i = 0; i < componentIds.length; i++) {
+            out.write(componentIds[i]);
+            out.write(i == 0 ? 0x00 : 0x11);
+        }
+        out.write(0);
+        out.write(63);
+        out.write(0);
+    }
+
+    /**
+     * Writes a DQT segment with the non-null tables of {@code tables}, indexed by table id
+     * and in natural order. Tables with a value above 255 are written with 16-bit precision.
+     */
+    static void writeQuantTables(OutputStream out, int[][] tables) throws IOException {
+        int length = 2;
+        for (int[] table : tables) {
+            if (table != null) {
+                length += 1 + 64 * (isWide(table) ? 2 : 1);
+            }
+        }
+        writeMarker(out, MARKER_DQT, length);
+        for (int id = 0; id < tables.length; id++) {
+            int[] table = tables[id];
+            if (table == null) {
+                continue;
+            }
+            boolean wide = isWide(table);
+            out.write(wide ? 0x10 | id : id);
+            for (int k = 0; k < 64; k++) {
+                if (wide) {
+                    writeShort(out, table[NATURAL_ORDER[k]]);
+                } else {
+                    out.write(table[NATURAL_ORDER[k]]);
+                }
+            }
+        }
+    }
+
+    private static boolean isWide(int[] table) {
+        for (int value : table) {
+            if (value > 255) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeTransposedQuantTables(OutputStream out, int start, int end) throws IOException {
+        byte[] segment = Arrays.copyOfRange(mJpeg, start, end);
+        int p = 4;
+        while (p < segment.length) {
+            int valueBytes = (segment[p] & 0xf0) == 0 ? 1 : 2;
+            if (p + 1 + 64 * valueBytes > segment.length) {
+                throw new IllegalArgumentException("Malformed DQT segment");
+            }
+            for (int k = 0; k < 64; k++) {
+                int natural = NATURAL_ORDER[k];
+                int target = 1 + p + ZIGZAG_ORDER[(natural % 8) * 8 + natural / 8] * valueBytes;
+                System.arraycopy(mJpeg, start + 1 + p + k * valueBytes, segment, target, valueBytes);
+            }
+            p += 1 + 64 * valueBytes;
+        }
+        out.write(segment);
+    }
+
+    static JpegHuffmanTable outputDcTable(int component) {
+        return component == 0 ? JpegHuffmanTable.DC_LUMINANCE : JpegHuffmanTable.DC_CHROMINANCE;
+    }
+
+    static JpegHuffmanTable outputAcTable(int component) {
+        return component == 0 ? JpegHuffmanTable.AC_LUMINANCE : JpegHuffmanTable.AC_CHROMINANCE;
+    }
+
+    static void writeEnd(OutputStream out) throws IOException {
+        out.write(0xFF);
+        out.write(MARKER_EOI);
+    }
+
+    static void writeMarker(OutputStream out, int marker, int length) throws IOException {
+        out.write(0xFF);
+        out.write(marker);
+        writeShort(out, length);
+    }
+
+    static void writeShort(OutputStream out, int value) throws IOException {
+        out.write(value >> 8);
+        out.write(value);
+    }
+
+    private static int readShort(byte[] data, int offset) {
+        return ((data[offset] & 0xff) << 8) | (data[offset + 1] & 0xff);
+    }
+
+}
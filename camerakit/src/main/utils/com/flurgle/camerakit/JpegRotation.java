@@ -0,0 +1,106 @@
+package com.flurgle.camerakit;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.io.IOException;
+
+public class JpegRotation {
+
+    private byte[] rotatedJpeg;
+
+    public JpegRotation(byte[] jpeg, int rotation, int jpegCompression) {
+        this(jpeg, rotation, null, jpegCompression);
+    }
+
+    public JpegRotation(byte[] jpeg, int rotation, @Nullable AspectRatio cropRatio, int jpegCompression) {
+        this(jpeg, rotation, cropRatio, jpegCompression, 0);
+    }
+
+    /**
+     * Rotates {@code jpeg} clockwise by {@code rotation} degrees and, when {@code cropRatio}
+     * is set, center crops the result to it. Both are done losslessly on the DCT blocks when
+     * possible; {@code jpegCompression} only applies to the decode and re-encode fallback,
+     * and to the requantization that brings the result under {@code maxBytes} when it is
+     * above 0.
+     */
+    public JpegRotation(byte[] jpeg, int rotation, @Nullable AspectRatio cropRatio, int jpegCompression,
+                        int maxBytes) {
+        this.rotatedJpeg = rotate(jpeg, rotation, cropRatio, jpegCompression);
+        if (rotatedJpeg != null) {
+            this.rotatedJpeg = new JpegSizeCap(rotatedJpeg, jpegCompression, maxBytes).getJpeg();
+        }
+    }
+
+    private static byte[] rotate(byte[] jpeg, int rotation, @Nullable AspectRatio cropRatio, int jpegCompression) {
+        RotationKernel.checkRotation(rotation);
+        // The crop is taken before rotating, so the ratio is turned into the source orientation.
+        AspectRatio sourceRatio = cropRatio != null && rotation % 180 != 0 ? cropRatio.inverse() : cropRatio;
+
+        try {
+            JpegFrame frame = JpegFrame.parse(jpeg);
+            if (frame != null) {
+                Rect crop = sourceRatio != null
+                        ? CenterCrop.getCrop(frame.mWidth, frame.mHeight, sourceRatio)
+                        : new Rect(0, 0, frame.mWidth, frame.mHeight);
+                byte[] output = rotation == 0
+                        ? JpegCrop.crop(frame, crop)
+                        : JpegBlockRotation.rotate(frame, rotation, crop);
+                if (output != null) {
+                    return uprightExif(output);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w("CameraKit", "Lossless rotation failed, re-encoding: " + e);
+        }
+
+        try {
+            Bitmap source;
+            if (sourceRatio != null) {
+                BitmapFactory.Options options = new BitmapFactory.Options();
+                options.inJustDecodeBounds = true;
+                BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length, options);
+                Rect crop = CenterCrop.getCrop(options.outWidth, options.outHeight, sourceRatio);
+                source = BitmapRegionDecoder.newInstance(jpeg, 0, jpeg.length, true).decodeRegion(crop, null);
+            } else {
+                source = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+            }
+
+            Matrix matrix = new Matrix();
+            matrix.postRotate(rotation);
+            Bitmap rotated = Bitmap.createBitmap(source, 0, 0, source.getWidth(), source.getHeight(), matrix, true);
+
+            PooledOutputStream out = new PooledOutputStream(BufferPool.getDefault());
+            rotated.compress(Bitmap.CompressFormat.JPEG, jpegCompression, out);
+            byte[] output = out.toByteArray();
+            out.release();
+            if (rotated != source) {
+                rotated.recycle();
+            }
+            source.recycle();
+            return output;
+        } catch (IOException e) {
+            Log.e("CameraKit", e.toString());
+            return null;
+        }
+    }
+
+    // The pixels are upright now; an Orientation tag carried over from the source would rotate them again.
+    private static byte[] uprightExif(byte[] jpeg) {
+        int orientation = ExifOrientation.read(jpeg);
+        if (orientation == ExifOrientation.ORIENTATION_UNDEFINED || orientation == ExifOrientation.ORIENTATION_NORMAL) {
+            return jpeg;
+        }
+        return new ExifOrientation(jpeg, ExifOrientation.ORIENTATION_NORMAL).getJpeg();
+    }
+
+    public byte[] getJpeg() {
+        return rotatedJpeg;
+    }
+
+}
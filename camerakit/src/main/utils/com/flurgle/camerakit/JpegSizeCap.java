@@ -0,0 +1,61 @@
+package com.flurgle.camerakit;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+/**
+ * Brings a finished JPEG under a byte budget. The whole frame is requantized in the
+ * compressed domain when possible, like {@link CenterCrop} does for a crop, so the pixels
+ * are never decoded; other JPEGs are decoded and re-encoded.
+ */
+public class JpegSizeCap {
+
+    private byte[] cappedJpeg;
+
+    /**
+     * With {@code maxBytes > 0} and {@code jpeg} over it, lowers the quality to at most
+     * {@code jpegCompression}, as far as needed for the JPEG to fit. Otherwise keeps
+     * {@code jpeg} as it is.
+     */
+    public JpegSizeCap(byte[] jpeg, int jpegCompression, int maxBytes) {
+        this.cappedJpeg = jpeg;
+        if (maxBytes <= 0 || jpeg.length <= maxBytes) {
+            return;
+        }
+
+        try {
+            final JpegFrame frame = JpegFrame.parse(jpeg);
+            if (frame != null) {
+                final JpegSizeTarget target = JpegSizeTarget.forJpeg(frame, 0, 0, frame.mWidth, frame.mHeight);
+                this.cappedJpeg = target.encode(jpegCompression, maxBytes, new JpegSizeTarget.Encoder() {
+                    @Override
+                    public byte[] encode(int quality) {
+                        return JpegCrop.crop(frame, 0, 0, frame.mWidth, frame.mHeight, target.getQuantTables(quality));
+                    }
+                });
+                return;
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w("CameraKit", "Lossless requantization failed, re-encoding: " + e);
+        }
+
+        Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+        if (bitmap == null) {
+            Log.e("CameraKit", "Cannot decode the JPEG to bring it under " + maxBytes + " bytes");
+            return;
+        }
+        this.cappedJpeg = CenterCrop.compress(bitmap, jpegCompression, maxBytes);
+        bitmap.recycle();
+        // The decoder drops the metadata, but the pixels are still stored as they were.
+        int orientation = ExifOrientation.read(jpeg);
+        if (orientation != ExifOrientation.ORIENTATION_UNDEFINED) {
+            this.cappedJpeg = new ExifOrientation(cappedJpeg, orientation).getJpeg();
+        }
+    }
+
+    public byte[] getJpeg() {
+        return cappedJpeg;
+    }
+
+}
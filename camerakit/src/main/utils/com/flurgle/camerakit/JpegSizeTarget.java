@@ -0,0 +1,395 @@
+package com.flurgle.camerakit;
+
+import android.graphics.Rect;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Picks the highest JPEG quality whose output fits a byte budget, without encoding the
+ * image at every candidate quality.
+ *
+ * The DCT coefficients of a sample of short MCU runs, spread over every part of the image,
+ * are computed once: by the forward DCT for a YUV frame, or by entropy decoding for a JPEG,
+ * which is then requantized rather than re-encoded. Each candidate quality only quantizes
+ * that sample and adds up the Huffman code lengths, which takes a few milliseconds. The
+ * chosen quality is encoded for real, and if the estimate was low the measured ratio
+ * corrects it for the next, lower, attempt.
+ */
+final class JpegSizeTarget {
+
+    interface Encoder {
+        byte[] encode(int quality);
+    }
+
+    // Caps the sample, and so the memory and the time of each estimate, at about 1.5 MB.
+    private static final int MAX_SAMPLED_MCUS = 2048;
+    // Short enough that a sample reaches every few MCU rows, long enough to keep the DC
+    // differences and the zero runs of neighbouring blocks.
+    private static final int RUN_MCUS = 8;
+    private static final int MAX_ATTEMPTS = 4;
+    // The sampled estimate is within about 1.5% of the real size, and more often low than
+    // high; the margin keeps the first encode inside the budget.
+    private static final double ESTIMATE_MARGIN = 1.02;
+
+    private static final int RUN_START = 0x10;
+
+    // Sampled blocks in zigzag order, with the component (low bits), the quantization table
+    // slot (bits 2-3) and RUN_START for the first block of each sampled MCU row.
+    private final short[] mCoefficients;
+    private final byte[] mBlockInfo;
+    private final int mBlockCount;
+
+    // Per slot: the factor from a stored coefficient to 8x the DCT output, the table the
+    // quality scales and the finest step the output may use. All in natural order.
+    private final int[][] mSourceSteps;
+    private final int[][] mBaseTables;
+    private final int[][] mMinimumSteps;
+
+    private final double mBlockScale;
+    private int mHeaderBytes;
+
+    private JpegSizeTarget(int sampledMcus, int blocksPerMcu, long totalBlocks) {
+        mCoefficients = new short[sampledMcus * blocksPerMcu * 64];
+        mBlockInfo = new byte[sampledMcus * blocksPerMcu];
+        mBlockCount = mBlockInfo.length;
+        mSourceSteps = new int[4][];
+        mBaseTables = new int[4][];
+        mMinimumSteps = new int[4][];
+        mBlockScale = (double) totalBlocks / mBlockCount;
+    }
+
+    /**
+     * Samples {@code crop} of a 4:2:0 frame, for encoders that use the Annex K tables scaled
+     * by quality: {@link JpegEncoder} and {@code YuvImage.compressToJpeg}.
+     */
+    static JpegSizeTarget forYuv(byte[] yuv, YuvLayout layout, Rect crop) {
+        final int left = crop.left & ~1;
+        final int top = crop.top & ~1;
+        final int width = crop.right - left;
+        final int height = crop.bottom - top;
+        final int mcuColumns = (width + 15) / 16;
+        final int mcuRows = (height + 15) / 16;
+        final int[] runs = sampleRuns(mcuColumns, mcuRows);
+
+        JpegSizeTarget target = new JpegSizeTarget(sampledMcus(runs), 6, (long) mcuColumns * mcuRows * 6);
+        int[] unit = new int[64];
+        Arrays.fill(unit, 1);
+        target.setSlot(0, unit, JpegEncoder.LUMINANCE_QUANT_TABLE, unit);
+        target.setSlot(1, unit, JpegEncoder.CHROMINANCE_QUANT_TABLE, unit);
+
+        final int yOffset = top * layout.getYRowStride() + left;
+        final int uvOffset = (top / 2) * layout.getUvRowStride() + (left / 2) * layout.getUvPixelStride();
+        int[] block = new int[64];
+        int b = 0;
+        for (int i = 0; i < runs.length; i += 2) {
+            int my = runs[i] / mcuColumns;
+            int first = runs[i] % mcuColumns;
+            for (int mx = first; mx < first + runs[i + 1]; mx++) {
+                int runStart = mx == first ? RUN_START : 0;
+                for (int y = 0; y < 4; y++) {
+                    JpegEncoder.loadBlock(yuv, yOffset, layout.getYRowStride(), 1, width, height,
+                            mx * 16 + (y & 1) * 8, my * 16 + (y >> 1) * 8, block);
+                    target.addBlock(b++, block, 0, 0, y == 0 ? runStart : 0);
+                }
+                JpegEncoder.loadBlock(yuv, layout.getUOffset() + uvOffset, layout.getUvRowStride(),
+                        layout.getUvPixelStride(), width / 2, height / 2, mx * 8, my * 8, block);
+                target.addBlock(b++, block, 1, 1, 0);
+                JpegEncoder.loadBlock(yuv, layout.getVOffset() + uvOffset, layout.getUvRowStride(),
+                        layout.getUvPixelStride(), width / 2, height / 2, mx * 8, my * 8, block);
+                target.addBlock(b++, block, 2, 1, 0);
+            }
+        }
+
+        CountingOutputStream headers = new CountingOutputStream();
+        try {
+            new JpegEncoder(100).writeHeaders(headers, width, height, 0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        target.mHeaderBytes = headers.mCount + 2;
+        return target;
+    }
+
+    /**
+     * Samples the MCUs {@link JpegCrop#crop} keeps for {@code crop}. The output is never
+     * quantized finer than the source.
+     */
+    static JpegSizeTarget forJpeg(JpegFrame frame, Rect crop) {
+        return forJpeg(frame, crop.left, crop.top, crop.width(), crop.height());
+    }
+
+    /**
+     * Same as {@link #forJpeg(JpegFrame, Rect)}, for the crop of {@code width} by
+     * {@code height} pixels at ({@code cropLeft}, {@code cropTop}).
+     */
+    static JpegSizeTarget forJpeg(JpegFrame frame, int cropLeft, int cropTop, int width, int height) {
+        final int left = JpegCrop.snap(cropLeft, width, frame.mWidth, frame.mMcuWidth);
+        final int top = JpegCrop.snap(cropTop, height, frame.mHeight, frame.mMcuHeight);
+        final int firstColumn = left / frame.mMcuWidth;
+        final int lastColumn = (left + width - 1) / frame.mMcuWidth;
+        final int firstRow = top / frame.mMcuHeight;
+        final int lastRow = (top + height - 1) / frame.mMcuHeight;
+        final int mcuColumns = lastColumn - firstColumn + 1;
+        final int mcuRows = lastRow - firstRow + 1;
+        final int[] runs = sampleRuns(mcuColumns, mcuRows);
+        final int components = frame.mComponentCount;
+
+        JpegSizeTarget target = new JpegSizeTarget(sampledMcus(runs), frame.mBlocksPerMcu,
+                (long) mcuColumns * mcuRows * frame.mBlocksPerMcu);
+        int luminanceId = frame.mQuantTables[0];
+        for (int c = 0; c < components; c++) {
+            int id = frame.mQuantTables[c];
+            int[] source = frame.mQuantValues[id];
+            int[] steps = new int[64];
+            for (int n = 0; n < 64; n++) {
+                steps[n] = source[n] * 8;
+            }
+            target.setSlot(id, steps, id == luminanceId
+                    ? JpegEncoder.LUMINANCE_QUANT_TABLE
+                    : JpegEncoder.CHROMINANCE_QUANT_TABLE, source);
+        }
+
+        final int mcusX = frame.mMcusX;
+        final int interval = frame.mRestartInterval;
+        JpegBitReader reader = new JpegBitReader(frame.mJpeg, frame.mScanOffset);
+        short[] coefficients = new short[frame.mBlocksPerMcu * 64];
+        int[] dcPredictors = new int[components];
+        int run = 0;
+        int runFirst = toFrameMcu(runs[0], mcuColumns, mcusX, firstRow, firstColumn);
+        int b = 0;
+
+        int mcu = 0;
+        while (run < runs.length) {
+            if (interval > 0 && mcu % interval == 0) {
+                if (mcu > 0) {
+                    reader.skipToRestart();
+                    Arrays.fill(dcPredictors, 0);
+                }
+                // Runs are in scan order, so the interval holds a sampled MCU only if it
+                // reaches the next run.
+                if (mcu + interval <= runFirst) {
+                    mcu += interval;
+                    continue;
+                }
+            }
+
+            frame.decodeMcu(reader, coefficients, dcPredictors);
+            if (mcu >= runFirst) {
+                int offset = 0;
+                for (int c = 0; c < components; c++) {
+                    int blocks = frame.mHSamples[c] * frame.mVSamples[c];
+                    for (int i = 0; i < blocks; i++) {
+                        int runStart = mcu == runFirst && c == 0 && i == 0 ? RUN_START : 0;
+                        System.arraycopy(coefficients, offset, target.mCoefficients, b * 64, 64);
+                        target.mBlockInfo[b++] = (byte) (c | frame.mQuantTables[c] << 2 | runStart);
+                        offset += 64;
+                    }
+                }
+                if (mcu == runFirst + runs[run + 1] - 1) {
+                    run += 2;
+                    if (run < runs.length) {
+                        runFirst = toFrameMcu(runs[run], mcuColumns, mcusX, firstRow, firstColumn);
+                    }
+                }
+            }
+            mcu++;
+        }
+
+        CountingOutputStream headers = new CountingOutputStream();
+        try {
+            frame.writeHeaders(headers, width, height, 0, false, target.getQuantTables(100));
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        target.mHeaderBytes = headers.mCount + 2;
+        return target;
+    }
+
+    /**
+     * Picks the MCUs to sample from a {@code columns} by {@code rows} grid, as pairs of the
+     * raster index of a run's first MCU and its length, in raster order. Small images are
+     * sampled whole. Otherwise the runs sit in the middle of equal shares of the raster, on
+     * a grid of RUN_MCUS columns, so that they cover every band of rows and drift across
+     * the columns: sampling whole rows misses detail that is confined to a few bands.
+     */
+    private static int[] sampleRuns(int columns, int rows) {
+        final long total = (long) columns * rows;
+        if (total <= MAX_SAMPLED_MCUS) {
+            int[] runs = new int[rows * 2];
+            for (int row = 0; row < rows; row++) {
+                runs[row * 2] = row * columns;
+                runs[row * 2 + 1] = columns;
+            }
+            return runs;
+        }
+
+        final int count = MAX_SAMPLED_MCUS / RUN_MCUS;
+        int[] runs = new int[count * 2];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            long middle = (2L * i + 1) * total / (2L * count);
+            int row = (int) (middle / columns);
+            int first = (int) (middle % columns) / RUN_MCUS * RUN_MCUS;
+            int start = row * columns + first;
+            // Narrow images can put two shares in one slot.
+            if (n > 0 && runs[n - 2] == start) {
+                continue;
+            }
+            runs[n++] = start;
+            runs[n++] = Math.min(RUN_MCUS, columns - first);
+        }
+        return Arrays.copyOf(runs, n);
+    }
+
+    private static int sampledMcus(int[] runs) {
+        int mcus = 0;
+        for (int i = 1; i < runs.length; i += 2) {
+            mcus += runs[i];
+        }
+        return mcus;
+    }
+
+    // Maps a raster index within the crop to one within the whole frame.
+    private static int toFrameMcu(int index, int columns, int mcusX, int firstRow, int firstColumn) {
+        return (firstRow + index / columns) * mcusX + firstColumn + index % columns;
+    }
+
+    private void setSlot(int slot, int[] sourceSteps, int[] baseTable, int[] minimumSteps) {
+        mSourceSteps[slot] = sourceSteps;
+        mBaseTables[slot] = baseTable;
+        mMinimumSteps[slot] = minimumSteps;
+    }
+
+    private void addBlock(int b, int[] block, int component, int slot, int runStart) {
+        JpegEncoder.forwardDct(block);
+        int offset = b * 64;
+        for (int k = 0; k < 64; k++) {
+            mCoefficients[offset + k] = (short) block[JpegFrame.NATURAL_ORDER[k]];
+        }
+        mBlockInfo[b] = (byte) (component | slot << 2 | runStart);
+    }
+
+    /**
+     * Returns the quantization tables for {@code quality}, by slot and in natural order. For
+     * a JPEG the slots are its table ids; for a YUV frame, luminance and chrominance.
+     */
+    int[][] getQuantTables(int quality) {
+        int[][] tables = new int[4][];
+        for (int slot = 0; slot < 4; slot++) {
+            if (mBaseTables[slot] == null) {
+                continue;
+            }
+            int[] table = JpegEncoder.scaleTable(mBaseTables[slot], quality);
+            for (int n = 0; n < 64; n++) {
+                table[n] = Math.max(table[n], mMinimumSteps[slot][n]);
+            }
+            tables[slot] = table;
+        }
+        return tables;
+    }
+
+    /**
+     * Estimates the size in bytes of the whole output at {@code quality}.
+     */
+    long estimate(int quality) {
+        int[][] tables = getQuantTables(quality);
+        // Zigzag ordered source and output steps, both in units of 1/8 of the DCT output.
+        int[][] from = new int[4][];
+        int[][] to = new int[4][];
+        for (int slot = 0; slot < 4; slot++) {
+            if (tables[slot] == null) {
+                continue;
+            }
+            from[slot] = new int[64];
+            to[slot] = new int[64];
+            for (int k = 0; k < 64; k++) {
+                int n = JpegFrame.NATURAL_ORDER[k];
+                from[slot][k] = mSourceSteps[slot][n];
+                to[slot][k] = tables[slot][n] * 8;
+            }
+        }
+
+        short[] quantized = new short[64];
+        int[] dcPredictors = new int[3];
+        long bits = 0;
+        for (int b = 0; b < mBlockCount; b++) {
+            int info = mBlockInfo[b];
+            int component = info & 0x03;
+            int slot = (info >> 2) & 0x03;
+            if ((info & RUN_START) != 0) {
+                Arrays.fill(dcPredictors, 0);
+            }
+            int[] sourceSteps = from[slot];
+            int[] steps = to[slot];
+            int offset = b * 64;
+            for (int k = 0; k < 64; k++) {
+                int value = mCoefficients[offset + k] * sourceSteps[k];
+                int step = steps[k];
+                quantized[k] = (short) (value < 0 ? -((-value + step / 2) / step) : (value + step / 2) / step);
+            }
+            bits += JpegBitWriter.countBits(quantized, 0, quantized[0] - dcPredictors[component],
+                    JpegFrame.outputDcTable(component), JpegFrame.outputAcTable(component));
+            dcPredictors[component] = quantized[0];
+        }
+
+        // About one entropy coded byte in 256 is 0xFF and gets a stuffed zero byte.
+        double bytes = bits * mBlockScale / 8;
+        return mHeaderBytes + (long) (bytes + bytes / 256);
+    }
+
+    /**
+     * Returns the output of {@code encoder} at the highest quality up to {@code maxQuality}
+     * that fits {@code maxBytes}. When even quality 1 does not fit, returns its output
+     * anyway, so the result is over budget only if no quality can meet it.
+     */
+    byte[] encode(int maxQuality, int maxBytes, Encoder encoder) {
+        double bias = 1;
+        int highest = Math.max(1, Math.min(100, maxQuality));
+        byte[] output = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            int quality = search(highest, maxBytes, bias);
+            output = encoder.encode(quality);
+            if (output.length <= maxBytes || quality == 1) {
+                return output;
+            }
+            bias = (double) output.length / estimate(quality);
+            highest = quality - 1;
+        }
+        return output;
+    }
+
+    // Largest quality in [1, highest] whose corrected estimate, plus the margin, fits, or 1.
+    private int search(int highest, int maxBytes, double bias) {
+        bias *= ESTIMATE_MARGIN;
+        int low = 1;
+        int high = highest;
+        while (low < high) {
+            int mid = (low + high + 1) / 2;
+            if (estimate(mid) * bias <= maxBytes) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private int mCount;
+
+        @Override
+        public void write(int b) {
+            mCount++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            mCount += len;
+        }
+
+    }
+
+}
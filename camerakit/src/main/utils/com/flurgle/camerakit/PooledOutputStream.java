@@ -0,0 +1,91 @@
+package com.flurgle.camerakit;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Growable in-memory sink backed by fixed size chunks from a {@link BufferPool}. Unlike
+ * {@link java.io.ByteArrayOutputStream} it never copies while growing; the only copy is
+ * the final {@link #toByteArray()}. Call {@link #release()} to hand the chunks back.
+ */
+public class PooledOutputStream extends OutputStream {
+
+    static final int CHUNK_SIZE = 64 * 1024;
+
+    private final BufferPool mPool;
+    private final List<byte[]> mChunks = new ArrayList<>();
+    private byte[] mCurrent;
+    private int mPosition;
+    private int mSize;
+
+    public PooledOutputStream(BufferPool pool) {
+        mPool = pool;
+    }
+
+    @Override
+    public void write(int b) {
+        if (mCurrent == null || mPosition == CHUNK_SIZE) {
+            nextChunk();
+        }
+        mCurrent[mPosition++] = (byte) b;
+        mSize++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        while (len > 0) {
+            if (mCurrent == null || mPosition == CHUNK_SIZE) {
+                nextChunk();
+            }
+            int count = Math.min(len, CHUNK_SIZE - mPosition);
+            System.arraycopy(b, off, mCurrent, mPosition, count);
+            mPosition += count;
+            mSize += count;
+            off += count;
+            len -= count;
+        }
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public byte[] toByteArray() {
+        byte[] output = new byte[mSize];
+        int offset = 0;
+        for (byte[] chunk : mChunks) {
+            int count = Math.min(CHUNK_SIZE, mSize - offset);
+            System.arraycopy(chunk, 0, output, offset, count);
+            offset += count;
+        }
+        return output;
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        int offset = 0;
+        for (byte[] chunk : mChunks) {
+            int count = Math.min(CHUNK_SIZE, mSize - offset);
+            out.write(chunk, 0, count);
+            offset += count;
+        }
+    }
+
+    public void release() {
+        for (byte[] chunk : mChunks) {
+            mPool.release(chunk);
+        }
+        mChunks.clear();
+        mCurrent = null;
+        mPosition = 0;
+        mSize = 0;
+    }
+
+    private void nextChunk() {
+        mCurrent = mPool.acquire(CHUNK_SIZE);
+        mChunks.add(mCurrent);
+        mPosition = 0;
+    }
+
+}
@@ -0,0 +1,70 @@
+package com.flurgle.camerakit;
+
+import android.os.Process;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Default executor for post-capture work (rotate, crop, encode), kept off both the UI and
+ * the camera thread. A single thread is enough: the heavy steps fan out over
+ * {@link StripeExecutor} themselves. The thread runs at background priority so it does not
+ * compete with the UI. The queue is bounded, so a capture submitted while it is full is
+ * rejected with a {@link java.util.concurrent.RejectedExecutionException}; still captures
+ * are bounded further by {@link StillQueue}.
+ */
+final class ProcessingExecutor {
+
+    static final int MAX_QUEUED = 16;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static Executor sDefault;
+    private static Executor sEncoding;
+
+    private ProcessingExecutor() {
+    }
+
+    static synchronized Executor getDefault() {
+        if (sDefault == null) {
+            sDefault = create("CameraKit-Processing");
+        }
+        return sDefault;
+    }
+
+    /**
+     * Returns the executor for the encode stage of burst captures, so the next frame can be
+     * rotated and cropped on {@link #getDefault()} while the previous one is encoded.
+     */
+    static synchronized Executor getEncoding() {
+        if (sEncoding == null) {
+            sEncoding = create("CameraKit-Encoding");
+        }
+        return sEncoding;
+    }
+
+    private static Executor create(final String name) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(MAX_QUEUED),
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                r.run();
+                            }
+                        }, name);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+}
@@ -0,0 +1,192 @@
+package com.flurgle.camerakit;
+
+import java.util.List;
+
+/**
+ * Picks a stream size out of what a camera supports by scoring every candidate against a set
+ * of constraints, instead of taking the largest size of the widest aspect ratio.
+ *
+ * Pixel count, bytes per frame, aspect ratio and frame rate are hard limits. Among the sizes
+ * that pass, the one closest to the target size wins: the smallest that covers it, or the
+ * largest if none does; without a target, the largest. If no size passes, the aspect ratio and
+ * frame rate are given up first, then the smallest size is returned, as the one least likely to
+ * run out of memory.
+ *
+ * Candidates are compared by cross-multiplying their sides, so selecting allocates nothing and
+ * returns one of the given instances.
+ */
+final class ResolutionSelector {
+
+    // Sizes a few pixels off a ratio, such as 1088 x 1920 for 9:16, still count as that ratio.
+    static final float ASPECT_TOLERANCE = 0.01f;
+
+    // Ranks every size that covers the target above every size that does not.
+    private static final double UNCOVERED_PENALTY = 1000;
+
+    private int mMaxPixels;
+    private long mMaxBytes;
+    private int mBitsPerPixel = 12;
+    private int mTargetWidth;
+    private int mTargetHeight;
+    private int mRatioWidth;
+    private int mRatioHeight;
+    private float mTolerance;
+    private long mMaxFrameDuration;
+
+    /**
+     * Caps the pixel count; 0 for no limit.
+     */
+    ResolutionSelector setMaxPixels(int maxPixels) {
+        mMaxPixels = maxPixels;
+        return this;
+    }
+
+    /**
+     * Caps the bytes one frame takes at {@code bitsPerPixel}, 12 for YUV 4:2:0; 0 for no limit.
+     */
+    ResolutionSelector setMaxBytesPerFrame(long maxBytes, int bitsPerPixel) {
+        mMaxBytes = maxBytes;
+        mBitsPerPixel = bitsPerPixel;
+        return this;
+    }
+
+    /**
+     * The size the stream is shown or used at, in the same orientation as the candidates; 0
+     * for none, which favours the largest size.
+     */
+    ResolutionSelector setTargetSize(int width, int height) {
+        mTargetWidth = width;
+        mTargetHeight = height;
+        return this;
+    }
+
+    /**
+     * Only accepts sizes within {@code tolerance}, relative, of {@code ratio}; {@code null} for
+     * any ratio.
+     */
+    ResolutionSelector setAspectRatio(AspectRatio ratio, float tolerance) {
+        mRatioWidth = ratio != null ? ratio.getX() : 0;
+        mRatioHeight = ratio != null ? ratio.getY() : 0;
+        mTolerance = tolerance;
+        return this;
+    }
+
+    /**
+     * Only accepts sizes that can stream at {@code fps} or faster; 0 for any rate. Only applies
+     * when the frame durations of the candidates are known.
+     */
+    ResolutionSelector setMinFps(float fps) {
+        mMaxFrameDuration = fps > 0 ? (long) (1000000000L / fps) : 0;
+        return this;
+    }
+
+    Size select(List<Size> sizes) {
+        return select(sizes, null);
+    }
+
+    /**
+     * @param minFrameDurations the minimum frame duration of each size in nanoseconds, in the
+     *                          order of {@code sizes}, or {@code null} when unknown.
+     */
+    Size select(List<Size> sizes, long[] minFrameDurations) {
+        if (sizes.isEmpty()) {
+            return null;
+        }
+        Size best = select(sizes, minFrameDurations, true);
+        if (best == null) {
+            best = select(sizes, null, false);
+        }
+        if (best == null) {
+            best = sizes.get(0);
+            for (int i = 1; i < sizes.size(); i++) {
+                if (area(sizes.get(i)) < area(best)) {
+                    best = sizes.get(i);
+                }
+            }
+        }
+        return best;
+    }
+
+    private Size select(List<Size> sizes, long[] minFrameDurations, boolean strict) {
+        Size best = null;
+        double bestScore = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < sizes.size(); i++) {
+            Size size = sizes.get(i);
+            long pixels = area(size);
+            if (mMaxPixels > 0 && pixels > mMaxPixels) {
+                continue;
+            }
+            if (mMaxBytes > 0 && pixels * mBitsPerPixel / 8 > mMaxBytes) {
+                continue;
+            }
+            if (strict && mRatioWidth > 0 && !matches(size.getWidth(), size.getHeight(),
+                    mRatioWidth, mRatioHeight, mTolerance)) {
+                continue;
+            }
+            if (strict && mMaxFrameDuration > 0 && minFrameDurations != null
+                    && minFrameDurations[i] > mMaxFrameDuration) {
+                continue;
+            }
+
+            double score = score(size);
+            if (score > bestScore) {
+                bestScore = score;
+                best = size;
+            }
+        }
+        return best;
+    }
+
+    private double score(Size size) {
+        double pixels = area(size);
+        if (mTargetWidth <= 0 || mTargetHeight <= 0) {
+            return pixels;
+        }
+        double scale = pixels / ((double) mTargetWidth * mTargetHeight);
+        if (size.getWidth() >= mTargetWidth && size.getHeight() >= mTargetHeight) {
+            // Covers the target: every extra pixel is bandwidth spent for nothing.
+            return -scale;
+        }
+        return scale - UNCOVERED_PENALTY;
+    }
+
+    /**
+     * Returns the widest aspect ratio, within {@code tolerance}, of a preview size covering
+     * {@code minWidth} x {@code minHeight} that one of {@code captureSizes} shares, or
+     * {@code null} if there is none.
+     */
+    static AspectRatio findWidestCommonRatio(List<Size> previewSizes, List<Size> captureSizes,
+                                             int minWidth, int minHeight, float tolerance) {
+        Size widest = null;
+        for (int i = 0; i < previewSizes.size(); i++) {
+            Size preview = previewSizes.get(i);
+            if (preview.getWidth() < minWidth || preview.getHeight() < minHeight) {
+                continue;
+            }
+            if (widest != null && (long) preview.getWidth() * widest.getHeight()
+                    <= (long) widest.getWidth() * preview.getHeight()) {
+                continue;
+            }
+            for (int j = 0; j < captureSizes.size(); j++) {
+                Size capture = captureSizes.get(j);
+                if (matches(capture.getWidth(), capture.getHeight(),
+                        preview.getWidth(), preview.getHeight(), tolerance)) {
+                    widest = preview;
+                    break;
+                }
+            }
+        }
+        return widest != null ? AspectRatio.of(widest.getWidth(), widest.getHeight()) : null;
+    }
+
+    private static boolean matches(int width, int height, int ratioWidth, int ratioHeight, float tolerance) {
+        long a = (long) width * ratioHeight;
+        long b = (long) height * ratioWidth;
+        return Math.abs(a - b) <= tolerance * b;
+    }
+
+    private static long area(Size size) {
+        return (long) size.getWidth() * size.getHeight();
+    }
+
+}
@@ -0,0 +1,237 @@
+package com.flurgle.camerakit;
+
+/**
+ * Cache-blocked plane rotation used by {@link Rotation}.
+ *
+ * Every method walks the destination plane row by row and reads the source through an
+ * affine (origin, stepX, stepY) mapping, so 90 and 270 degree rotations are done in
+ * square tiles that keep both the strided source rows and the destination rows in cache.
+ * Luma is rotated as single bytes and the interleaved VU plane as byte pairs, which
+ * writes every chroma sample exactly once; other chroma layouts are gathered per channel
+ * into NV21. A horizontal mirror of the output is folded into the same walk by reversing
+ * its x step.
+ */
+final class RotationKernel {
+
+    static final int TILE_SIZE = 32;
+
+    private RotationKernel() {
+    }
+
+    static void checkRotation(int rotation) {
+        if (rotation % 90 != 0 || rotation < 0 || rotation > 270) {
+            throw new IllegalArgumentException("0 <= rotation < 360, rotation % 90 == 0");
+        }
+    }
+
+    static void rotateNV21(byte[] yuv, byte[] output, int width, int height, int rotation) {
+        final int outHeight = rotation % 180 != 0 ? width : height;
+        rotate(yuv, YuvLayout.nv21(width, height), output, rotation, false, 0, 0, width, height, 0, outHeight / 2);
+    }
+
+    /**
+     * Rotates the source rect {@code (left, top, cropWidth, cropHeight)} of a frame with the
+     * given layout into a tightly packed NV21 output frame, optionally mirroring the result
+     * horizontally; pixels outside the rect are never read. Only the destination chroma rows
+     * {@code [chromaRowStart, chromaRowEnd)} and the luma rows they cover are written, so
+     * disjoint ranges can run concurrently. The rect must have even coordinates and dimensions.
+     */
+    static void rotate(byte[] yuv, YuvLayout layout, byte[] output, int rotation, boolean mirror,
+                       int left, int top, int cropWidth, int cropHeight,
+                       int chromaRowStart, int chromaRowEnd) {
+        final int outWidth = rotation % 180 != 0 ? cropHeight : cropWidth;
+        final int outHeight = rotation % 180 != 0 ? cropWidth : cropHeight;
+        final int outFrameSize = outWidth * outHeight;
+        final int uvStride = layout.getUvRowStride();
+        final int uvOffset = (top / 2) * uvStride + (left / 2) * layout.getUvPixelStride();
+
+        rotatePlane(yuv, top * layout.getYRowStride() + left, layout.getYRowStride(), output, 0, outWidth,
+                cropWidth, cropHeight, rotation, mirror, chromaRowStart * 2, chromaRowEnd * 2);
+
+        if (layout.hasNV21Chroma()) {
+            rotatePairPlane(yuv, layout.getVOffset() + uvOffset, uvStride, output, outFrameSize, outWidth,
+                    cropWidth / 2, cropHeight / 2, rotation, mirror, chromaRowStart, chromaRowEnd);
+        } else {
+            rotateChannel(yuv, layout.getVOffset() + uvOffset, uvStride, layout.getUvPixelStride(),
+                    output, outFrameSize, outWidth, 2,
+                    cropWidth / 2, cropHeight / 2, rotation, mirror, chromaRowStart, chromaRowEnd);
+            rotateChannel(yuv, layout.getUOffset() + uvOffset, uvStride, layout.getUvPixelStride(),
+                    output, outFrameSize + 1, outWidth, 2,
+                    cropWidth / 2, cropHeight / 2, rotation, mirror, chromaRowStart, chromaRowEnd);
+        }
+    }
+
+    /**
+     * Rotates a plane of single byte samples. {@code width} and {@code height} describe
+     * the source plane; only destination rows {@code [rowStart, rowEnd)} are written.
+     */
+    static void rotatePlane(byte[] src, int srcOffset, int srcStride,
+                            byte[] dst, int dstOffset, int dstStride,
+                            int width, int height, int rotation, boolean mirror, int rowStart, int rowEnd) {
+        final int outWidth = rotation % 180 != 0 ? height : width;
+
+        int origin = srcOffset + origin(rotation, srcStride, 1, width, height);
+        int stepX = stepX(rotation, srcStride, 1);
+        final int stepY = stepY(rotation, srcStride, 1);
+        if (mirror) {
+            origin += (outWidth - 1) * stepX;
+            stepX = -stepX;
+        }
+
+        if (stepX == 1) {
+            for (int y = rowStart; y < rowEnd; y++) {
+                System.arraycopy(src, origin + y * stepY, dst, dstOffset + y * dstStride, outWidth);
+            }
+            return;
+        }
+
+        if (stepX == -1) {
+            for (int y = rowStart; y < rowEnd; y++) {
+                int s = origin + y * stepY;
+                int d = dstOffset + y * dstStride;
+                final int end = d + outWidth;
+                while (d < end) {
+                    dst[d++] = src[s--];
+                }
+            }
+            return;
+        }
+
+        for (int ty = rowStart; ty < rowEnd; ty += TILE_SIZE) {
+            final int tileRowEnd = Math.min(ty + TILE_SIZE, rowEnd);
+            for (int tx = 0; tx < outWidth; tx += TILE_SIZE) {
+                final int tileWidth = Math.min(TILE_SIZE, outWidth - tx);
+                for (int y = ty; y < tileRowEnd; y++) {
+                    int s = origin + tx * stepX + y * stepY;
+                    int d = dstOffset + y * dstStride + tx;
+                    final int end = d + tileWidth;
+                    while (d < end) {
+                        dst[d++] = src[s];
+                        s += stepX;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rotates a plane of interleaved byte pairs such as the VU plane of NV21. {@code width}
+     * and {@code height} are in pairs, strides are in bytes.
+     */
+    static void rotatePairPlane(byte[] src, int srcOffset, int srcStride,
+                                byte[] dst, int dstOffset, int dstStride,
+                                int width, int height, int rotation, boolean mirror, int rowStart, int rowEnd) {
+        final int outWidth = rotation % 180 != 0 ? height : width;
+
+        int origin = srcOffset + origin(rotation, srcStride, 2, width, height);
+        int stepX = stepX(rotation, srcStride, 2);
+        final int stepY = stepY(rotation, srcStride, 2);
+        if (mirror) {
+            origin += (outWidth - 1) * stepX;
+            stepX = -stepX;
+        }
+
+        if (stepX == 2) {
+            for (int y = rowStart; y < rowEnd; y++) {
+                System.arraycopy(src, origin + y * stepY, dst, dstOffset + y * dstStride, outWidth * 2);
+            }
+            return;
+        }
+
+        for (int ty = rowStart; ty < rowEnd; ty += TILE_SIZE) {
+            final int tileRowEnd = Math.min(ty + TILE_SIZE, rowEnd);
+            for (int tx = 0; tx < outWidth; tx += TILE_SIZE) {
+                final int tileWidth = Math.min(TILE_SIZE, outWidth - tx);
+                for (int y = ty; y < tileRowEnd; y++) {
+                    int s = origin + tx * stepX + y * stepY;
+                    int d = dstOffset + y * dstStride + tx * 2;
+                    final int end = d + tileWidth * 2;
+                    while (d < end) {
+                        dst[d++] = src[s];
+                        dst[d++] = src[s + 1];
+                        s += stepX;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Rotates one chroma channel whose samples are {@code srcPixelStride} bytes apart into
+     * samples {@code dstPixelStride} bytes apart, e.g. a planar U or V plane into the
+     * interleaved VU plane of NV21.
+     */
+    static void rotateChannel(byte[] src, int srcOffset, int srcStride, int srcPixelStride,
+                              byte[] dst, int dstOffset, int dstStride, int dstPixelStride,
+                              int width, int height, int rotation, boolean mirror, int rowStart, int rowEnd) {
+        final int outWidth = rotation % 180 != 0 ? height : width;
+
+        int origin = srcOffset + origin(rotation, srcStride, srcPixelStride, width, height);
+        int stepX = stepX(rotation, srcStride, srcPixelStride);
+        final int stepY = stepY(rotation, srcStride, srcPixelStride);
+        if (mirror) {
+            origin += (outWidth - 1) * stepX;
+            stepX = -stepX;
+        }
+
+        for (int ty = rowStart; ty < rowEnd; ty += TILE_SIZE) {
+            final int tileRowEnd = Math.min(ty + TILE_SIZE, rowEnd);
+            for (int tx = 0; tx < outWidth; tx += TILE_SIZE) {
+                final int tileWidth = Math.min(TILE_SIZE, outWidth - tx);
+                for (int y = ty; y < tileRowEnd; y++) {
+                    int s = origin + tx * stepX + y * stepY;
+                    int d = dstOffset + y * dstStride + tx * dstPixelStride;
+                    final int end = d + tileWidth * dstPixelStride;
+                    while (d < end) {
+                        dst[d] = src[s];
+                        d += dstPixelStride;
+                        s += stepX;
+                    }
+                }
+            }
+        }
+    }
+
+    // Source byte offset of destination pixel (0, 0).
+    static int origin(int rotation, int stride, int pixelBytes, int width, int height) {
+        switch (rotation) {
+            case 90:
+                return (height - 1) * stride;
+            case 180:
+                return (height - 1) * stride + (width - 1) * pixelBytes;
+            case 270:
+                return (width - 1) * pixelBytes;
+            default:
+                return 0;
+        }
+    }
+
+    // Source byte distance between horizontally adjacent destination pixels.
+    static int stepX(int rotation, int stride, int pixelBytes) {
+        switch (rotation) {
+            case 90:
+                return -stride;
+            case 180:
+                return -pixelBytes;
+            case 270:
+                return stride;
+            default:
+                return pixelBytes;
+        }
+    }
+
+    // Source byte distance between vertically adjacent destination pixels.
+    static int stepY(int rotation, int stride, int pixelBytes) {
+        switch (rotation) {
+            case 90:
+                return pixelBytes;
+            case 180:
+                return -stride;
+            case 270:
+                return -pixelBytes;
+            default:
+                return stride;
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.flurgle.camerakit;
+
+/**
+ * Fused rotate and box downscale of 4:2:0 frames into NV21.
+ *
+ * Each destination pixel averages the box of source pixels it covers. Boxes are computed
+ * in rotated space and mapped back through the same affine walk as {@link RotationKernel},
+ * so every source pixel inside the crop is read once and the full resolution rotated frame
+ * is never materialised.
+ */
+final class ScaleKernel {
+
+    private ScaleKernel() {
+    }
+
+    /**
+     * Rotates (and optionally mirrors) the source rect {@code (left, top, cropWidth, cropHeight)}
+     * of a frame with the given layout and scales it down into a {@code outWidth} x
+     * {@code outHeight} NV21 frame. Only destination chroma rows
+     * {@code [chromaRowStart, chromaRowEnd)} and the luma rows they cover are written.
+     */
+    static void scale(byte[] yuv, YuvLayout layout, byte[] output, int rotation, boolean mirror,
+                      int left, int top, int cropWidth, int cropHeight,
+                      int outWidth, int outHeight, int chromaRowStart, int chromaRowEnd) {
+        final int outFrameSize = outWidth * outHeight;
+        final int uvStride = layout.getUvRowStride();
+        final int uvPixelStride = layout.getUvPixelStride();
+        final int uvOffset = (top / 2) * uvStride + (left / 2) * uvPixelStride;
+
+        scaleChannel(yuv, top * layout.getYRowStride() + left, layout.getYRowStride(), 1, output, 0, outWidth, 1,
+                cropWidth, cropHeight, rotation, mirror, outWidth, outHeight,
+                chromaRowStart * 2, chromaRowEnd * 2);
+        scaleChannel(yuv, layout.getVOffset() + uvOffset, uvStride, uvPixelStride, output, outFrameSize, outWidth, 2,
+                cropWidth / 2, cropHeight / 2, rotation, mirror, outWidth / 2, outHeight / 2,
+                chromaRowStart, chromaRowEnd);
+        scaleChannel(yuv, layout.getUOffset() + uvOffset, uvStride, uvPixelStride, output, outFrameSize + 1, outWidth, 2,
+                cropWidth / 2, cropHeight / 2, rotation, mirror, outWidth / 2, outHeight / 2,
+                chromaRowStart, chromaRowEnd);
+    }
+
+    /**
+     * Scales one channel whose samples are {@code srcPixelStride} bytes apart into samples
+     * {@code dstPixelStride} bytes apart.
+     */
+    static void scaleChannel(byte[] src, int srcOffset, int srcStride, int srcPixelStride,
+                             byte[] dst, int dstOffset, int dstStride, int dstPixelStride,
+                             int width, int height, int rotation, boolean mirror, int outWidth, int outHeight,
+                             int rowStart, int rowEnd) {
+        final int rotatedWidth = rotation % 180 != 0 ? height : width;
+        final int rotatedHeight = rotation % 180 != 0 ? width : height;
+
+        int origin = srcOffset + RotationKernel.origin(rotation, srcStride, srcPixelStride, width, height);
+        int stepX = RotationKernel.stepX(rotation, srcStride, srcPixelStride);
+        final int stepY = RotationKernel.stepY(rotation, srcStride, srcPixelStride);
+        if (mirror) {
+            origin += (rotatedWidth - 1) * stepX;
+            stepX = -stepX;
+        }
+
+        final int[] boxX = boxEdges(rotatedWidth, outWidth);
+        final int[] boxY = boxEdges(rotatedHeight, outHeight);
+
+        for (int y = rowStart; y < rowEnd; y++) {
+            final int y0 = boxY[y];
+            final int y1 = boxY[y + 1];
+            int d = dstOffset + y * dstStride;
+
+            for (int x = 0; x < outWidth; x++) {
+                final int x0 = boxX[x];
+                final int x1 = boxX[x + 1];
+                final int count = (x1 - x0) * (y1 - y0);
+
+                int sum = 0;
+                for (int ry = y0; ry < y1; ry++) {
+                    int s = origin + x0 * stepX + ry * stepY;
+                    for (int rx = x0; rx < x1; rx++) {
+                        sum += src[s] & 0xff;
+                        s += stepX;
+                    }
+                }
+
+                dst[d] = (byte) ((sum + count / 2) / count);
+                d += dstPixelStride;
+            }
+        }
+    }
+
+    // Edges of the source boxes along one axis; box i spans [edges[i], edges[i + 1]).
+    private static int[] boxEdges(int sourceLength, int targetLength) {
+        int[] edges = new int[targetLength + 1];
+        for (int i = 0; i <= targetLength; i++) {
+            edges[i] = (int) ((long) i * sourceLength / targetLength);
+        }
+        return edges;
+    }
+
+}
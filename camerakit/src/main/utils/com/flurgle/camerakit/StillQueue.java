@@ -0,0 +1,145 @@
+package com.flurgle.camerakit;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.flurgle.camerakit.CameraKit.Constants.STILL_OVERFLOW_COALESCE;
+
+/**
+ * Admission control for still captures in front of the processing executor. At most
+ * {@code maxQueued} stills wait to start; when another one arrives the overflow policy
+ * either drops it or drops the oldest waiting still in its favour, so rapid capture never
+ * piles up frames. Each admitted still submits one drain task that runs whichever still is
+ * first in line when it starts, so a still replaced while waiting costs nothing.
+ */
+final class StillQueue {
+
+    interface Task extends Runnable {
+        /**
+         * Called instead of {@link #run()} for a still that is dropped; releases its frame.
+         */
+        void discard();
+    }
+
+    private final ArrayDeque<Task> mPending = new ArrayDeque<>();
+    private final Runnable mDrain = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private Executor mExecutor;
+    private int mMaxQueued;
+    @StillOverflow
+    private int mOverflow;
+
+    private int mInFlight;
+    private long mDropped;
+
+    StillQueue(Executor executor, int maxQueued, @StillOverflow int overflow) {
+        mExecutor = executor;
+        mMaxQueued = Math.max(1, maxQueued);
+        mOverflow = overflow;
+    }
+
+    synchronized void setExecutor(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Returns the executor stills are processed on; bursts use it directly, in order.
+     */
+    synchronized Executor getExecutor() {
+        return mExecutor;
+    }
+
+    synchronized void setMaxQueued(int maxQueued) {
+        mMaxQueued = Math.max(1, maxQueued);
+        while (mPending.size() > mMaxQueued) {
+            discard(mPending.pollFirst());
+        }
+    }
+
+    synchronized void setOverflow(@StillOverflow int overflow) {
+        mOverflow = overflow;
+    }
+
+    void submit(Task task) {
+        Task dropped = null;
+        Executor executor;
+        synchronized (this) {
+            if (mPending.size() >= mMaxQueued) {
+                if (mOverflow != STILL_OVERFLOW_COALESCE || mPending.isEmpty()) {
+                    mDropped++;
+                    dropped = task;
+                } else {
+                    // The drain task already submitted for the replaced still runs this one.
+                    dropped = mPending.pollFirst();
+                    mDropped++;
+                    mPending.addLast(task);
+                }
+                executor = null;
+            } else {
+                mPending.addLast(task);
+                executor = mExecutor;
+            }
+        }
+        if (dropped != null) {
+            dropped.discard();
+        }
+        if (executor == null) {
+            return;
+        }
+
+        try {
+            executor.execute(mDrain);
+        } catch (RejectedExecutionException e) {
+            Task rejected;
+            synchronized (this) {
+                rejected = mPending.pollLast();
+                mDropped++;
+            }
+            if (rejected != null) {
+                rejected.discard();
+            }
+        }
+    }
+
+    synchronized int getQueuedCount() {
+        return mPending.size();
+    }
+
+    synchronized int getInFlightCount() {
+        return mInFlight;
+    }
+
+    synchronized long getDroppedCount() {
+        return mDropped;
+    }
+
+    private void drain() {
+        Task task;
+        synchronized (this) {
+            task = mPending.pollFirst();
+            if (task == null) {
+                return;
+            }
+            mInFlight++;
+        }
+        try {
+            task.run();
+        } finally {
+            synchronized (this) {
+                mInFlight--;
+            }
+        }
+    }
+
+    private void discard(Task task) {
+        mDropped++;
+        task.discard();
+    }
+
+}
@@ -0,0 +1,141 @@
+package com.flurgle.camerakit;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Library owned, bounded worker pool that splits a range of rows into independent stripes,
+ * runs them in parallel and waits for all of them (fork/join without {@code ForkJoinPool},
+ * which is not available below API 21). The calling thread always processes one stripe
+ * itself, and calls made from a worker thread run serially so nested use cannot deadlock.
+ */
+final class StripeExecutor {
+
+    interface Task {
+        void run(int start, int end);
+    }
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static StripeExecutor sInstance;
+
+    private final ThreadPoolExecutor mExecutor;
+    private final int mParallelism;
+    private final ThreadLocal<Boolean> mIsWorker = new ThreadLocal<>();
+
+    static synchronized StripeExecutor get() {
+        if (sInstance == null) {
+            sInstance = new StripeExecutor(Runtime.getRuntime().availableProcessors());
+        }
+        return sInstance;
+    }
+
+    StripeExecutor(int parallelism) {
+        mParallelism = Math.max(1, parallelism);
+        mExecutor = new ThreadPoolExecutor(
+                Math.max(1, mParallelism - 1),
+                Math.max(1, mParallelism - 1),
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        Thread thread = new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                mIsWorker.set(Boolean.TRUE);
+                                r.run();
+                            }
+                        }, "CameraKit-Stripe-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    int getParallelism() {
+        return mParallelism;
+    }
+
+    /**
+     * Runs {@code task} over {@code [0, count)} split into at most {@link #getParallelism()}
+     * stripes. Stripe boundaries are multiples of {@code alignment}, except for the last one.
+     */
+    void execute(int count, int alignment, final Task task) {
+        int stripes = Math.min(mParallelism, (count + alignment - 1) / alignment);
+        if (stripes <= 1 || Boolean.TRUE.equals(mIsWorker.get())) {
+            task.run(0, count);
+            return;
+        }
+
+        int units = (count + alignment - 1) / alignment;
+        final CountDownLatch latch = new CountDownLatch(stripes - 1);
+        final Throwable[] failure = new Throwable[1];
+
+        int start = 0;
+        int firstEnd = 0;
+        for (int i = 0; i < stripes; i++) {
+            final int stripeStart = start;
+            final int stripeEnd = Math.min(count, (int) ((long) units * (i + 1) / stripes) * alignment);
+            start = stripeEnd;
+            if (i == 0) {
+                firstEnd = stripeEnd;
+                continue;
+            }
+
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run(stripeStart, stripeEnd);
+                    } catch (Throwable t) {
+                        synchronized (failure) {
+                            failure[0] = t;
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            });
+        }
+
+        try {
+            task.run(0, firstEnd);
+        } finally {
+            awaitUninterruptibly(latch);
+        }
+
+        synchronized (failure) {
+            if (failure[0] instanceof RuntimeException) {
+                throw (RuntimeException) failure[0];
+            } else if (failure[0] instanceof Error) {
+                throw (Error) failure[0];
+            } else if (failure[0] != null) {
+                throw new RuntimeException(failure[0]);
+            }
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package com.flurgle.camerakit;
+
+import android.graphics.ImageFormat;
+
+/**
+ * Memory layout of a 4:2:0 YUV frame: plane offsets, row strides and the distance between
+ * neighbouring chroma samples (2 for the semi-planar NV21/NV12, 1 for the planar YV12/I420).
+ */
+public class YuvLayout {
+
+    private final int mWidth;
+    private final int mHeight;
+    private final int mYRowStride;
+    private final int mUOffset;
+    private final int mVOffset;
+    private final int mUvRowStride;
+    private final int mUvPixelStride;
+    private final int mLength;
+
+    private YuvLayout(int width, int height, int yRowStride, int uOffset, int vOffset,
+                      int uvRowStride, int uvPixelStride, int length) {
+        mWidth = width;
+        mHeight = height;
+        mYRowStride = yRowStride;
+        mUOffset = uOffset;
+        mVOffset = vOffset;
+        mUvRowStride = uvRowStride;
+        mUvPixelStride = uvPixelStride;
+        mLength = length;
+    }
+
+    public static YuvLayout nv21(int width, int height) {
+        int frameSize = width * height;
+        return new YuvLayout(width, height, width, frameSize + 1, frameSize, width, 2, frameSize * 3 / 2);
+    }
+
+    public static YuvLayout nv12(int width, int height) {
+        int frameSize = width * height;
+        return new YuvLayout(width, height, width, frameSize, frameSize + 1, width, 2, frameSize * 3 / 2);
+    }
+
+    /**
+     * YV12 as produced by {@code android.hardware.Camera}: rows are aligned to 16 bytes
+     * in every plane and the V plane comes before the U plane.
+     */
+    public static YuvLayout yv12(int width, int height) {
+        int yStride = align16(width);
+        int uvStride = align16(yStride / 2);
+        int ySize = yStride * height;
+        int uvSize = uvStride * height / 2;
+        return new YuvLayout(width, height, yStride, ySize + uvSize, ySize, uvStride, 1, ySize + uvSize * 2);
+    }
+
+    public static YuvLayout i420(int width, int height) {
+        int frameSize = width * height;
+        int uvSize = frameSize / 4;
+        return new YuvLayout(width, height, width, frameSize, frameSize + uvSize, width / 2, 1, frameSize + uvSize * 2);
+    }
+
+    public static YuvLayout forImageFormat(int imageFormat, int width, int height) {
+        switch (imageFormat) {
+            case ImageFormat.NV21:
+                return nv21(width, height);
+            case ImageFormat.YV12:
+                return yv12(width, height);
+            default:
+                throw new IllegalArgumentException("Unsupported preview format: " + imageFormat);
+        }
+    }
+
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    public int getYRowStride() {
+        return mYRowStride;
+    }
+
+    public int getUOffset() {
+        return mUOffset;
+    }
+
+    public int getVOffset() {
+        return mVOffset;
+    }
+
+    public int getUvRowStride() {
+        return mUvRowStride;
+    }
+
+    public int getUvPixelStride() {
+        return mUvPixelStride;
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * True when the chroma samples are interleaved V then U, so a VU pair can be copied as
+     * a unit into NV21 output.
+     */
+    boolean hasNV21Chroma() {
+        return mUvPixelStride == 2 && mUOffset == mVOffset + 1;
+    }
+
+    /**
+     * True when the frame already is tightly packed NV21.
+     */
+    boolean isNV21() {
+        return hasNV21Chroma() && mYRowStride == mWidth && mUvRowStride == mWidth && mVOffset == mWidth * mHeight;
+    }
+
+    private static int align16(int value) {
+        return (value + 15) & ~15;
+    }
+
+}
@@ -0,0 +1,163 @@
+package com.flurgle.camerakit;
+
+import android.graphics.Rect;
+
+/**
+ * Single pass still pipeline from a 4:2:0 frame (see {@link YuvLayout}) to NV21: rotate,
+ * mirror, center crop and downscale.
+ * The crop and size limits are evaluated on the rotated image, and only the source
+ * pixels that end up in the output are touched.
+ */
+final class YuvTransform {
+
+    // Below this many pixels the cost of waking worker threads outweighs the parallel speedup.
+    static final int PARALLEL_THRESHOLD = 640 * 480;
+
+    private int mRotation;
+    private boolean mMirror;
+    private AspectRatio mCropRatio;
+    private int mMaxLongEdge;
+    private int mMaxPixels;
+
+    private int mOutputWidth;
+    private int mOutputHeight;
+
+    YuvTransform setRotation(int rotation) {
+        RotationKernel.checkRotation(rotation);
+        mRotation = rotation;
+        return this;
+    }
+
+    /**
+     * Flips the output horizontally, after rotation. Used for front facing captures so
+     * the still matches the mirrored preview.
+     */
+    YuvTransform setMirror(boolean mirror) {
+        mMirror = mirror;
+        return this;
+    }
+
+    YuvTransform setCropRatio(AspectRatio cropRatio) {
+        mCropRatio = cropRatio;
+        return this;
+    }
+
+    YuvTransform setMaxLongEdge(int maxLongEdge) {
+        mMaxLongEdge = maxLongEdge;
+        return this;
+    }
+
+    YuvTransform setMaxPixels(int maxPixels) {
+        mMaxPixels = maxPixels;
+        return this;
+    }
+
+    int getOutputWidth() {
+        return mOutputWidth;
+    }
+
+    int getOutputHeight() {
+        return mOutputHeight;
+    }
+
+    byte[] apply(byte[] yuv, int width, int height, BufferPool pool) {
+        return apply(yuv, YuvLayout.nv21(width, height), pool);
+    }
+
+    /**
+     * Returns the transformed NV21 frame, or {@code yuv} itself when it already is NV21 and
+     * there is nothing to do. New buffers are taken from {@code pool} when it is not null.
+     */
+    byte[] apply(final byte[] yuv, final YuvLayout layout, BufferPool pool) {
+        final int width = layout.getWidth();
+        final int height = layout.getHeight();
+        final int rotation = mRotation;
+        final boolean swap = rotation % 180 != 0;
+        final int rotatedWidth = swap ? height : width;
+        final int rotatedHeight = swap ? width : height;
+
+        // Crop in output space, snapped to the 2x2 chroma grid.
+        int outLeft = 0;
+        int outTop = 0;
+        int outWidth = rotatedWidth;
+        int outHeight = rotatedHeight;
+        if (mCropRatio != null) {
+            Rect crop = CenterCrop.getCrop(rotatedWidth, rotatedHeight, mCropRatio);
+            outLeft = crop.left & ~1;
+            outTop = crop.top & ~1;
+            outWidth = Math.min(crop.width() & ~1, rotatedWidth - outLeft);
+            outHeight = Math.min(crop.height() & ~1, rotatedHeight - outTop);
+        }
+
+        double scale = 1;
+        if (mMaxLongEdge > 0) {
+            scale = Math.min(scale, (double) mMaxLongEdge / Math.max(outWidth, outHeight));
+        }
+        if (mMaxPixels > 0) {
+            scale = Math.min(scale, Math.sqrt((double) mMaxPixels / ((long) outWidth * outHeight)));
+        }
+        final int scaledWidth = scale < 1 ? Math.max(2, (int) (outWidth * scale) & ~1) : outWidth;
+        final int scaledHeight = scale < 1 ? Math.max(2, (int) (outHeight * scale) & ~1) : outHeight;
+        final boolean scaled = scaledWidth != outWidth || scaledHeight != outHeight;
+
+        mOutputWidth = scaledWidth;
+        mOutputHeight = scaledHeight;
+        final boolean mirror = mMirror;
+        final boolean nv21 = layout.isNV21();
+        if (rotation == 0 && !mirror && mCropRatio == null && !scaled && nv21) {
+            return yuv;
+        }
+
+        // Map the crop back onto the source frame, undoing the mirror first.
+        if (mirror) {
+            outLeft = rotatedWidth - outLeft - outWidth;
+        }
+        final int left;
+        final int top;
+        switch (rotation) {
+            case 90:
+                left = outTop;
+                top = height - outLeft - outWidth;
+                break;
+            case 180:
+                left = width - outLeft - outWidth;
+                top = height - outTop - outHeight;
+                break;
+            case 270:
+                left = width - outTop - outHeight;
+                top = outLeft;
+                break;
+            default:
+                left = outLeft;
+                top = outTop;
+                break;
+        }
+        final int cropWidth = swap ? outHeight : outWidth;
+        final int cropHeight = swap ? outWidth : outHeight;
+
+        final int length = mCropRatio == null && !scaled && nv21 ? yuv.length : scaledWidth * scaledHeight * 3 / 2;
+        final byte[] output = pool != null ? pool.acquire(length) : new byte[length];
+
+        StripeExecutor.Task task = new StripeExecutor.Task() {
+            @Override
+            public void run(int start, int end) {
+                if (scaled) {
+                    ScaleKernel.scale(yuv, layout, output, rotation, mirror, left, top, cropWidth, cropHeight,
+                            scaledWidth, scaledHeight, start, end);
+                } else {
+                    RotationKernel.rotate(yuv, layout, output, rotation, mirror, left, top, cropWidth, cropHeight,
+                            start, end);
+                }
+            }
+        };
+
+        StripeExecutor executor = StripeExecutor.get();
+        if (cropWidth * cropHeight < PARALLEL_THRESHOLD || executor.getParallelism() < 2) {
+            task.run(0, scaledHeight / 2);
+        } else {
+            executor.execute(scaledHeight / 2, RotationKernel.TILE_SIZE / 2, task);
+        }
+        return output;
+    }
+
+}
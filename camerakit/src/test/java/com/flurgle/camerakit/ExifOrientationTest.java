@@ -0,0 +1,206 @@
+package com.flurgle.camerakit;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+public class ExifOrientationTest {
+
+    private static final int TAG_MAKE = 0x010F;
+    private static final int TAG_ORIENTATION = 0x0112;
+    private static final int TAG_X_RESOLUTION = 0x011A;
+
+    private static final int TYPE_ASCII = 2;
+    private static final int TYPE_SHORT = 3;
+    private static final int TYPE_RATIONAL = 5;
+
+    private static final String MAKE = "CameraKit";
+
+    @Test
+    public void patchesExistingTagInPlace() throws IOException {
+        for (boolean bigEndian : new boolean[]{true, false}) {
+            byte[] jpeg = withExif(jfif(), tiff(bigEndian, true));
+            byte[] tagged = new ExifOrientation(jpeg, ExifOrientation.ORIENTATION_ROTATE_270).getJpeg();
+
+            assertEquals(jpeg.length, tagged.length);
+            assertEquals(ExifOrientation.ORIENTATION_ROTATE_270, ExifOrientation.read(tagged));
+            int differing = 0;
+            for (int i = 0; i < jpeg.length; i++) {
+                if (jpeg[i] != tagged[i]) {
+                    differing++;
+                }
+            }
+            // Only the low byte of the SHORT value changes, 6 to 8.
+            assertEquals(1, differing);
+            assertDecodes(tagged);
+        }
+    }
+
+    @Test
+    public void appendsTagToIfdWithoutOne() throws IOException {
+        for (boolean bigEndian : new boolean[]{true, false}) {
+            byte[] jpeg = withExif(jfif(), tiff(bigEndian, false));
+            assertEquals(ExifOrientation.ORIENTATION_UNDEFINED, ExifOrientation.read(jpeg));
+
+            byte[] tagged = new ExifOrientation(jpeg, ExifOrientation.ORIENTATION_TRANSPOSE).getJpeg();
+            assertEquals(ExifOrientation.ORIENTATION_TRANSPOSE, ExifOrientation.read(tagged));
+
+            // The other entries keep their values and the tags stay sorted.
+            Ifd ifd = Ifd.read(tagged);
+            assertArrayEquals(new int[]{TAG_MAKE, TAG_ORIENTATION, TAG_X_RESOLUTION}, ifd.tags);
+            assertEquals(MAKE, ifd.readAscii(0));
+            assertEquals(72, ifd.readLong(2, 0));
+            assertEquals(1, ifd.readLong(2, 4));
+            assertDecodes(tagged);
+        }
+    }
+
+    @Test
+    public void insertsSegmentIntoJfifJpeg() throws IOException {
+        byte[] jpeg = jfif();
+        assertEquals(ExifOrientation.ORIENTATION_UNDEFINED, ExifOrientation.read(jpeg));
+
+        byte[] tagged = new ExifOrientation(jpeg, ExifOrientation.ORIENTATION_ROTATE_90).getJpeg();
+        assertEquals(ExifOrientation.ORIENTATION_ROTATE_90, ExifOrientation.read(tagged));
+
+        // The JFIF header stays first and the image data is untouched.
+        int app0End = 4 + (((jpeg[4] & 0xff) << 8) | (jpeg[5] & 0xff));
+        assertArrayEquals(Arrays.copyOf(jpeg, app0End), Arrays.copyOf(tagged, app0End));
+        assertEquals(0xFF, tagged[app0End] & 0xff);
+        assertEquals(0xE1, tagged[app0End + 1] & 0xff);
+        int inserted = tagged.length - jpeg.length;
+        assertArrayEquals(Arrays.copyOfRange(jpeg, app0End, jpeg.length),
+                Arrays.copyOfRange(tagged, app0End + inserted, tagged.length));
+        assertDecodes(tagged);
+    }
+
+    @Test
+    public void forRotation() {
+        int[][] expected = {
+                {0, ExifOrientation.ORIENTATION_NORMAL, ExifOrientation.ORIENTATION_FLIP_HORIZONTAL},
+                {90, ExifOrientation.ORIENTATION_ROTATE_90, ExifOrientation.ORIENTATION_TRANSPOSE},
+                {180, ExifOrientation.ORIENTATION_ROTATE_180, ExifOrientation.ORIENTATION_FLIP_VERTICAL},
+                {270, ExifOrientation.ORIENTATION_ROTATE_270, ExifOrientation.ORIENTATION_TRANSVERSE},
+        };
+        for (int[] row : expected) {
+            assertEquals("rotation " + row[0], row[1], ExifOrientation.forRotation(row[0], false));
+            assertEquals("rotation " + row[0] + " mirrored", row[2], ExifOrientation.forRotation(row[0], true));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void forRotationRejectsOtherAngles() {
+        ExifOrientation.forRotation(45, false);
+    }
+
+    private static byte[] jfif() throws IOException {
+        BufferedImage image = new BufferedImage(16, 16, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 16; y++) {
+            for (int x = 0; x < 16; x++) {
+                image.setRGB(x, y, (x * 16) << 16 | (y * 16) << 8 | 128);
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpeg", out);
+        byte[] jpeg = out.toByteArray();
+        assertEquals(0xE0, jpeg[3] & 0xff);
+        return jpeg;
+    }
+
+    private static void assertDecodes(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull(image);
+        assertEquals(16, image.getWidth());
+    }
+
+    // Inserts an Exif APP1 holding tiff after the JFIF APP0 segment.
+    private static byte[] withExif(byte[] jpeg, byte[] tiff) {
+        int app0End = 4 + (((jpeg[4] & 0xff) << 8) | (jpeg[5] & 0xff));
+        int length = 2 + 6 + tiff.length;
+        ByteBuffer out = ByteBuffer.allocate(jpeg.length + 2 + length);
+        out.put(jpeg, 0, app0End);
+        out.put((byte) 0xFF).put((byte) 0xE1).putShort((short) length);
+        out.put(new byte[]{'E', 'x', 'i', 'f', 0, 0}).put(tiff);
+        out.put(jpeg, app0End, jpeg.length - app0End);
+        return out.array();
+    }
+
+    /**
+     * A TIFF header and an IFD0 with Make, Orientation 6 if {@code orientation} and
+     * XResolution 72/1, whose Make and XResolution values live after the IFD.
+     */
+    private static byte[] tiff(boolean bigEndian, boolean orientation) {
+        int count = orientation ? 3 : 2;
+        int dataStart = 8 + 2 + count * 12 + 4;
+        ByteBuffer tiff = ByteBuffer.allocate(dataStart + MAKE.length() + 1 + 8)
+                .order(bigEndian ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+        tiff.put((byte) (bigEndian ? 'M' : 'I')).put((byte) (bigEndian ? 'M' : 'I'));
+        tiff.putShort((short) 42).putInt(8);
+        tiff.putShort((short) count);
+        tiff.putShort((short) TAG_MAKE).putShort((short) TYPE_ASCII).putInt(MAKE.length() + 1).putInt(dataStart);
+        if (orientation) {
+            tiff.putShort((short) TAG_ORIENTATION).putShort((short) TYPE_SHORT).putInt(1)
+                    .putShort((short) ExifOrientation.ORIENTATION_ROTATE_90).putShort((short) 0);
+        }
+        tiff.putShort((short) TAG_X_RESOLUTION).putShort((short) TYPE_RATIONAL).putInt(1)
+                .putInt(dataStart + MAKE.length() + 1);
+        tiff.putInt(0);
+        tiff.put(MAKE.getBytes()).put((byte) 0);
+        tiff.putInt(72).putInt(1);
+        return tiff.array();
+    }
+
+    // Reads IFD0 of the first Exif APP1, independently of ExifOrientation.
+    private static class Ifd {
+
+        ByteBuffer tiff;
+        int[] tags;
+        int[] values;
+
+        static Ifd read(byte[] jpeg) {
+            int p = 2;
+            while ((jpeg[p + 1] & 0xff) != 0xE1) {
+                p += 2 + (((jpeg[p + 2] & 0xff) << 8) | (jpeg[p + 3] & 0xff));
+            }
+            int length = ((jpeg[p + 2] & 0xff) << 8) | (jpeg[p + 3] & 0xff);
+            Ifd ifd = new Ifd();
+            ifd.tiff = ByteBuffer.wrap(jpeg, p + 10, length - 8).slice();
+            ifd.tiff.order(jpeg[p + 10] == 'M' ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN);
+            int offset = ifd.tiff.getInt(4);
+            int count = ifd.tiff.getShort(offset) & 0xffff;
+            ifd.tags = new int[count];
+            ifd.values = new int[count];
+            for (int i = 0; i < count; i++) {
+                ifd.tags[i] = ifd.tiff.getShort(offset + 2 + i * 12) & 0xffff;
+                ifd.values[i] = ifd.tiff.getInt(offset + 2 + i * 12 + 8);
+            }
+            return ifd;
+        }
+
+        String readAscii(int entry) {
+            StringBuilder value = new StringBuilder();
+            for (int i = values[entry]; tiff.get(i) != 0; i++) {
+                value.append((char) tiff.get(i));
+            }
+            return value.toString();
+        }
+
+        int readLong(int entry, int offset) {
+            return tiff.getInt(values[entry] + offset);
+        }
+
+    }
+
+}
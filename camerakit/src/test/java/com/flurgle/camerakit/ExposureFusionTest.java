@@ -0,0 +1,170 @@
+package com.flurgle.camerakit;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExposureFusionTest {
+
+    private static final int WIDTH = 256;
+    private static final int HEIGHT = 192;
+
+    // The scene has a textured highlight that clips when metered, mid tones, and a textured
+    // shadow that the metered frame crushes into a few codes. Radiance is in metered codes.
+    private static final int HIGHLIGHT_END = 80;
+    private static final int SHADOW_START = 176;
+    // How far the blend between regions reaches into them.
+    private static final int SEAM = 24;
+
+    @Test
+    public void fusionRecoversClippedHighlightsAndShadows() {
+        byte[] under = expose(0.25);
+        byte[] metered = expose(1);
+        byte[] over = expose(4);
+        byte[] fused = fuse(new byte[][]{under, metered, over});
+
+        // The highlight is flat white when metered.
+        Stats highlight = Stats.of(metered, 0, HIGHLIGHT_END);
+        assertTrue("metered highlight " + highlight, highlight.clipped > 0.99 && highlight.deviation < 1);
+        Stats fusedHighlight = Stats.of(fused, 0, HIGHLIGHT_END);
+        assertTrue("fused highlight " + fusedHighlight,
+                fusedHighlight.clipped < 0.01 && fusedHighlight.deviation > 10);
+        // Away from the seam, the detail is the one of the darker frame.
+        assertTrue(correlation(under, fused, 0, HIGHLIGHT_END - SEAM) > 0.9);
+
+        // The shadow keeps a few codes of detail when metered.
+        Stats shadow = Stats.of(metered, SHADOW_START, WIDTH);
+        Stats fusedShadow = Stats.of(fused, SHADOW_START, WIDTH);
+        assertTrue("shadow " + shadow + " -> " + fusedShadow,
+                fusedShadow.mean > shadow.mean + 10 && fusedShadow.deviation > 2 * shadow.deviation);
+        assertTrue(correlation(over, fused, SHADOW_START + SEAM, WIDTH) > 0.9);
+
+        // Mid tones, well exposed when metered, stay close to it.
+        Stats mid = Stats.of(metered, HIGHLIGHT_END + SEAM, SHADOW_START - SEAM);
+        Stats fusedMid = Stats.of(fused, HIGHLIGHT_END + SEAM, SHADOW_START - SEAM);
+        assertTrue("mid tones " + mid + " -> " + fusedMid, Math.abs(fusedMid.mean - mid.mean) < 16);
+    }
+
+    @Test
+    public void singleFrameFusesToItself() {
+        byte[] metered = expose(1);
+        byte[] fused = fuse(new byte[][]{metered});
+        int frameSize = WIDTH * HEIGHT;
+        assertTrue(TestFrames.psnr(metered, fused, 0, frameSize) > 45);
+        assertTrue(TestFrames.psnr(metered, fused, frameSize, frameSize / 2) > 45);
+    }
+
+    @Test
+    public void planarLayoutsFuseLikeNv21() {
+        byte[][] bracket = {expose(0.25), expose(1), expose(4)};
+        YuvLayout yv12 = YuvLayout.yv12(WIDTH, HEIGHT);
+        byte[][] planar = new byte[bracket.length][];
+        for (int i = 0; i < bracket.length; i++) {
+            planar[i] = toPlanar(bracket[i], yv12);
+        }
+        byte[] output = new byte[WIDTH * HEIGHT * 3 / 2];
+        new ExposureFusion(new StripeExecutor(4)).fuse(planar, yv12, output);
+        assertArrayEquals(fuse(bracket), output);
+    }
+
+    private static byte[] fuse(byte[][] bracket) {
+        byte[] output = new byte[WIDTH * HEIGHT * 3 / 2];
+        new ExposureFusion(new StripeExecutor(4)).fuse(bracket, YuvLayout.nv21(WIDTH, HEIGHT), output);
+        return output;
+    }
+
+    // The scene scaled by gain and clipped, as NV21.
+    private static byte[] expose(double gain) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double texture = Math.sin(x / 5.0) * Math.cos(y / 7.0);
+                double radiance;
+                double[] tint;
+                if (x < HIGHLIGHT_END) {
+                    radiance = 560 + 200 * texture;
+                    tint = new double[]{0.8, 0.9, 1};
+                } else if (x < SHADOW_START) {
+                    radiance = 60 + 140 * (x - HIGHLIGHT_END) / (double) (SHADOW_START - HIGHLIGHT_END) + 20 * texture;
+                    tint = new double[]{1, 0.85, 0.7};
+                } else {
+                    radiance = 8 + 5 * texture;
+                    tint = new double[]{1, 0.8, 0.8};
+                }
+                int r = TestFrames.clamp((int) Math.round(gain * radiance * tint[0]));
+                int g = TestFrames.clamp((int) Math.round(gain * radiance * tint[1]));
+                int b = TestFrames.clamp((int) Math.round(gain * radiance * tint[2]));
+                image.setRGB(x, y, r << 16 | g << 8 | b);
+            }
+        }
+        return TestFrames.nv21(image);
+    }
+
+    // Pearson correlation of the luma of two frames over the columns [x0, x1).
+    private static double correlation(byte[] a, byte[] b, int x0, int x1) {
+        Stats sa = Stats.of(a, x0, x1);
+        Stats sb = Stats.of(b, x0, x1);
+        double sum = 0;
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = x0; x < x1; x++) {
+                sum += ((a[y * WIDTH + x] & 0xff) - sa.mean) * ((b[y * WIDTH + x] & 0xff) - sb.mean);
+            }
+        }
+        return sum / (HEIGHT * (x1 - x0)) / (sa.deviation * sb.deviation);
+    }
+
+    private static byte[] toPlanar(byte[] nv21, YuvLayout layout) {
+        byte[] planar = new byte[layout.getLength()];
+        for (int y = 0; y < HEIGHT; y++) {
+            System.arraycopy(nv21, y * WIDTH, planar, y * layout.getYRowStride(), WIDTH);
+        }
+        for (int y = 0; y < HEIGHT / 2; y++) {
+            for (int x = 0; x < WIDTH / 2; x++) {
+                int vu = WIDTH * HEIGHT + y * WIDTH + 2 * x;
+                planar[layout.getVOffset() + y * layout.getUvRowStride() + x] = nv21[vu];
+                planar[layout.getUOffset() + y * layout.getUvRowStride() + x] = nv21[vu + 1];
+            }
+        }
+        return planar;
+    }
+
+    // Luma statistics over the columns [x0, x1).
+    private static class Stats {
+
+        double mean;
+        double deviation;
+        double clipped;
+
+        static Stats of(byte[] nv21, int x0, int x1) {
+            Stats stats = new Stats();
+            int count = HEIGHT * (x1 - x0);
+            double sum = 0;
+            double squares = 0;
+            int clipped = 0;
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = x0; x < x1; x++) {
+                    int value = nv21[y * WIDTH + x] & 0xff;
+                    sum += value;
+                    squares += value * value;
+                    if (value >= 254) {
+                        clipped++;
+                    }
+                }
+            }
+            stats.mean = sum / count;
+            stats.deviation = Math.sqrt(Math.max(0, squares / count - stats.mean * stats.mean));
+            stats.clipped = (double) clipped / count;
+            return stats;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("mean %.1f, deviation %.1f, clipped %.3f", mean, deviation, clipped);
+        }
+
+    }
+
+}
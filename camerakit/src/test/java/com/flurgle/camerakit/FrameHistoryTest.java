@@ -0,0 +1,107 @@
+package com.flurgle.camerakit;
+
+import android.graphics.ImageFormat;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FrameHistoryTest {
+
+    private final List<Frame> mRecycled = new ArrayList<>();
+    private final Frame.Recycler mRecycler = new Frame.Recycler() {
+        @Override
+        public void recycle(Frame frame) {
+            mRecycled.add(frame);
+        }
+    };
+
+    @Test
+    public void keepsTheMostRecentFrames() {
+        FrameHistory history = new FrameHistory(3);
+        Frame[] frames = deliver(history, 10, 20, 30, 40, 50);
+
+        assertEquals(2, mRecycled.size());
+        assertSame(frames[0], mRecycled.get(0));
+        assertSame(frames[1], mRecycled.get(1));
+
+        List<Frame> kept = history.takeAll();
+        assertEquals(3, kept.size());
+        for (int i = 0; i < kept.size(); i++) {
+            assertSame(frames[2 + i], kept.get(i));
+        }
+    }
+
+    @Test
+    public void takesTheFrameNearestTheShutter() {
+        FrameHistory history = new FrameHistory(4);
+        Frame[] frames = deliver(history, 100, 133, 166, 200);
+
+        assertSame(frames[1], history.takeNearest(140));
+        assertSame(frames[2], history.takeNearest(160));
+        assertSame(frames[0], history.takeNearest(0));
+        assertSame(frames[3], history.takeNearest(1000));
+    }
+
+    @Test
+    public void takenFramesOutliveTheHistory() {
+        FrameHistory history = new FrameHistory(2);
+        Frame[] frames = deliver(history, 10, 20);
+        Frame taken = history.takeNearest(20);
+
+        history.clear();
+        assertEquals(1, mRecycled.size());
+        assertSame(frames[0], mRecycled.get(0));
+
+        taken.release();
+        assertEquals(2, mRecycled.size());
+        assertSame(frames[1], mRecycled.get(1));
+    }
+
+    @Test
+    public void emptyHistoryHasNoFrame() {
+        FrameHistory history = new FrameHistory(0);
+        deliver(history, 10, 20);
+
+        assertEquals(2, mRecycled.size());
+        assertNull(history.takeNearest(10));
+        assertTrue(history.takeAll().isEmpty());
+    }
+
+    @Test
+    public void shrinkingReleasesTheOldestFrames() {
+        FrameHistory history = new FrameHistory(4);
+        Frame[] frames = deliver(history, 10, 20, 30, 40);
+
+        history.setCapacity(1);
+        assertEquals(1, history.getCapacity());
+        assertEquals(3, mRecycled.size());
+        Frame taken = history.takeNearest(0);
+        assertSame(frames[3], taken);
+        taken.release();
+
+        history.setCapacity(-1);
+        assertEquals(0, history.getCapacity());
+        assertEquals(4, mRecycled.size());
+    }
+
+    // Delivers one frame per timestamp, the way the preview dispatcher does.
+    private Frame[] deliver(FrameHistory history, long... timestamps) {
+        Frame[] frames = new Frame[timestamps.length];
+        YuvLayout layout = YuvLayout.nv21(4, 4);
+        for (int i = 0; i < timestamps.length; i++) {
+            frames[i] = new Frame(new byte[layout.getLength()], layout, ImageFormat.NV21, mRecycler);
+            frames[i].reset(timestamps[i]);
+            history.onFrame(frames[i]);
+            frames[i].release();
+        }
+        return frames;
+    }
+
+}
@@ -0,0 +1,46 @@
+package com.flurgle.camerakit;
+
+import java.util.Arrays;
+
+/**
+ * Times {@link FrameMerger} on synthetic handheld bursts, on one thread and on all cores.
+ * Not a test; run its {@code main} from the IDE with the unit test classpath.
+ */
+public class FrameMergerBenchmark {
+
+    private static final int WARMUP_RUNS = 2;
+    private static final int RUNS = 5;
+
+    public static void main(String[] args) {
+        int[][] sizes = {{1920, 1080}, {4000, 3000}};
+        int threads = Runtime.getRuntime().availableProcessors();
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            for (int count : new int[]{3, 5}) {
+                byte[][] frames = new FrameMergerTest.Burst(width, height, count, 8, false, 1).frames;
+                long serial = median(frames, width, height, new StripeExecutor(1));
+                long parallel = median(frames, width, height, new StripeExecutor(threads));
+                System.out.println(width + "x" + height + " x" + count + ": serial " + serial / 1000000
+                        + "ms, " + threads + " threads " + parallel / 1000000 + "ms");
+            }
+        }
+    }
+
+    private static long median(byte[][] frames, int width, int height, StripeExecutor executor) {
+        YuvLayout layout = YuvLayout.nv21(width, height);
+        FrameMerger merger = new FrameMerger(executor);
+        byte[] output = new byte[width * height * 3 / 2];
+        long[] times = new long[RUNS];
+        for (int i = 0; i < WARMUP_RUNS + RUNS; i++) {
+            long start = System.nanoTime();
+            merger.merge(frames, layout, 0, output);
+            if (i >= WARMUP_RUNS) {
+                times[i - WARMUP_RUNS] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.flurgle.camerakit;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameMergerTest {
+
+    private static final int WIDTH = 320;
+    private static final int HEIGHT = 240;
+    private static final int FRAMES = 5;
+    private static final double SIGMA = 8;
+
+    // A bright square that moves right by SQUARE_STEP pixels per frame.
+    private static final int SQUARE_SIZE = 48;
+    private static final int SQUARE_X = 64;
+    private static final int SQUARE_Y = 96;
+    private static final int SQUARE_STEP = 48;
+
+    @Test
+    public void mergeReducesNoise() {
+        Burst burst = new Burst(WIDTH, HEIGHT, FRAMES, SIGMA, false, 1);
+        byte[] output = merge(burst.frames, YuvLayout.nv21(WIDTH, HEIGHT));
+
+        int frameSize = WIDTH * HEIGHT;
+        double noisy = TestFrames.psnr(burst.frames[0], burst.clean, 0, frameSize);
+        double merged = TestFrames.psnr(output, burst.clean, 0, frameSize);
+        // Five frames averaged would gain 7 dB; the window and the edge tiles lose some.
+        assertTrue("luma " + noisy + " -> " + merged + " dB", merged > noisy + 4);
+
+        int chromaSize = frameSize / 2;
+        noisy = TestFrames.psnr(burst.frames[0], burst.clean, frameSize, chromaSize);
+        merged = TestFrames.psnr(output, burst.clean, frameSize, chromaSize);
+        assertTrue("chroma " + noisy + " -> " + merged + " dB", merged > noisy + 3);
+    }
+
+    @Test
+    public void movedTileDoesNotGhost() {
+        Burst burst = new Burst(WIDTH, HEIGHT, FRAMES, SIGMA, true, 2);
+        byte[] output = merge(burst.frames, YuvLayout.nv21(WIDTH, HEIGHT));
+
+        // Where the square is in the reference it stays, and where it is only in the other
+        // frames it does not show: either way the merge is no worse than the noisy reference.
+        for (int frame = 0; frame < 3; frame++) {
+            int x = SQUARE_X + frame * SQUARE_STEP;
+            double noisy = meanError(burst.frames[0], burst.clean, x, SQUARE_Y, SQUARE_SIZE);
+            double merged = meanError(output, burst.clean, x, SQUARE_Y, SQUARE_SIZE);
+            assertTrue("square of frame " + frame + ": " + noisy + " -> " + merged, merged <= noisy);
+        }
+    }
+
+    @Test
+    public void identicalFramesMergeToReference() {
+        byte[] frame = TestFrames.nv21(TestFrames.natural(WIDTH, HEIGHT));
+        byte[] output = merge(new byte[][]{frame, frame, frame}, YuvLayout.nv21(WIDTH, HEIGHT));
+        assertArrayEquals(frame, output);
+    }
+
+    @Test
+    public void planarLayoutsMergeLikeNv21() {
+        Burst burst = new Burst(WIDTH, HEIGHT, 3, SIGMA, true, 3);
+        YuvLayout yv12 = YuvLayout.yv12(WIDTH, HEIGHT);
+        byte[][] planar = new byte[burst.frames.length][];
+        for (int f = 0; f < planar.length; f++) {
+            planar[f] = toPlanar(burst.frames[f], yv12);
+        }
+        assertArrayEquals(merge(burst.frames, YuvLayout.nv21(WIDTH, HEIGHT)), merge(planar, yv12));
+    }
+
+    private static byte[] merge(byte[][] frames, YuvLayout layout) {
+        byte[] output = new byte[layout.getWidth() * layout.getHeight() * 3 / 2];
+        new FrameMerger(new StripeExecutor(4)).merge(frames, layout, 0, output);
+        return output;
+    }
+
+    private static double meanError(byte[] nv21, byte[] clean, int x0, int y0, int size) {
+        double error = 0;
+        for (int y = y0; y < y0 + size; y++) {
+            for (int x = x0; x < x0 + size; x++) {
+                error += Math.abs((nv21[y * WIDTH + x] & 0xff) - (clean[y * WIDTH + x] & 0xff));
+            }
+        }
+        return error / (size * size);
+    }
+
+    private static byte[] toPlanar(byte[] nv21, YuvLayout layout) {
+        int width = layout.getWidth();
+        int height = layout.getHeight();
+        byte[] planar = new byte[layout.getLength()];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(nv21, y * width, planar, y * layout.getYRowStride(), width);
+        }
+        for (int y = 0; y < height / 2; y++) {
+            for (int x = 0; x < width / 2; x++) {
+                int vu = width * height + y * width + 2 * x;
+                planar[layout.getVOffset() + y * layout.getUvRowStride() + x] = nv21[vu];
+                planar[layout.getUOffset() + y * layout.getUvRowStride() + x] = nv21[vu + 1];
+            }
+        }
+        return planar;
+    }
+
+    /**
+     * A handheld burst: NV21 crops of one scene, each but the first shifted by up to 8
+     * pixels, with Gaussian noise, and optionally the moving square.
+     */
+    static class Burst {
+
+        final byte[] clean;
+        final byte[][] frames;
+
+        Burst(int width, int height, int count, double sigma, boolean square, long seed) {
+            final int margin = 8;
+            int sceneWidth = width + 2 * margin;
+            byte[] scene = TestFrames.nv21(TestFrames.natural(sceneWidth, height + 2 * margin));
+            int sceneSize = sceneWidth * (height + 2 * margin);
+            int frameSize = width * height;
+            Random random = new Random(seed);
+            frames = new byte[count][];
+            byte[] reference = null;
+            for (int f = 0; f < count; f++) {
+                // Even shifts, so chroma moves by whole samples too.
+                int dx = f == 0 ? 0 : (random.nextInt(2 * margin + 1) - margin) & ~1;
+                int dy = f == 0 ? 0 : (random.nextInt(2 * margin + 1) - margin) & ~1;
+                byte[] frame = new byte[frameSize * 3 / 2];
+                for (int y = 0; y < height; y++) {
+                    System.arraycopy(scene, (y + margin + dy) * sceneWidth + margin + dx, frame, y * width, width);
+                }
+                for (int y = 0; y < height / 2; y++) {
+                    System.arraycopy(scene, sceneSize + (y + (margin + dy) / 2) * sceneWidth + margin + dx,
+                            frame, frameSize + y * width, width);
+                }
+                if (square) {
+                    int x0 = SQUARE_X + f * SQUARE_STEP;
+                    for (int y = SQUARE_Y; y < SQUARE_Y + SQUARE_SIZE; y++) {
+                        for (int x = x0; x < x0 + SQUARE_SIZE; x++) {
+                            frame[y * width + x] = (byte) 235;
+                            frame[frameSize + (y / 2) * width + (x & ~1)] = (byte) 60;
+                            frame[frameSize + (y / 2) * width + (x | 1)] = (byte) 200;
+                        }
+                    }
+                }
+                if (f == 0) {
+                    reference = frame.clone();
+                }
+                for (int i = 0; i < frame.length; i++) {
+                    double noise = random.nextGaussian() * (i < frameSize ? sigma : sigma / 2);
+                    frame[i] = (byte) TestFrames.clamp((int) Math.round((frame[i] & 0xff) + noise));
+                }
+                frames[f] = frame;
+            }
+            clean = reference;
+        }
+
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.flurgle.camerakit;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+/**
+ * Times {@link JpegEncoder}, serial and in restart interval strips, against the ImageIO
+ * encoder and reports the output sizes. Not a test; run its {@code main} from the IDE with
+ * the unit test classpath.
+ */
+public class JpegEncoderBenchmark {
+
+    private static final int WARMUP_RUNS = 3;
+    private static final int RUNS = 9;
+
+    public static void main(String[] args) throws IOException {
+        int[][] sizes = {{1920, 1080}, {4000, 3000}};
+        StripeExecutor executor = new StripeExecutor(Runtime.getRuntime().availableProcessors());
+        for (int[] size : sizes) {
+            BufferedImage image = TestFrames.natural(size[0], size[1]);
+            byte[] yuv = TestFrames.nv21(image);
+            YuvLayout layout = YuvLayout.nv21(size[0], size[1]);
+            for (int quality : new int[]{75, 90}) {
+                String name = size[0] + "x" + size[1] + " q" + quality;
+                report(name + " serial", yuv, layout, quality, null, null);
+                report(name + " parallel x" + executor.getParallelism(), yuv, layout, quality, executor, null);
+                report(name + " ImageIO", null, null, quality, null, image);
+            }
+        }
+    }
+
+    private static void report(String name, byte[] yuv, YuvLayout layout, int quality,
+                               StripeExecutor executor, BufferedImage image) throws IOException {
+        long[] times = new long[RUNS];
+        int length = 0;
+        for (int i = 0; i < WARMUP_RUNS + RUNS; i++) {
+            long start = System.nanoTime();
+            length = image != null
+                    ? encodeImageIo(image, quality).length
+                    : JpegEncoderTest.encode(yuv, layout, quality, executor).length;
+            if (i >= WARMUP_RUNS) {
+                times[i - WARMUP_RUNS] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(times);
+        System.out.println(name + ": " + times[RUNS / 2] / 1000000 + "ms, " + length + " bytes");
+    }
+
+    private static byte[] encodeImageIo(BufferedImage image, int quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(quality / 100f);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(out);
+        writer.setOutput(stream);
+        writer.write(null, new IIOImage(image, null, null), param);
+        stream.close();
+        writer.dispose();
+        return out.toByteArray();
+    }
+
+}
@@ -0,0 +1,119 @@
+package com.flurgle.camerakit;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class JpegEncoderTest {
+
+    // Whole MCUs, partial MCUs at the right and bottom edges, and a single MCU.
+    private static final int[][] SIZES = {{640, 480}, {100, 70}, {16, 16}};
+
+    @Test
+    public void roundTripsThroughImageIo() throws IOException {
+        for (int[] size : SIZES) {
+            BufferedImage source = TestFrames.natural(size[0], size[1]);
+            byte[] yuv = TestFrames.nv21(source);
+            BufferedImage decoded = decode(encode(yuv, YuvLayout.nv21(size[0], size[1]), 90, null));
+
+            assertEquals(size[0], decoded.getWidth());
+            assertEquals(size[1], decoded.getHeight());
+            double psnr = TestFrames.lumaPsnr(yuv, decoded);
+            assertTrue(size[0] + "x" + size[1] + " luma PSNR " + psnr, psnr > 42);
+        }
+    }
+
+    @Test
+    public void lowerQualityIsSmallerAndCoarser() throws IOException {
+        BufferedImage source = TestFrames.natural(640, 480);
+        byte[] yuv = TestFrames.nv21(source);
+        YuvLayout layout = YuvLayout.nv21(640, 480);
+
+        byte[] fine = encode(yuv, layout, 95, null);
+        byte[] coarse = encode(yuv, layout, 40, null);
+        assertTrue(coarse.length < fine.length);
+        assertTrue(TestFrames.lumaPsnr(yuv, decode(coarse)) < TestFrames.lumaPsnr(yuv, decode(fine)));
+    }
+
+    @Test
+    public void parallelDecodesIdenticallyToSerial() throws IOException {
+        StripeExecutor executor = new StripeExecutor(4);
+        for (int[] size : SIZES) {
+            byte[] yuv = TestFrames.nv21(TestFrames.natural(size[0], size[1]));
+            YuvLayout layout = YuvLayout.nv21(size[0], size[1]);
+
+            byte[] serial = encode(yuv, layout, 85, null);
+            byte[] parallel = encode(yuv, layout, 85, executor);
+            if (JpegEncoder.getMcuRows(layout) > 1) {
+                // Split into restart intervals, so the streams differ.
+                assertFalse(Arrays.equals(serial, parallel));
+                assertTrue(contains(parallel, 0xDD));
+            }
+            assertArrayEquals(size[0] + "x" + size[1], pixels(decode(serial)), pixels(decode(parallel)));
+        }
+    }
+
+    @Test
+    public void planarLayoutsEncodeLikeNv21() throws IOException {
+        int width = 100;
+        int height = 70;
+        byte[] nv21 = TestFrames.nv21(TestFrames.natural(width, height));
+        YuvLayout yv12 = YuvLayout.yv12(width, height);
+        byte[] planar = new byte[yv12.getLength()];
+        for (int y = 0; y < height; y++) {
+            System.arraycopy(nv21, y * width, planar, y * yv12.getYRowStride(), width);
+        }
+        for (int y = 0; y < height / 2; y++) {
+            for (int x = 0; x < width / 2; x++) {
+                int vu = width * height + y * width + 2 * x;
+                planar[yv12.getVOffset() + y * yv12.getUvRowStride() + x] = nv21[vu];
+                planar[yv12.getUOffset() + y * yv12.getUvRowStride() + x] = nv21[vu + 1];
+            }
+        }
+
+        assertArrayEquals(encode(nv21, YuvLayout.nv21(width, height), 90, null),
+                encode(planar, yv12, 90, null));
+    }
+
+    static byte[] encode(byte[] yuv, YuvLayout layout, int quality, StripeExecutor executor) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        if (executor != null) {
+            new JpegEncoder(quality).encode(yuv, layout, out, executor);
+        } else {
+            new JpegEncoder(quality).encode(yuv, layout, out);
+        }
+        return out.toByteArray();
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull(image);
+        return image;
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static boolean contains(byte[] jpeg, int marker) {
+        for (int i = 0; i + 1 < jpeg.length; i++) {
+            if ((jpeg[i] & 0xff) == 0xFF && (jpeg[i + 1] & 0xff) == marker) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
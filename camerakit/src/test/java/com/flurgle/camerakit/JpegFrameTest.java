@@ -0,0 +1,101 @@
+package com.flurgle.camerakit;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+public class JpegFrameTest {
+
+    @Test
+    public void parsesBaselineJpeg() throws IOException {
+        JpegFrame frame = JpegFrame.parse(jpeg());
+        assertNotNull(frame);
+        assertEquals(64, frame.mWidth);
+        assertEquals(48, frame.mHeight);
+        assertEquals(3, frame.mComponentCount);
+    }
+
+    @Test
+    public void rejectsQuantizationTableIdAboveThree() throws IOException {
+        byte[] jpeg = jpeg();
+        // Tq of the second component.
+        jpeg[find(jpeg, JpegFrame.MARKER_SOF0) + 4 + 6 + 3 + 2] = 4;
+        assertRejected(jpeg);
+    }
+
+    @Test
+    public void rejectsShortFrameHeader() throws IOException {
+        // The segment ends inside the component list, and also in the middle of an entry.
+        assertRejected(shorten(jpeg(), JpegFrame.MARKER_SOF0, 3));
+        assertRejected(shorten(jpeg(), JpegFrame.MARKER_SOF0, 4));
+        assertRejected(shorten(jpeg(), JpegFrame.MARKER_SOF0, 13));
+    }
+
+    @Test
+    public void rejectsShortScanHeader() throws IOException {
+        assertRejected(shorten(jpeg(), JpegFrame.MARKER_SOS, 2));
+        assertRejected(shorten(jpeg(), JpegFrame.MARKER_SOS, 5));
+    }
+
+    @Test
+    public void rejectsShortRestartInterval() throws IOException {
+        byte[] jpeg = JpegEncoderTest.encode(TestFrames.nv21(TestFrames.natural(64, 48)),
+                YuvLayout.nv21(64, 48), 90, new StripeExecutor(4));
+        assertNotNull(JpegFrame.parse(jpeg));
+        assertRejected(shorten(jpeg, JpegFrame.MARKER_DRI, 1));
+    }
+
+    @Test
+    public void rejectsTruncatedFile() throws IOException {
+        byte[] jpeg = jpeg();
+        int sos = find(jpeg, JpegFrame.MARKER_SOS);
+        byte[] truncated = new byte[sos + 6];
+        System.arraycopy(jpeg, 0, truncated, 0, truncated.length);
+        assertRejected(truncated);
+    }
+
+    private static void assertRejected(byte[] jpeg) {
+        try {
+            JpegFrame.parse(jpeg);
+            fail("Parsed a malformed JPEG");
+        } catch (IllegalArgumentException expected) {
+            // The callers fall back to decoding on this exception only.
+        }
+    }
+
+    private static byte[] jpeg() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(TestFrames.natural(64, 48), "jpeg", out);
+        return out.toByteArray();
+    }
+
+    // Offset of the first segment with the marker.
+    private static int find(byte[] jpeg, int marker) {
+        int p = 2;
+        while ((jpeg[p + 1] & 0xff) != marker) {
+            p += 2 + (((jpeg[p + 2] & 0xff) << 8) | (jpeg[p + 3] & 0xff));
+        }
+        return p;
+    }
+
+    // Drops the last bytes of the segment with the marker and fixes its length to match.
+    private static byte[] shorten(byte[] jpeg, int marker, int bytes) {
+        int p = find(jpeg, marker);
+        int length = (((jpeg[p + 2] & 0xff) << 8) | (jpeg[p + 3] & 0xff)) - bytes;
+        int end = p + 2 + length;
+        byte[] shortened = new byte[jpeg.length - bytes];
+        System.arraycopy(jpeg, 0, shortened, 0, end);
+        System.arraycopy(jpeg, end + bytes, shortened, end, jpeg.length - end - bytes);
+        shortened[p + 2] = (byte) (length >> 8);
+        shortened[p + 3] = (byte) length;
+        return shortened;
+    }
+
+}
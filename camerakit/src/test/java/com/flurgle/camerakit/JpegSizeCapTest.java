@@ -0,0 +1,93 @@
+package com.flurgle.camerakit;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JpegSizeCapTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    @Test
+    public void oversizeJpegComesBackUnderTheCap() throws IOException {
+        byte[] jpeg = imageIoJpeg();
+        for (int divisor : new int[]{2, 4, 8}) {
+            int maxBytes = jpeg.length / divisor;
+            byte[] capped = new JpegSizeCap(jpeg, 90, maxBytes).getJpeg();
+            assertTrue(capped.length + " > " + maxBytes, capped.length <= maxBytes);
+            assertDecodes(capped);
+        }
+    }
+
+    @Test
+    public void restartIntervalsAreKept() throws IOException {
+        byte[] jpeg = JpegEncoderTest.encode(TestFrames.nv21(TestFrames.natural(WIDTH, HEIGHT)),
+                YuvLayout.nv21(WIDTH, HEIGHT), 95, new StripeExecutor(4));
+        int maxBytes = jpeg.length / 3;
+        byte[] capped = new JpegSizeCap(jpeg, 90, maxBytes).getJpeg();
+        assertTrue(capped.length + " > " + maxBytes, capped.length <= maxBytes);
+        assertDecodes(capped);
+    }
+
+    @Test
+    public void exifOrientationIsKept() throws IOException {
+        byte[] jpeg = new ExifOrientation(imageIoJpeg(), ExifOrientation.ORIENTATION_ROTATE_90).getJpeg();
+        byte[] capped = new JpegSizeCap(jpeg, 90, jpeg.length / 3).getJpeg();
+        assertEquals(ExifOrientation.ORIENTATION_ROTATE_90, ExifOrientation.read(capped));
+        assertDecodes(capped);
+    }
+
+    @Test
+    public void jpegThatFitsIsKept() throws IOException {
+        byte[] jpeg = imageIoJpeg();
+        assertSame(jpeg, new JpegSizeCap(jpeg, 90, jpeg.length).getJpeg());
+        assertSame(jpeg, new JpegSizeCap(jpeg, 90, 0).getJpeg());
+    }
+
+    @Test
+    public void qualityNeverExceedsTheCeiling() throws IOException {
+        // The source nearly fits, but once requantized it is at the ceiling quality at most.
+        byte[] jpeg = imageIoJpeg();
+        JpegFrame frame = JpegFrame.parse(jpeg);
+        int[][] tables = JpegSizeTarget.forJpeg(frame, 0, 0, WIDTH, HEIGHT).getQuantTables(50);
+        byte[] expected = JpegCrop.crop(frame, 0, 0, WIDTH, HEIGHT, tables);
+        assertArrayEquals(expected, new JpegSizeCap(jpeg, 50, jpeg.length - 1).getJpeg());
+    }
+
+    // An ImageIO encode at quality 95, as a camera HAL would deliver it.
+    private static byte[] imageIoJpeg() throws IOException {
+        BufferedImage image = TestFrames.natural(WIDTH, HEIGHT);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(0.95f);
+        writer.setOutput(ImageIO.createImageOutputStream(out));
+        writer.write(null, new IIOImage(image, null, null), param);
+        writer.dispose();
+        return out.toByteArray();
+    }
+
+    private static void assertDecodes(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull(image);
+        assertEquals(WIDTH, image.getWidth());
+        assertEquals(HEIGHT, image.getHeight());
+    }
+
+}
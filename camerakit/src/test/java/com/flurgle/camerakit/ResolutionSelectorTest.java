@@ -0,0 +1,129 @@
+package com.flurgle.camerakit;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ResolutionSelectorTest {
+
+    private static final Size VGA = new Size(640, 480);
+    private static final Size HD = new Size(1280, 720);
+    private static final Size SXGA = new Size(1280, 960);
+    private static final Size FHD = new Size(1920, 1080);
+    private static final Size FHD_PADDED = new Size(1920, 1088);
+    private static final Size QXGA = new Size(2048, 1536);
+    private static final Size UHD = new Size(3840, 2160);
+    private static final Size SENSOR = new Size(4032, 3024);
+
+    private static final List<Size> SIZES = Arrays.asList(VGA, HD, SXGA, FHD, FHD_PADDED, QXGA, UHD, SENSOR);
+
+    @Test
+    public void ratioIsComparedByCrossMultiplying() {
+        // 1920 x 1080 is exactly 16:9; 1920 x 1088 is 16:9.07, off by 0.7 %.
+        ResolutionSelector exact = new ResolutionSelector()
+                .setAspectRatio(AspectRatio.of(16, 9), 0)
+                .setMaxPixels(1920 * 1088);
+        assertSame(FHD, exact.select(SIZES));
+
+        List<Size> padded = Arrays.asList(HD, FHD_PADDED);
+        assertSame(HD, exact.select(padded));
+        ResolutionSelector tolerant = new ResolutionSelector()
+                .setAspectRatio(AspectRatio.of(16, 9), ResolutionSelector.ASPECT_TOLERANCE);
+        assertSame(FHD_PADDED, tolerant.select(padded));
+
+        // Sides whose product overflows an int.
+        Size huge = new Size(65536 * 16, 65536 * 9);
+        assertSame(huge, exact.setMaxPixels(0).select(Arrays.asList(SENSOR, huge)));
+    }
+
+    @Test
+    public void ratioIsGivenUpWhenNoSizeHasIt() {
+        ResolutionSelector selector = new ResolutionSelector()
+                .setAspectRatio(AspectRatio.of(21, 9), ResolutionSelector.ASPECT_TOLERANCE);
+        assertSame(SENSOR, selector.select(SIZES));
+    }
+
+    @Test
+    public void smallestSizeCoveringTheTargetWins() {
+        ResolutionSelector selector = new ResolutionSelector().setTargetSize(1280, 800);
+        assertSame(SXGA, selector.select(SIZES));
+
+        // A preview at least as large as the screen, in the ratio of the capture.
+        selector.setTargetSize(1080, 1080).setAspectRatio(AspectRatio.of(4, 3), ResolutionSelector.ASPECT_TOLERANCE);
+        assertSame(QXGA, selector.select(SIZES));
+    }
+
+    @Test
+    public void largestSizeWinsWhenNoneCoversTheTarget() {
+        ResolutionSelector selector = new ResolutionSelector().setTargetSize(5000, 4000);
+        assertSame(SENSOR, selector.select(SIZES));
+
+        selector.setTargetSize(0, 0);
+        assertSame(SENSOR, selector.select(SIZES));
+    }
+
+    @Test
+    public void maxPixelsIsAHardCap() {
+        ResolutionSelector selector = new ResolutionSelector().setMaxPixels(1920 * 1080);
+        assertSame(FHD, selector.select(SIZES));
+
+        // The cap outranks the target.
+        selector.setTargetSize(3000, 2000);
+        assertSame(FHD, selector.select(SIZES));
+
+        // A cap nothing fits under returns the smallest size.
+        selector.setMaxPixels(100 * 100);
+        assertSame(VGA, selector.select(Arrays.asList(SENSOR, VGA, HD)));
+    }
+
+    @Test
+    public void maxBytesPerFrameIsAHardCap() {
+        ResolutionSelector selector = new ResolutionSelector().setMaxBytesPerFrame(1920 * 1080 * 3 / 2, 12);
+        assertSame(FHD, selector.select(SIZES));
+    }
+
+    @Test
+    public void slowSizesAreSkipped() {
+        long[] durations = new long[SIZES.size()];
+        Arrays.fill(durations, 1000000000L / 60);
+        durations[SIZES.indexOf(SENSOR)] = 1000000000L / 15;
+        durations[SIZES.indexOf(UHD)] = 1000000000L / 24;
+        ResolutionSelector selector = new ResolutionSelector().setMinFps(30);
+        assertSame(QXGA, selector.select(SIZES, durations));
+        // Unknown durations accept every size.
+        assertSame(SENSOR, selector.select(SIZES, null));
+    }
+
+    @Test
+    public void widestCommonRatioIsShared() {
+        List<Size> previews = Arrays.asList(VGA, HD, FHD, SXGA);
+
+        assertEquals(AspectRatio.of(4, 3), ResolutionSelector.findWidestCommonRatio(previews,
+                Arrays.asList(SENSOR, QXGA), 0, 0, ResolutionSelector.ASPECT_TOLERANCE));
+        assertEquals(AspectRatio.of(16, 9), ResolutionSelector.findWidestCommonRatio(previews,
+                Arrays.asList(SENSOR, UHD), 0, 0, ResolutionSelector.ASPECT_TOLERANCE));
+        // A capture size a few rows off 16:9 still shares the ratio.
+        assertEquals(AspectRatio.of(16, 9), ResolutionSelector.findWidestCommonRatio(previews,
+                Arrays.asList(new Size(1920, 1088)), 0, 0, ResolutionSelector.ASPECT_TOLERANCE));
+    }
+
+    @Test
+    public void widestCommonRatioNeedsAPreviewCoveringTheScreen() {
+        List<Size> previews = Arrays.asList(VGA, HD, SXGA);
+        List<Size> captures = Arrays.asList(SENSOR, UHD);
+
+        // No 16:9 preview is as tall as the screen, so 4:3 is the widest left.
+        assertEquals(AspectRatio.of(4, 3), ResolutionSelector.findWidestCommonRatio(previews,
+                captures, 1280, 800, ResolutionSelector.ASPECT_TOLERANCE));
+        assertNull(ResolutionSelector.findWidestCommonRatio(previews,
+                captures, 1920, 1080, ResolutionSelector.ASPECT_TOLERANCE));
+        assertNull(ResolutionSelector.findWidestCommonRatio(previews,
+                Arrays.asList(new Size(1000, 1000)), 0, 0, ResolutionSelector.ASPECT_TOLERANCE));
+    }
+
+}
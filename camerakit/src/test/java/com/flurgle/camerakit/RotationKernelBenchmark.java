@@ -0,0 +1,47 @@
+package com.flurgle.camerakit;
+
+import java.util.Arrays;
+
+/**
+ * Times {@link RotationKernel} against the per-pixel loop it replaced. Not a test; run its
+ * {@code main} from the IDE with the unit test classpath.
+ */
+public class RotationKernelBenchmark {
+
+    private static final int WARMUP_RUNS = 5;
+    private static final int RUNS = 15;
+
+    public static void main(String[] args) {
+        int[][] sizes = {{1920, 1080}, {4000, 3000}};
+        for (int[] size : sizes) {
+            int width = size[0];
+            int height = size[1];
+            byte[] yuv = RotationKernelTest.randomFrame(width, height, 1);
+            for (int rotation : new int[]{90, 180, 270}) {
+                long perPixel = median(yuv, width, height, rotation, false);
+                long tiled = median(yuv, width, height, rotation, true);
+                System.out.println(width + "x" + height + " @ " + rotation + ": per-pixel "
+                        + perPixel / 1000 + "us, tiled " + tiled / 1000 + "us, "
+                        + String.format("%.2f", (double) perPixel / tiled) + "x");
+            }
+        }
+    }
+
+    private static long median(byte[] yuv, int width, int height, int rotation, boolean tiled) {
+        long[] times = new long[RUNS];
+        for (int i = 0; i < WARMUP_RUNS + RUNS; i++) {
+            long start = System.nanoTime();
+            if (tiled) {
+                RotationKernelTest.rotate(yuv, width, height, rotation, false);
+            } else {
+                RotationKernelTest.rotatePerPixel(yuv, width, height, rotation);
+            }
+            if (i >= WARMUP_RUNS) {
+                times[i - WARMUP_RUNS] = System.nanoTime() - start;
+            }
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+}
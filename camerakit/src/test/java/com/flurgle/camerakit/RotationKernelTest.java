@@ -0,0 +1,146 @@
+package com.flurgle.camerakit;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class RotationKernelTest {
+
+    // Multiples of the tile size and sizes leaving odd remainders in both directions.
+    private static final int[][] SIZES = {
+            {64, 64}, {96, 32}, {100, 70}, {34, 98}, {66, 2}, {2, 2}
+    };
+
+    private static final int[] ROTATIONS = {0, 90, 180, 270};
+
+    @Test
+    public void rotateMatchesPerPixelLoop() {
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            byte[] yuv = randomFrame(width, height, width * 31 + height);
+            for (int rotation : ROTATIONS) {
+                byte[] expected = rotatePerPixel(yuv, width, height, rotation);
+                byte[] actual = rotate(yuv, width, height, rotation, false);
+                assertArrayEquals(width + "x" + height + " @ " + rotation, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void rotateMirroredMatchesMirroredPerPixelLoop() {
+        for (int[] size : SIZES) {
+            int width = size[0];
+            int height = size[1];
+            byte[] yuv = randomFrame(width, height, width * 17 + height);
+            for (int rotation : ROTATIONS) {
+                int outWidth = rotation % 180 != 0 ? height : width;
+                int outHeight = rotation % 180 != 0 ? width : height;
+                byte[] expected = mirror(rotatePerPixel(yuv, width, height, rotation), outWidth, outHeight);
+                byte[] actual = rotate(yuv, width, height, rotation, true);
+                assertArrayEquals(width + "x" + height + " @ " + rotation + " mirrored", expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void rotateInChromaRowRangesMatchesWholeFrame() {
+        int width = 100;
+        int height = 70;
+        byte[] yuv = randomFrame(width, height, 7);
+        for (int rotation : ROTATIONS) {
+            int outHeight = rotation % 180 != 0 ? width : height;
+            byte[] output = new byte[yuv.length];
+            // Uneven ranges, so stripe edges fall inside tiles.
+            int[] bounds = {0, 5, 22, outHeight / 2};
+            for (int i = 0; i + 1 < bounds.length; i++) {
+                RotationKernel.rotate(yuv, YuvLayout.nv21(width, height), output, rotation, false,
+                        0, 0, width, height, bounds[i], bounds[i + 1]);
+            }
+            assertArrayEquals("stripes @ " + rotation, rotatePerPixel(yuv, width, height, rotation), output);
+        }
+    }
+
+    @Test
+    public void rotationMatchesPerPixelLoop() {
+        int width = 100;
+        int height = 70;
+        byte[] yuv = randomFrame(width, height, 3);
+        for (int rotation : ROTATIONS) {
+            byte[] actual = new Rotation(yuv, width, height, rotation).getYuv();
+            assertArrayEquals("Rotation @ " + rotation, rotatePerPixel(yuv, width, height, rotation), actual);
+        }
+    }
+
+    static byte[] rotate(byte[] yuv, int width, int height, int rotation, boolean mirror) {
+        int outHeight = rotation % 180 != 0 ? width : height;
+        byte[] output = new byte[yuv.length];
+        RotationKernel.rotate(yuv, YuvLayout.nv21(width, height), output, rotation, mirror,
+                0, 0, width, height, 0, outHeight / 2);
+        return output;
+    }
+
+    static byte[] randomFrame(int width, int height, long seed) {
+        byte[] yuv = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(yuv);
+        return yuv;
+    }
+
+    /**
+     * The per-pixel NV21 rotation {@link Rotation} used before {@link RotationKernel}.
+     */
+    static byte[] rotatePerPixel(byte[] yuv, int width, int height, int rotation) {
+        final byte[] output = new byte[yuv.length];
+        final int frameSize = width * height;
+        final boolean swap = rotation % 180 != 0;
+        final boolean xflip = rotation % 270 != 0;
+        final boolean yflip = rotation >= 180;
+
+        for (int j = 0; j < height; j++) {
+            for (int i = 0; i < width; i++) {
+                final int yIn = j * width + i;
+                final int uIn = frameSize + (j >> 1) * width + (i & ~1);
+                final int vIn = uIn + 1;
+
+                final int wOut = swap ? height : width;
+                final int hOut = swap ? width : height;
+                final int iSwapped = swap ? j : i;
+                final int jSwapped = swap ? i : j;
+                final int iOut = xflip ? wOut - iSwapped - 1 : iSwapped;
+                final int jOut = yflip ? hOut - jSwapped - 1 : jSwapped;
+
+                final int yOut = jOut * wOut + iOut;
+                final int uOut = frameSize + (jOut >> 1) * wOut + (iOut & ~1);
+                final int vOut = uOut + 1;
+
+                output[yOut] = yuv[yIn];
+                output[uOut] = yuv[uIn];
+                output[vOut] = yuv[vIn];
+            }
+        }
+        return rotation == 0 ? yuv.clone() : output;
+    }
+
+    // Mirrors an NV21 frame horizontally, moving VU pairs as a unit.
+    private static byte[] mirror(byte[] yuv, int width, int height) {
+        byte[] output = new byte[yuv.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                output[y * width + x] = yuv[y * width + width - 1 - x];
+            }
+        }
+        int frameSize = width * height;
+        for (int y = 0; y < height / 2; y++) {
+            for (int x = 0; x < width / 2; x++) {
+                int d = frameSize + y * width + x * 2;
+                int s = frameSize + y * width + (width / 2 - 1 - x) * 2;
+                output[d] = yuv[s];
+                output[d + 1] = yuv[s + 1];
+            }
+        }
+        return output;
+    }
+
+}
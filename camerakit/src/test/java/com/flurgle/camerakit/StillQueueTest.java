@@ -0,0 +1,184 @@
+package com.flurgle.camerakit;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.flurgle.camerakit.CameraKit.Constants.STILL_OVERFLOW_COALESCE;
+import static com.flurgle.camerakit.CameraKit.Constants.STILL_OVERFLOW_DROP;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StillQueueTest {
+
+    @Test
+    public void dropPolicyKeepsTheOldestStills() {
+        ManualExecutor executor = new ManualExecutor();
+        StillQueue queue = new StillQueue(executor, 2, STILL_OVERFLOW_DROP);
+        Still first = submit(queue);
+        Still second = submit(queue);
+        Still third = submit(queue);
+
+        assertTrue(third.mDiscarded);
+        assertEquals(2, queue.getQueuedCount());
+        assertEquals(1, queue.getDroppedCount());
+
+        executor.runAll();
+        assertTrue(first.mRun);
+        assertTrue(second.mRun);
+        assertFalse(third.mRun);
+        assertEquals(0, queue.getQueuedCount());
+    }
+
+    @Test
+    public void coalescePolicyKeepsTheNewestStills() {
+        ManualExecutor executor = new ManualExecutor();
+        StillQueue queue = new StillQueue(executor, 2, STILL_OVERFLOW_COALESCE);
+        Still first = submit(queue);
+        Still second = submit(queue);
+        Still third = submit(queue);
+        Still fourth = submit(queue);
+
+        assertTrue(first.mDiscarded);
+        assertTrue(second.mDiscarded);
+        assertEquals(2, queue.getQueuedCount());
+        assertEquals(2, queue.getDroppedCount());
+
+        // The drain tasks of the replaced stills run the ones that took their place.
+        assertEquals(2, executor.mTasks.size());
+        executor.runAll();
+        assertFalse(first.mRun);
+        assertFalse(second.mRun);
+        assertTrue(third.mRun);
+        assertTrue(fourth.mRun);
+    }
+
+    @Test
+    public void eachStillIsRunOrDiscardedOnce() {
+        ManualExecutor executor = new ManualExecutor();
+        StillQueue queue = new StillQueue(executor, 3, STILL_OVERFLOW_COALESCE);
+        List<Still> stills = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            stills.add(submit(queue));
+            if (i % 4 == 3) {
+                executor.runNext();
+            }
+        }
+        executor.runAll();
+
+        int run = 0;
+        int discarded = 0;
+        for (Still still : stills) {
+            assertTrue(still.mRun != still.mDiscarded);
+            run += still.mRun ? 1 : 0;
+            discarded += still.mDiscarded ? 1 : 0;
+        }
+        assertEquals(discarded, queue.getDroppedCount());
+        assertEquals(stills.size(), run + discarded);
+        assertEquals(0, queue.getQueuedCount());
+        assertEquals(0, queue.getInFlightCount());
+    }
+
+    @Test
+    public void rejectedStillIsDiscardedAndCounted() {
+        Executor full = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                throw new RejectedExecutionException();
+            }
+        };
+        StillQueue queue = new StillQueue(full, 2, STILL_OVERFLOW_DROP);
+        Still still = submit(queue);
+
+        assertTrue(still.mDiscarded);
+        assertEquals(0, queue.getQueuedCount());
+        assertEquals(1, queue.getDroppedCount());
+    }
+
+    @Test
+    public void shrinkingDropsTheOldestWaitingStills() {
+        ManualExecutor executor = new ManualExecutor();
+        StillQueue queue = new StillQueue(executor, 3, STILL_OVERFLOW_DROP);
+        Still first = submit(queue);
+        Still second = submit(queue);
+        Still third = submit(queue);
+
+        queue.setMaxQueued(1);
+        assertTrue(first.mDiscarded);
+        assertTrue(second.mDiscarded);
+        assertEquals(1, queue.getQueuedCount());
+        assertEquals(2, queue.getDroppedCount());
+
+        executor.runAll();
+        assertTrue(third.mRun);
+    }
+
+    @Test
+    public void stillIsInFlightWhileItRuns() {
+        ManualExecutor executor = new ManualExecutor();
+        final StillQueue queue = new StillQueue(executor, 1, STILL_OVERFLOW_DROP);
+        final int[] inFlight = new int[1];
+        queue.submit(new Still() {
+            @Override
+            public void run() {
+                inFlight[0] = queue.getInFlightCount();
+            }
+        });
+        assertEquals(0, queue.getInFlightCount());
+        executor.runAll();
+        assertEquals(1, inFlight[0]);
+        assertEquals(0, queue.getInFlightCount());
+    }
+
+    private static Still submit(StillQueue queue) {
+        Still still = new Still();
+        queue.submit(still);
+        return still;
+    }
+
+    private static class Still implements StillQueue.Task {
+
+        boolean mRun;
+        boolean mDiscarded;
+
+        @Override
+        public void run() {
+            mRun = true;
+        }
+
+        @Override
+        public void discard() {
+            mDiscarded = true;
+        }
+
+    }
+
+    // Runs its tasks only when asked, in order.
+    private static class ManualExecutor implements Executor {
+
+        final List<Runnable> mTasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            mTasks.add(command);
+        }
+
+        void runNext() {
+            if (!mTasks.isEmpty()) {
+                mTasks.remove(0).run();
+            }
+        }
+
+        void runAll() {
+            while (!mTasks.isEmpty()) {
+                runNext();
+            }
+        }
+
+    }
+
+}
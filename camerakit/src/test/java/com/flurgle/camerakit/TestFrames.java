@@ -0,0 +1,108 @@
+package com.flurgle.camerakit;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Synthetic frames and quality measures shared by the image processing tests.
+ */
+final class TestFrames {
+
+    private TestFrames() {
+    }
+
+    /**
+     * An RGB image with smooth gradients, a hard edged checkerboard and some grain, which
+     * keeps every DCT frequency busy.
+     */
+    static BufferedImage natural(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(3);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (int) (128 + 100 * Math.sin(x / 37.0) * Math.cos(y / 23.0)) + random.nextInt(9);
+                int g = (int) (128 + 90 * Math.sin((x + y) / 51.0)) + random.nextInt(9);
+                int b = ((x / 40 + y / 40) & 1) * 160 + 40 + random.nextInt(9);
+                image.setRGB(x, y, (clamp(r) << 16) | (clamp(g) << 8) | clamp(b));
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Converts to NV21 with the full range BT.601 matrix of JFIF, averaging chroma over 2x2.
+     */
+    static byte[] nv21(BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        byte[] yuv = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int rgb = image.getRGB(x, y);
+                yuv[y * width + x] = (byte) clamp((int) Math.round(luma(rgb)));
+            }
+        }
+        for (int y = 0; y < height / 2; y++) {
+            for (int x = 0; x < width / 2; x++) {
+                double cb = 0;
+                double cr = 0;
+                for (int dy = 0; dy < 2; dy++) {
+                    for (int dx = 0; dx < 2; dx++) {
+                        int rgb = image.getRGB(2 * x + dx, 2 * y + dy);
+                        int r = (rgb >> 16) & 0xff;
+                        int g = (rgb >> 8) & 0xff;
+                        int b = rgb & 0xff;
+                        cb += -0.168736 * r - 0.331264 * g + 0.5 * b + 128;
+                        cr += 0.5 * r - 0.418688 * g - 0.081312 * b + 128;
+                    }
+                }
+                int offset = width * height + y * width + 2 * x;
+                yuv[offset] = (byte) clamp((int) Math.round(cr / 4));
+                yuv[offset + 1] = (byte) clamp((int) Math.round(cb / 4));
+            }
+        }
+        return yuv;
+    }
+
+    /**
+     * PSNR in dB of the luma of {@code image} against the Y plane of {@code yuv}.
+     */
+    static double lumaPsnr(byte[] yuv, BufferedImage image) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double error = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                double d = (yuv[y * width + x] & 0xff) - luma(image.getRGB(x, y));
+                error += d * d;
+            }
+        }
+        return psnr(error / (width * height));
+    }
+
+    /**
+     * PSNR in dB between two planes of {@code length} samples starting at {@code offset}.
+     */
+    static double psnr(byte[] a, byte[] b, int offset, int length) {
+        double error = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int d = (a[i] & 0xff) - (b[i] & 0xff);
+            error += d * d;
+        }
+        return psnr(error / length);
+    }
+
+    static int clamp(int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+
+    private static double luma(int rgb) {
+        return 0.299 * ((rgb >> 16) & 0xff) + 0.587 * ((rgb >> 8) & 0xff) + 0.114 * (rgb & 0xff);
+    }
+
+    private static double psnr(double meanSquaredError) {
+        return meanSquaredError == 0 ? Double.POSITIVE_INFINITY
+                : 10 * Math.log10(255.0 * 255.0 / meanSquaredError);
+    }
+
+}